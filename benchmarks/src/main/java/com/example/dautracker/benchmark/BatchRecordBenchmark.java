@@ -0,0 +1,113 @@
+package com.example.dautracker.benchmark;
+
+import com.example.dautracker.service.DAUDayClock;
+import com.example.dautracker.service.DAUService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量记录活跃 DAUService.batchRecordUserActive
+ * 预先生成 BATCHES 批用户ID轮流写入，每次调用后清空Redis，避免后面的批次全部落在已置位的位上；
+ * batchRecordUserActive 写入当天，batchRecordClosedDay 写入已结束的日期(补录，新增活跃时清除缓存)；
+ * dense 为一段连续区间内一半的ID(会走稠密区间合并脚本)，sparse 为在 [1, 1亿] 内随机分布的ID(逐个SETBIT)
+ @author lk
+ @create 2026/02/25-20:41
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchRecordBenchmark {
+
+    private static final int BATCHES = 16;
+
+    private static final long SPARSE_RANGE = 100_000_000L;
+
+    @Param({"1000", "10000", "100000"})
+    public int batchSize;
+
+    @Param({"dense", "sparse"})
+    public String density;
+
+    @Param({"true"})
+    public boolean denseWrite;
+
+    private BenchmarkEnvironment environment;
+
+    private DAUService dauService;
+
+    private long[][] batches;
+
+    private DAUDayClock dayClock;
+
+    private LocalDate closedDay;
+
+    private int invocation;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = BenchmarkEnvironment.start("dau.dense-write.enabled=" + denseWrite);
+        dauService = environment.getBean(DAUService.class);
+        dayClock = environment.getBean(DAUDayClock.class);
+        closedDay = dayClock.earliestToday().minusDays(1);
+
+        Random random = new Random(42);
+        batches = new long[BATCHES][];
+        for (int b = 0; b < BATCHES; b++) {
+            long[] ids = new long[batchSize];
+            long base = 1L + (long) b * batchSize * 2;
+            for (int i = 0; i < batchSize; i++) {
+                ids[i] = "dense".equals(density)
+                        ? base + random.nextInt(batchSize * 2)
+                        : 1L + (long) (random.nextDouble() * SPARSE_RANGE);
+            }
+            batches[b] = ids;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        environment.close();
+    }
+
+    /**
+     * 每次调用后清空Redis，下一批仍写入未置位的位；单次调用在毫秒级，Invocation级别的夹具开销可以忽略
+     */
+    @TearDown(Level.Invocation)
+    public void flush() {
+        environment.flush();
+    }
+
+    @Benchmark
+    public int batchRecordUserActive() {
+        return record(dayClock.today());
+    }
+
+    @Benchmark
+    public int batchRecordClosedDay() {
+        return record(closedDay);
+    }
+
+    private int record(LocalDate date) {
+        //batchRecordUserActive 会原地排序，每次传入副本
+        long[] ids = batches[invocation++ % BATCHES].clone();
+        return dauService.batchRecordUserActive(ids, ids.length, date);
+    }
+}
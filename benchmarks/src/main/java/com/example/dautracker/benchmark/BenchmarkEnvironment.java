@@ -0,0 +1,103 @@
+package com.example.dautracker.benchmark;
+
+import com.example.dautracker.DauTrackerApplication;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 基准测试的运行环境：嵌入式Redis + 不带Web的完整应用上下文
+ * 默认在随机端口启动嵌入式Redis(6.2)；指定 -Dredis.port 时改为连接本机已有的Redis，
+ * 此时默认使用15号库(-Dredis.database)，每轮测试开始前会清空该库
+ @author lk
+ @create 2026/02/25-20:18
+ */
+final class BenchmarkEnvironment implements AutoCloseable {
+
+    private final RedisServer redisServer;
+
+    private final ConfigurableApplicationContext context;
+
+    private BenchmarkEnvironment(RedisServer redisServer, ConfigurableApplicationContext context) {
+        this.redisServer = redisServer;
+        this.context = context;
+    }
+
+    /**
+     * 启动Redis和应用上下文
+     * @param properties 额外的应用配置，如 dau.shard.enabled=true
+     * @return 运行环境
+     */
+    static BenchmarkEnvironment start(String... properties) throws IOException {
+        String externalPort = System.getProperty("redis.port");
+        RedisServer redisServer = null;
+        int port;
+        String database;
+        if (externalPort != null) {
+            port = Integer.parseInt(externalPort);
+            database = System.getProperty("redis.database", "15");
+        } else {
+            port = freePort();
+            database = "0";
+            redisServer = new RedisServer(port);
+            redisServer.start();
+        }
+
+        //以命令行参数传入，优先级高于 application.yml，其中的debug日志会明显拖慢热点路径
+        List<String> args = new ArrayList<>(Arrays.asList(
+                "--spring.redis.host=localhost",
+                "--spring.redis.port=" + port,
+                "--spring.redis.database=" + database,
+                "--logging.level.com.example.dautracker=warn",
+                "--logging.level.org.springframework.data.redis=warn"));
+        for (String property : properties) {
+            args.add("--" + property);
+        }
+
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(DauTrackerApplication.class)
+                .web(WebApplicationType.NONE)
+                .bannerMode(Banner.Mode.OFF)
+                .run(args.toArray(new String[0]));
+        BenchmarkEnvironment environment = new BenchmarkEnvironment(redisServer, context);
+        environment.flush();
+        return environment;
+    }
+
+    <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    /**
+     * 清空当前库
+     */
+    void flush() {
+        context.getBean(StringRedisTemplate.class).execute((RedisCallback<Object>) connection -> {
+            connection.flushDb();
+            return null;
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        context.close();
+        if (redisServer != null) {
+            redisServer.stop();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.dautracker.benchmark;
+
+import com.example.dautracker.config.DAUProperties;
+import com.example.dautracker.service.DAUDayClock;
+import com.example.dautracker.service.DAUKeyLayout;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 记录热点路径上生成Key的开销
+ * format 为原来的做法：LocalDate.now() 后格式化拼接Key，再用平台字符集 getBytes；
+ * cached 为 DAUDayClock.today() + DAUKeyLayout.rawShardKey，直接取缓存的UTF-8字节。
+ * 加 -prof gc 可以同时看到每次调用分配的字节数：java -jar target/benchmarks.jar KeyCache -prof gc
+ @author lk
+ @create 2026/02/24-20:52
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyCacheBenchmark {
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private static final long SHARD_SIZE = 1L << 24;
+
+    @Param({"false", "true"})
+    public boolean sharded;
+
+    private DAUDayClock dayClock;
+
+    private DAUKeyLayout keyLayout;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        DAUProperties properties = new DAUProperties();
+        properties.getShard().setEnabled(sharded);
+        properties.getShard().setShardSize(SHARD_SIZE);
+
+        dayClock = new DAUDayClock();
+        inject(dayClock, "dauProperties", properties);
+        dayClock.afterPropertiesSet();
+
+        keyLayout = new DAUKeyLayout();
+        inject(keyLayout, "dauProperties", properties);
+    }
+
+    @Benchmark
+    public byte[] format() {
+        long shard = shardOf(nextUserId());
+        String key = "dau:" + LocalDate.now().format(DATE_FORMATTER);
+        if (sharded) {
+            key = key + ":{" + shard + "}";
+        }
+        return key.getBytes();
+    }
+
+    @Benchmark
+    public byte[] cached() {
+        return keyLayout.rawShardKey(dayClock.today(), shardOf(nextUserId()));
+    }
+
+    private long shardOf(long userId) {
+        return sharded ? userId / SHARD_SIZE : 0L;
+    }
+
+    /**
+     * 用户ID落在前16个分片内，与线上活跃用户的分布相近
+     */
+    private static long nextUserId() {
+        return ThreadLocalRandom.current().nextLong(16 * SHARD_SIZE);
+    }
+
+    private static void inject(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
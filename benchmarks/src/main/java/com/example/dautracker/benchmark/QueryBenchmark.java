@@ -0,0 +1,100 @@
+package com.example.dautracker.benchmark;
+
+import com.example.dautracker.service.DAUService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 查询 DAUService.isUserActive、getDauCount、getDauCountRange
+ * 预先写入 DAYS 天已结束的数据，每天 usersPerDay 个在 [1, userRange] 内随机的用户；
+ * countCache=true 时已结束日期的DAU命中进程内缓存，false 时每次都执行BITCOUNT
+ @author lk
+ @create 2026/02/25-20:55
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+
+    private static final int DAYS = 7;
+
+    private static final int BATCH_SIZE = 100_000;
+
+    @Param({"true", "false"})
+    public boolean countCache;
+
+    @Param({"1000000"})
+    public int usersPerDay;
+
+    @Param({"10000000"})
+    public long userRange;
+
+    private BenchmarkEnvironment environment;
+
+    private DAUService dauService;
+
+    private LocalDate firstDate;
+
+    private LocalDate lastDate;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = BenchmarkEnvironment.start("dau.count-cache.enabled=" + countCache);
+        dauService = environment.getBean(DAUService.class);
+        firstDate = LocalDate.of(2026, 1, 1);
+        lastDate = firstDate.plusDays(DAYS - 1);
+
+        Random random = new Random(42);
+        long[] ids = new long[BATCH_SIZE];
+        for (int day = 0; day < DAYS; day++) {
+            for (int written = 0; written < usersPerDay; written += BATCH_SIZE) {
+                int length = Math.min(BATCH_SIZE, usersPerDay - written);
+                for (int i = 0; i < length; i++) {
+                    ids[i] = 1L + (long) (random.nextDouble() * userRange);
+                }
+                dauService.batchRecordUserActive(ids, length, firstDate.plusDays(day));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        environment.close();
+    }
+
+    @Benchmark
+    public boolean isUserActive() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return dauService.isUserActive(random.nextLong(1, userRange + 1), firstDate.plusDays(random.nextInt(DAYS)));
+    }
+
+    @Benchmark
+    public Long getDauCount() {
+        return dauService.getDauCount(firstDate.plusDays(ThreadLocalRandom.current().nextInt(DAYS)));
+    }
+
+    @Benchmark
+    public Map<String, Long> getDauCountRange() {
+        return dauService.getDauCountRange(firstDate, lastDate);
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.dautracker.benchmark;
+
+import com.example.dautracker.service.DAUDayClock;
+import com.example.dautracker.service.DAUService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个用户记录活跃 DAUService.recordUserActive
+ * 用户ID在 [1, userRange] 内随机，counter=true 时通过Lua脚本同时维护计数Key。
+ * recordUserActive 写入当天；recordClosedDay 写入已结束的日期，新增活跃时还会清除该日期的DAU数量和留存缓存
+ * 运行：java -jar target/benchmarks.jar RecordBenchmark，连接本机Redis时加 -jvmArgs -Dredis.port=6379
+ @author lk
+ @create 2026/02/25-20:32
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecordBenchmark {
+
+    @Param({"false", "true"})
+    public boolean counter;
+
+    @Param({"shard-off", "shard-on"})
+    public String layout;
+
+    @Param({"10000000"})
+    public long userRange;
+
+    private BenchmarkEnvironment environment;
+
+    private DAUService dauService;
+
+    private DAUDayClock dayClock;
+
+    private LocalDate closedDay;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = BenchmarkEnvironment.start(
+                "dau.counter.enabled=" + counter,
+                "dau.shard.enabled=" + "shard-on".equals(layout));
+        dauService = environment.getBean(DAUService.class);
+        dayClock = environment.getBean(DAUDayClock.class);
+        closedDay = dayClock.earliestToday().minusDays(1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        environment.close();
+    }
+
+    @Benchmark
+    public boolean recordUserActive() {
+        return dauService.recordUserActive(ThreadLocalRandom.current().nextLong(1, userRange + 1), dayClock.today());
+    }
+
+    @Benchmark
+    public boolean recordClosedDay() {
+        return dauService.recordUserActive(ThreadLocalRandom.current().nextLong(1, userRange + 1), closedDay);
+    }
+}
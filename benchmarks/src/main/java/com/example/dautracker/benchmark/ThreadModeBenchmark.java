@@ -0,0 +1,129 @@
+package com.example.dautracker.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 平台线程与虚拟线程的对比
+ * 模拟一批同时到达的请求：每个请求占用一个请求线程，再把分片查询扇出到并行线程池，每次Redis调用阻塞 latencyMicros；
+ * platform 与默认配置一致(Tomcat 200个线程 + 8个扇出线程)，virtual 对应 dau.virtual-threads.enabled=true，
+ * 统计处理完整批请求的耗时。virtual 需要在Java 21上运行：mvn -Pjava21 package && java -jar target/benchmarks.jar ThreadMode
+ @author lk
+ @create 2026/02/20-20:40
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThreadModeBenchmark {
+
+    private static final int TOMCAT_MAX_THREADS = 200;
+
+    private static final int FAN_OUT_PARALLELISM = 8;
+
+    @Param({"platform", "virtual"})
+    public String mode;
+
+    /**
+     * 同时到达的请求数
+     */
+    @Param({"1000", "5000"})
+    public int requests;
+
+    /**
+     * 每个请求扇出的分片数
+     */
+    @Param({"8"})
+    public int shards;
+
+    /**
+     * 模拟的单次Redis往返耗时
+     */
+    @Param({"500"})
+    public long latencyMicros;
+
+    private ExecutorService requestExecutor;
+
+    private ExecutorService fanOutExecutor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if ("virtual".equals(mode)) {
+            requestExecutor = newVirtualThreadExecutor();
+            fanOutExecutor = newVirtualThreadExecutor();
+        } else {
+            requestExecutor = Executors.newFixedThreadPool(TOMCAT_MAX_THREADS);
+            fanOutExecutor = Executors.newFixedThreadPool(FAN_OUT_PARALLELISM);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        requestExecutor.shutdownNow();
+        fanOutExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public long handleBurst() {
+        List<CompletableFuture<Long>> responses = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            responses.add(CompletableFuture.supplyAsync(this::handleRequest, requestExecutor));
+        }
+
+        long total = 0L;
+        for (CompletableFuture<Long> response : responses) {
+            total += response.join();
+        }
+        return total;
+    }
+
+    /**
+     * 与 RedisDAUStore.fanOut 相同：每个分片一个任务提交到扇出线程池，请求线程阻塞等待全部完成
+     */
+    private long handleRequest() {
+        List<CompletableFuture<Long>> futures = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            futures.add(CompletableFuture.supplyAsync(this::redisCall, fanOutExecutor));
+        }
+
+        long count = 0L;
+        for (CompletableFuture<Long> future : futures) {
+            count += future.join();
+        }
+        return count;
+    }
+
+    private long redisCall() {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(latencyMicros));
+        return 1L;
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() throws Exception {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("virtual 模式需要Java 21及以上，当前为 " + System.getProperty("java.version"), e);
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package com.example.dautracker.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * DAUController 端到端压测
+ * 多个线程按权重随机发出 record/batch/check/count/range 请求，每种请求一个HdrHistogram记录延迟，
+ * 结束后打印吞吐量和 p50/p99/p999，并把结果写成JSON(带上当前提交)，指定 load.baseline 时与之前的结果对比。
+ * 先启动应用和本机Redis，再在 benchmarks 目录运行：
+ * mvn -q compile exec:java -Dload.threads=32 -Dload.duration=60 -Dload.mix=record=60,batch=5,check=20,count=10,range=5
+ * 设置 load.rate(每秒总请求数)时按固定速率发出请求，延迟从计划发出时间算起，避免协调遗漏(coordinated omission)
+ @author lk
+ @create 2026/02/26-20:12
+ */
+public class LoadTest {
+
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private static final DateTimeFormatter FILE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+
+    private final String baseUrl = System.getProperty("load.url", "http://localhost:9000");
+    private final int threads = Integer.getInteger("load.threads", 16);
+    private final int warmupSeconds = Integer.getInteger("load.warmup", 10);
+    private final int durationSeconds = Integer.getInteger("load.duration", 30);
+    private final int rate = Integer.getInteger("load.rate", 0);
+    private final int batchSize = Integer.getInteger("load.batch-size", 1000);
+    private final long userRange = Long.getLong("load.user-range", 10_000_000L);
+    private final int rangeDays = Integer.getInteger("load.range-days", 7);
+    private final String mix = System.getProperty("load.mix", "record=60,batch=5,check=20,count=10,range=5");
+    private final String outputDir = System.getProperty("load.output-dir", "target/load-results");
+    private final String baseline = System.getProperty("load.baseline");
+
+    private final Map<Operation, Integer> weights = parseMix(mix);
+    private final int totalWeight = weights.values().stream().mapToInt(Integer::intValue).sum();
+    private final Map<Operation, Stats> stats = new LinkedHashMap<>();
+
+    private volatile boolean measuring;
+    private volatile boolean running = true;
+
+    /**
+     * 压测的请求类型
+     */
+    enum Operation {
+        RECORD, BATCH, CHECK, COUNT, RANGE
+    }
+
+    /**
+     * 单个请求类型的延迟和错误数
+     */
+    private static class Stats {
+        private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_NANOS, 3);
+        private final LongAdder errors = new LongAdder();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadTest().run();
+    }
+
+    private void run() throws Exception {
+        for (Operation operation : weights.keySet()) {
+            stats.put(operation, new Stats());
+        }
+        //HttpURLConnection默认每个地址只保留5个空闲长连接，线程更多时会不断新建连接
+        System.setProperty("http.maxConnections", Integer.toString(threads));
+
+        System.out.printf("压测 %s: 线程=%d, 预热=%ds, 持续=%ds, 速率=%s, 配比=%s%n",
+                baseUrl, threads, warmupSeconds, durationSeconds, rate > 0 ? rate + "/s" : "不限", weights);
+
+        List<Thread> workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::work, "load-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+
+        TimeUnit.SECONDS.sleep(warmupSeconds);
+        //丢弃预热期间的数据
+        for (Stats s : stats.values()) {
+            s.recorder.reset();
+            s.errors.reset();
+        }
+        measuring = true;
+        long start = System.nanoTime();
+        TimeUnit.SECONDS.sleep(durationSeconds);
+        Map<Operation, Histogram> histograms = new LinkedHashMap<>();
+        for (Map.Entry<Operation, Stats> entry : stats.entrySet()) {
+            histograms.put(entry.getKey(), entry.getValue().recorder.getIntervalHistogram());
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        measuring = false;
+        running = false;
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+        }
+
+        Map<String, Object> result = buildResult(histograms, elapsedSeconds);
+        print(result);
+        File file = write(result);
+        System.out.println("结果已写入: " + file);
+        if (baseline != null) {
+            compare(result, new ObjectMapper().readTree(new File(baseline)));
+        }
+    }
+
+    /**
+     * 压测线程，按权重选择请求；固定速率时每个线程分到 rate/threads，按计划时间发出
+     */
+    private void work() {
+        long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1) * threads / rate : 0L;
+        long next = System.nanoTime();
+        while (running) {
+            long intended = System.nanoTime();
+            if (intervalNanos > 0) {
+                long wait = next - intended;
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                intended = next;
+                next += intervalNanos;
+            }
+
+            Operation operation = pick();
+            boolean success;
+            try {
+                success = execute(operation);
+            } catch (IOException e) {
+                success = false;
+            }
+            long latency = System.nanoTime() - intended;
+            if (!measuring) {
+                continue;
+            }
+            Stats s = stats.get(operation);
+            s.recorder.recordValue(Math.min(latency, HIGHEST_TRACKABLE_NANOS));
+            if (!success) {
+                s.errors.increment();
+            }
+        }
+    }
+
+    private Operation pick() {
+        int r = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Map.Entry<Operation, Integer> entry : weights.entrySet()) {
+            r -= entry.getValue();
+            if (r < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("配比为空");
+    }
+
+    /**
+     * 发出一次请求
+     * @return 是否返回2xx
+     */
+    private boolean execute(Operation operation) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (operation) {
+            case RECORD:
+                return request("POST", "/api/dau/record?userId=" + randomUser(random), null);
+            case BATCH:
+                StringBuilder body = new StringBuilder(batchSize * 9).append('[');
+                for (int i = 0; i < batchSize; i++) {
+                    if (i > 0) {
+                        body.append(',');
+                    }
+                    body.append(randomUser(random));
+                }
+                return request("POST", "/api/dau/batch-record", body.append(']').toString());
+            case CHECK:
+                return request("GET", "/api/dau/check?userId=" + randomUser(random), null);
+            case COUNT:
+                return request("GET", "/api/dau/count", null);
+            case RANGE:
+                LocalDate today = LocalDate.now();
+                return request("GET", "/api/dau/range?startDate=" + today.minusDays(rangeDays - 1) + "&endDate=" + today, null);
+            default:
+                throw new IllegalArgumentException("未知的请求类型: " + operation);
+        }
+    }
+
+    private long randomUser(ThreadLocalRandom random) {
+        return random.nextLong(1, userRange + 1);
+    }
+
+    private boolean request(String method, String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(30000);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        int status = connection.getResponseCode();
+        //读完响应体，连接才能放回长连接缓存复用
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                while (reader.read() != -1) {
+                    //丢弃
+                }
+            }
+        }
+        return status >= 200 && status < 300;
+    }
+
+    private Map<String, Object> buildResult(Map<Operation, Histogram> histograms, double elapsedSeconds) {
+        Histogram total = new Histogram(HIGHEST_TRACKABLE_NANOS, 3);
+        long totalErrors = 0L;
+        Map<String, Object> operations = new LinkedHashMap<>();
+        for (Map.Entry<Operation, Histogram> entry : histograms.entrySet()) {
+            long errors = stats.get(entry.getKey()).errors.sum();
+            operations.put(entry.getKey().name().toLowerCase(), summary(entry.getValue(), errors, elapsedSeconds));
+            total.add(entry.getValue());
+            totalErrors += errors;
+        }
+
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("url", baseUrl);
+        config.put("threads", threads);
+        config.put("warmupSeconds", warmupSeconds);
+        config.put("durationSeconds", durationSeconds);
+        config.put("rate", rate);
+        config.put("batchSize", batchSize);
+        config.put("userRange", userRange);
+        config.put("rangeDays", rangeDays);
+        config.put("mix", mix);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("time", LocalDateTime.now().toString());
+        result.put("commit", gitCommit());
+        result.put("config", config);
+        result.put("total", summary(total, totalErrors, elapsedSeconds));
+        result.put("operations", operations);
+        return result;
+    }
+
+    /**
+     * 单个请求类型的统计，延迟单位为毫秒
+     */
+    private static Map<String, Object> summary(Histogram histogram, long errors, double elapsedSeconds) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("requests", histogram.getTotalCount());
+        summary.put("errors", errors);
+        summary.put("throughput", round(histogram.getTotalCount() / elapsedSeconds));
+        summary.put("mean", millis(histogram.getMean()));
+        for (double percentile : PERCENTILES) {
+            String name = "p" + (percentile == Math.rint(percentile)
+                    ? Integer.toString((int) percentile)
+                    : Double.toString(percentile).replace(".", ""));
+            summary.put(name, millis(histogram.getValueAtPercentile(percentile)));
+        }
+        summary.put("max", millis(histogram.getMaxValue()));
+        return summary;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void print(Map<String, Object> result) {
+        System.out.printf("%-8s %10s %8s %12s %9s %9s %9s %9s %9s%n",
+                "请求", "请求数", "错误", "吞吐(/s)", "p50(ms)", "p90(ms)", "p99(ms)", "p999(ms)", "max(ms)");
+        Map<String, Object> rows = new LinkedHashMap<>((Map<String, Object>) result.get("operations"));
+        rows.put("total", result.get("total"));
+        for (Map.Entry<String, Object> row : rows.entrySet()) {
+            Map<String, Object> s = (Map<String, Object>) row.getValue();
+            System.out.printf("%-8s %10d %8d %12.1f %9.3f %9.3f %9.3f %9.3f %9.3f%n", row.getKey(),
+                    s.get("requests"), s.get("errors"), s.get("throughput"),
+                    s.get("p50"), s.get("p90"), s.get("p99"), s.get("p999"), s.get("max"));
+        }
+    }
+
+    private File write(Map<String, Object> result) throws IOException {
+        File dir = new File(outputDir);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建目录: " + dir);
+        }
+        String name = LocalDateTime.now().format(FILE_TIME_FORMATTER) + "-" + result.get("commit") + ".json";
+        File file = new File(dir, name);
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, result);
+        return file;
+    }
+
+    /**
+     * 与基准结果对比吞吐量和p99，正数表示本次更高
+     */
+    @SuppressWarnings("unchecked")
+    private static void compare(Map<String, Object> result, JsonNode baseline) {
+        System.out.printf("与基准对比(%s):%n", baseline.path("commit").asText());
+        Map<String, Object> rows = new LinkedHashMap<>((Map<String, Object>) result.get("operations"));
+        rows.put("total", result.get("total"));
+        for (Map.Entry<String, Object> row : rows.entrySet()) {
+            JsonNode before = "total".equals(row.getKey())
+                    ? baseline.path("total")
+                    : baseline.path("operations").path(row.getKey());
+            if (before.isMissingNode()) {
+                continue;
+            }
+            Map<String, Object> after = (Map<String, Object>) row.getValue();
+            System.out.printf("%-8s 吞吐 %+7.1f%%  p99 %+7.1f%%%n", row.getKey(),
+                    change(before.path("throughput").asDouble(), (Double) after.get("throughput")),
+                    change(before.path("p99").asDouble(), (Double) after.get("p99")));
+        }
+    }
+
+    private static double change(double before, double after) {
+        return before == 0 ? 0 : (after - before) * 100 / before;
+    }
+
+    /**
+     * 解析 record=60,batch=5 形式的配比，权重为0的请求不发出
+     */
+    private static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new LinkedHashMap<>();
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("配比格式错误，应为 record=60,check=40: " + mix);
+            }
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight > 0) {
+                weights.put(Operation.valueOf(pair[0].trim().toUpperCase()), weight);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("配比中没有权重大于0的请求: " + mix);
+        }
+        return weights;
+    }
+
+    /**
+     * 当前提交的短哈希，不在git仓库中时为unknown
+     */
+    private static String gitCommit() {
+        try {
+            Process process = new ProcessBuilder("git", "rev-parse", "--short", "HEAD").redirectErrorStream(true).start();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line = reader.readLine();
+                return process.waitFor() == 0 && line != null ? line.trim() : "unknown";
+            }
+        } catch (IOException e) {
+            return "unknown";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "unknown";
+        }
+    }
+
+    private static double millis(double nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+}
@@ -0,0 +1,420 @@
+package com.example.dautracker.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * DAU相关配置，对应 application.yml 中的 dau.* 配置项
+ @author lk
+ @create 2026/02/09-21:12
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "dau")
+public class DAUProperties {
+
+    /**
+     * Bitmap数据保留天数，也是WAU/MAU等去重统计窗口的上限；
+     * 默认只保留7天，需要MAU(30天)时设置为31，每天的Bitmap常驻内存也会相应增加
+     */
+    private int expireDays = 7;
+
+    /**
+     * 本地写缓冲配置
+     */
+    private Buffer buffer = new Buffer();
+
+    /**
+     * 用户ID映射配置
+     */
+    private IdMapping idMapping = new IdMapping();
+
+    /**
+     * Bitmap分片配置
+     */
+    private Shard shard = new Shard();
+
+    /**
+     * WAU/MAU等多日去重统计的并集缓存配置
+     */
+    private Union union = new Union();
+
+    /**
+     * 留存统计配置
+     */
+    private Retention retention = new Retention();
+
+    /**
+     * DAU数量缓存配置
+     */
+    private CountCache countCache = new CountCache();
+
+    /**
+     * 实时活跃人数计数器配置
+     */
+    private Counter counter = new Counter();
+
+    /**
+     * HyperLogLog近似统计配置
+     */
+    private Hll hll = new Hll();
+
+    /**
+     * Bitmap存储引擎配置
+     */
+    private Store store = new Store();
+
+    /**
+     * 虚拟线程配置
+     */
+    private VirtualThreads virtualThreads = new VirtualThreads();
+
+    /**
+     * 历史数据批量导入配置
+     */
+    private BulkImport bulkImport = new BulkImport();
+
+    /**
+     * 密集批量写入配置
+     */
+    private DenseWrite denseWrite = new DenseWrite();
+
+    /**
+     * 日期分桶的时区配置
+     */
+    private TimeZone timeZone = new TimeZone();
+
+    /**
+     * 活跃日志汇总和限流配置
+     */
+    private Logging logging = new Logging();
+
+    @Data
+    public static class Buffer {
+        /**
+         * 是否开启本地写缓冲，关闭时每次上报直接写入Redis
+         */
+        private boolean enabled = false;
+
+        /**
+         * 检查缓冲区是否需要刷新的周期
+         */
+        private Duration flushInterval = Duration.ofMillis(200);
+
+        /**
+         * 最大滞留时间，缓冲中最早的记录超过该时间后必须刷新到Redis
+         */
+        private Duration maxStaleness = Duration.ofSeconds(1);
+
+        /**
+         * 单日待刷新的记录数达到该值时立即刷新
+         */
+        private int flushBatchSize = 5000;
+
+        /**
+         * 每天在本地去重的最大用户数，超出后的用户不再本地去重，直接进入待刷新队列
+         */
+        private int maxTrackedUsersPerDay = 1_000_000;
+
+        /**
+         * 刷新失败的用户ID最多重新入队的次数，超出后丢弃并计入失败指标
+         */
+        private int maxFlushRetries = 5;
+
+        /**
+         * 应用关闭时等待刷新线程结束、并重试刷新剩余记录的最长时间
+         */
+        private Duration shutdownTimeout = Duration.ofSeconds(10);
+    }
+
+    @Data
+    public static class IdMapping {
+        /**
+         * 是否开启用户ID到连续偏移量的映射，开启后Bitmap大小取决于实际用户数而不是最大用户ID
+         */
+        private boolean enabled = false;
+
+        /**
+         * 本地缓存的映射条数上限
+         */
+        private long localCacheSize = 1_000_000;
+    }
+
+    @Data
+    public static class Shard {
+        /**
+         * 是否把每天的Bitmap按偏移量区间拆分为多个Key，开启后支持完整的64位用户ID
+         */
+        private boolean enabled = false;
+
+        /**
+         * 每个分片Key容纳的位数，默认2^24位(2MB)
+         */
+        private long shardSize = 1L << 24;
+
+        /**
+         * 跨分片并行查询/写入的线程数
+         */
+        private int parallelism = 8;
+    }
+
+    @Data
+    public static class Union {
+        /**
+         * 只包含已结束日期的并集Key的缓存时间，这些日期的数据不会再变化
+         */
+        private Duration closedTtl = Duration.ofDays(1);
+
+        /**
+         * 包含当天的结果Key的缓存时间，即实时WAU/MAU允许的最大延迟
+         */
+        private Duration liveTtl = Duration.ofSeconds(60);
+    }
+
+    @Data
+    public static class Retention {
+        /**
+         * 本地缓存的已结束日期留存结果条数上限
+         */
+        private long cacheSize = 10_000;
+
+        /**
+         * 已结束日期留存结果的缓存时间，本进程的补录会立即清除缓存，多实例部署时其他实例最多延迟这么久可见
+         */
+        private Duration closedTtl = Duration.ofHours(1);
+
+        /**
+         * 一次查询的同期群天数×留存天数上限，每个格子对应一次Redis端的BITOP AND
+         */
+        private int maxCells = 1000;
+    }
+
+    @Data
+    public static class CountCache {
+        /**
+         * 是否缓存DAU数量
+         */
+        private boolean enabled = true;
+
+        /**
+         * 本地缓存的已结束日期数量上限，超出后按LRU淘汰
+         */
+        private long maxClosedDays = 1000;
+
+        /**
+         * 已结束日期的本地缓存时间，多实例部署时其他实例补录数据后最多延迟这么久可见
+         */
+        private Duration closedTtl = Duration.ofHours(1);
+
+        /**
+         * 当天DAU的缓存时间
+         */
+        private Duration todayTtl = Duration.ofSeconds(5);
+
+        /**
+         * 持久化到Redis的已结束日期DAU总数(dau:total:yyyyMMdd)的保留时间，写入或补录时重新计时
+         */
+        private Duration totalsTtl = Duration.ofDays(400);
+    }
+
+    @Data
+    public static class Counter {
+        /**
+         * 是否维护每天的活跃人数计数Key，开启后单条记录通过Lua脚本原子地完成SETBIT、EXPIRE和计数，
+         * 当天的DAU查询变为O(1)的GET
+         */
+        private boolean enabled = false;
+    }
+
+    @Data
+    public static class Hll {
+        /**
+         * 用户DAU使用的统计方式，其他以字符串ID上报的指标(如匿名设备)固定使用HyperLogLog
+         */
+        private Backend userBackend = Backend.BITMAP;
+
+        /**
+         * 用户DAU写入HyperLogLog时使用的指标名
+         */
+        private String userMetric = "user";
+    }
+
+    @Data
+    public static class Store {
+        /**
+         * 存储引擎
+         */
+        private StoreType type = StoreType.REDIS;
+
+        /**
+         * 进程内Roaring Bitmap引擎配置
+         */
+        private Roaring roaring = new Roaring();
+
+        /**
+         * 内存映射文件引擎配置
+         */
+        private Mmap mmap = new Mmap();
+    }
+
+    @Data
+    public static class Roaring {
+        /**
+         * 快照保存位置，进程重启后从快照恢复
+         */
+        private SnapshotTarget snapshot = SnapshotTarget.REDIS;
+
+        /**
+         * 快照保存到磁盘时的目录
+         */
+        private String snapshotDir = "data/dau-snapshot";
+
+        /**
+         * 快照周期，进程异常退出时最多丢失这段时间内新增的活跃记录
+         */
+        private Duration snapshotInterval = Duration.ofSeconds(60);
+    }
+
+    @Data
+    public static class Mmap {
+        /**
+         * Bitmap文件目录，每天一个文件 yyyyMMdd.bitmap
+         */
+        private String dataDir = "data/dau-mmap";
+
+        /**
+         * 偏移量上限，与Redis单个Bitmap一致为2^32，文件按需增长且为稀疏文件
+         */
+        private long maxOffset = 1L << 32;
+
+        /**
+         * 每段映射的字节数，需为8的倍数，文件按段映射，只有写入过的段才会占用磁盘和页缓存
+         */
+        private int segmentSize = 16 * 1024 * 1024;
+    }
+
+    /**
+     * 存储引擎
+     */
+    public enum StoreType {
+        /**
+         * Redis Bitmap，支持多实例共享
+         */
+        REDIS,
+        /**
+         * 进程内Roaring Bitmap，查询不经过网络，适合单实例部署
+         */
+        ROARING,
+        /**
+         * 内存映射文件，不依赖Redis，由页缓存负责持久化，适合单机边缘部署
+         */
+        MMAP
+    }
+
+    /**
+     * 快照保存位置
+     */
+    public enum SnapshotTarget {
+        NONE,
+        REDIS,
+        DISK
+    }
+
+    @Data
+    public static class VirtualThreads {
+        /**
+         * 是否让Tomcat请求处理和跨分片并行查询/写入运行在虚拟线程上，需要Java 21及以上，低版本下自动退回平台线程
+         */
+        private boolean enabled = false;
+    }
+
+    @Data
+    public static class BulkImport {
+        /**
+         * 单个日期累计到多少个ID后写入一次Redis
+         */
+        private int chunkSize = 50_000;
+
+        /**
+         * 所有日期缓冲的ID总数上限，超出后全部写入，导入过程中的内存占用约为该值的8字节倍
+         */
+        private int maxBufferedIds = 1_000_000;
+
+        /**
+         * 每读取多少条记录输出一次导入进度，不大于0时不输出
+         */
+        private long progressLogInterval = 1_000_000;
+    }
+
+    @Data
+    public static class DenseWrite {
+        /**
+         * 是否把批量记录中密集的偏移量区间在本地拼成字节块，通过Lua脚本按位或合并到Bitmap，代替逐个SETBIT
+         */
+        private boolean enabled = true;
+
+        /**
+         * 单个区间的最大字节数，即一次脚本调用合并的数据量，过大会让Redis单次阻塞变长
+         */
+        private int maxRangeBytes = 64 * 1024;
+
+        /**
+         * 区间内至少包含多少个偏移量才按字节块合并
+         */
+        private int minIdsPerRange = 256;
+
+        /**
+         * 区间字节数不超过偏移量数量的多少倍时才按字节块合并，越小要求越密集
+         */
+        private int maxBytesPerId = 8;
+    }
+
+    @Data
+    public static class TimeZone {
+        /**
+         * 未指定地区时使用的时区，为空时使用服务器时区
+         */
+        private String defaultZone = "";
+
+        /**
+         * 地区 -> 时区ID，如 apac: Asia/Shanghai，记录和查询时通过region参数选择
+         */
+        private Map<String, String> regions = new LinkedHashMap<>();
+    }
+
+    @Data
+    public static class Logging {
+        /**
+         * 输出记录和查询汇总日志的周期，为0时不输出
+         */
+        private Duration summaryInterval = Duration.ofSeconds(60);
+
+        /**
+         * 同一条告警或错误日志在该时间内最多输出一次，其余只计数，在下一次输出时附带被省略的条数
+         */
+        private Duration rateLimitInterval = Duration.ofSeconds(10);
+    }
+
+    /**
+     * 统计方式
+     */
+    public enum Backend {
+        /**
+         * Bitmap精确统计，支持查询单个用户是否活跃和留存
+         */
+        BITMAP,
+        /**
+         * HyperLogLog近似统计，标准误差约0.81%，每天每个指标最多12KB
+         */
+        HYPERLOGLOG,
+        /**
+         * 同时写入两种结构，查询仍使用Bitmap，可用于对比误差或平滑迁移
+         */
+        BOTH
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.dautracker.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 线程池配置
+ * 开启 dau.virtual-threads.enabled 且运行在Java 21及以上时，Tomcat请求处理和跨分片并行任务改为每个任务一个虚拟线程，
+ * 项目仍按Java 8编译，虚拟线程相关的API通过反射调用
+ @author lk
+ @create 2026/02/11-22:30
+ */
+@Slf4j
+@Configuration
+public class ExecutorConfig {
+
+    /**
+     * 跨分片并行查询/写入使用的线程池
+     */
+    @Bean
+    public Executor dauFanOutExecutor(DAUProperties dauProperties) {
+        if (dauProperties.getVirtualThreads().isEnabled()) {
+            ExecutorService virtualExecutor = newVirtualThreadExecutor();
+            if (virtualExecutor != null) {
+                log.info("跨分片并行任务使用虚拟线程");
+                return virtualExecutor;
+            }
+        }
+
+        int parallelism = dauProperties.getShard().getParallelism();
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(parallelism);
+        executor.setMaxPoolSize(parallelism);
+        executor.setThreadNamePrefix("dau-fanout-");
+        executor.setDaemon(true);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Tomcat请求处理使用虚拟线程，不再受 server.tomcat.threads.max 的限制
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "dau.virtual-threads", name = "enabled", havingValue = "true")
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadTomcatCustomizer() {
+        return protocolHandler -> {
+            ExecutorService virtualExecutor = newVirtualThreadExecutor();
+            if (virtualExecutor != null) {
+                protocolHandler.setExecutor(virtualExecutor);
+                log.info("Tomcat请求处理使用虚拟线程");
+            }
+        };
+    }
+
+    /**
+     * 创建每个任务一个虚拟线程的执行器
+     * @return 运行时不支持虚拟线程时返回null
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.warn("当前Java版本{}不支持虚拟线程，继续使用平台线程", System.getProperty("java.version"));
+            return null;
+        }
+    }
+}
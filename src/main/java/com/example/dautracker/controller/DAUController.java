@@ -1,6 +1,9 @@
 package com.example.dautracker.controller;
 
+import com.example.dautracker.model.ActivityEvent;
 import com.example.dautracker.model.DAUStatistics;
+import com.example.dautracker.service.ActivityWriteBuffer;
+import com.example.dautracker.service.DAUDayClock;
 import com.example.dautracker.service.DAUService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,6 +13,7 @@ import org.springframework.web.bind.annotation.*;
 
 import java.time.LocalDate;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -24,20 +28,47 @@ public class DAUController {
     @Autowired
     private DAUService dauService;
 
+    @Autowired
+    private ActivityWriteBuffer activityWriteBuffer;
+
+    @Autowired
+    private DAUDayClock dayClock;
+
     /**
      * 记录用户活跃
      * @param userId 用户id
      * @param date 日期
-     * @return POST /api/dau/record?userId=123
+     * @param region 地区，未传日期时按该地区时区的当天记录
+     * @param withCount 是否同时返回当天实时DAU，为true时绕过写缓冲直接写入
+     * @return POST /api/dau/record?userId=123&region=apac&withCount=true
      */
     @PostMapping("/record")
     public ResponseEntity<DAUStatistics> recordUserActive(
             @RequestParam Long userId,
-            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
-        boolean success = dauService.recordUserActive(userId, date);
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(required = false) String region,
+            @RequestParam(defaultValue = "false") boolean withCount) {
+        if (!dayClock.isValidRegion(region)) {
+            return invalidRegion(region);
+        }
+        if (date == null) {
+            date = dayClock.today(region);
+        }
+
+        if (withCount) {
+            Long count = dauService.recordUserActiveAndCount(userId, date);
+            DAUStatistics stats = DAUStatistics.builder()
+                    .date(date.toString())
+                    .dauCount(count)
+                    .message(count != null ? "用户活跃记录成功" : "用户活跃记录失败")
+                    .build();
+            return ResponseEntity.ok(stats);
+        }
+
+        boolean success = activityWriteBuffer.recordUserActive(userId, date);
 
         DAUStatistics stats = DAUStatistics.builder()
-                .date(date != null ? date.toString() : LocalDate.now().toString())
+                .date(date.toString())
                 .message(success ? "用户活跃记录成功" : "用户活跃记录失败")
                 .build();
 
@@ -46,39 +77,82 @@ public class DAUController {
 
     /**
      * 批量记录用户活跃
+     * 请求体直接反序列化为long数组，不会为每个ID创建Long对象，null元素按0处理并被跳过
      * @param userIds 用户id列表
      * @param date 日期
+     * @param region 地区，未传日期时按该地区时区的当天记录
      * @return POST /api/dau/batch-record
      * Body: [1, 2, 3, 100, 500]
      */
     @PostMapping("/batch-record")
     public ResponseEntity<DAUStatistics> batchRecordUserActive(
-            @RequestBody Long[] userIds,
-            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
-        int count = dauService.batchRecordUserActive(userIds, date);
+            @RequestBody long[] userIds,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(required = false) String region) {
+        if (!dayClock.isValidRegion(region)) {
+            return invalidRegion(region);
+        }
+        if (date == null) {
+            date = dayClock.today(region);
+        }
+
+        int count = dauService.batchRecordUserActive(userIds, userIds.length, date);
 
         DAUStatistics stats = DAUStatistics.builder()
-                .date(date != null ? date.toString() : LocalDate.now().toString())
+                .date(date.toString())
                 .message(String.format("批量记录成功: %d/%d", count, userIds.length))
                 .build();
 
         return ResponseEntity.ok(stats);
     }
 
+    /**
+     * 批量记录跨多个日期的用户活跃事件，按日期分组后在一次Pipeline中写入
+     * @param events 活跃事件列表
+     * @param region 事件未指定地区时，时间戳按该地区的时区换算为日期
+     * @return POST /api/dau/batch-record-events?region=eu
+     * Body: [{"userId": 1, "date": "2026-02-20"}, {"userId": 2, "timestamp": 1771560000000, "region": "apac"}]
+     */
+    @PostMapping("/batch-record-events")
+    public ResponseEntity<DAUStatistics> batchRecordEvents(
+            @RequestBody List<ActivityEvent> events,
+            @RequestParam(required = false) String region) {
+        if (!dayClock.isValidRegion(region)) {
+            return invalidRegion(region);
+        }
+
+        int count = dauService.recordEvents(events, region);
+
+        DAUStatistics stats = DAUStatistics.builder()
+                .message(String.format("批量记录成功: %d/%d", count, events.size()))
+                .build();
+
+        return ResponseEntity.ok(stats);
+    }
+
     /**
      * 查询用户是否活跃
      * @param userId 用户id
      * @param date 日期
+     * @param region 地区，未传日期时查询该地区时区的当天
      * @return GET /api/dau/check?userId=123&date=2026-02-07
      */
     @GetMapping("/check")
     public ResponseEntity<DAUStatistics> checkUserActive(
             @RequestParam Long userId,
-            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(required = false) String region) {
+        if (!dayClock.isValidRegion(region)) {
+            return invalidRegion(region);
+        }
+        if (date == null) {
+            date = dayClock.today(region);
+        }
+
         boolean isActive = dauService.isUserActive(userId, date);
 
         DAUStatistics stats = DAUStatistics.builder()
-                .date(date != null ? date.toString() : LocalDate.now().toString())
+                .date(date.toString())
                 .isActive(isActive)
                 .message(isActive ? "用户活跃" : "用户不活跃")
                 .build();
@@ -89,13 +163,18 @@ public class DAUController {
     /**
      * 获取指定日期的DAU
      * @param date 指定日期
+     * @param region 地区，未传日期时查询该地区时区的当天
      * @return GET /api/dau/count?date=2026-02-07
      */
     @GetMapping("/count")
     public ResponseEntity<DAUStatistics> getDauCount(
-            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(required = false) String region) {
+        if (!dayClock.isValidRegion(region)) {
+            return invalidRegion(region);
+        }
         if (date == null) {
-            date = LocalDate.now();
+            date = dayClock.today(region);
         }
 
         Long count = dauService.getDauCount(date);
@@ -129,6 +208,67 @@ public class DAUController {
         return ResponseEntity.ok(stats);
     }
 
+    /**
+     * 获取周活跃用户数(截止日期在内的7天去重)
+     * @param date 截止日期
+     * @param region 地区，未传日期时截止到该地区时区的当天
+     * @return GET /api/dau/wau?date=2026-02-07
+     */
+    @GetMapping("/wau")
+    public ResponseEntity<DAUStatistics> getWauCount(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(required = false) String region) {
+        return getRollingActiveCount(date, region, 7);
+    }
+
+    /**
+     * 获取月活跃用户数(截止日期在内的30天去重)，需要把 dau.expire-days 设置为至少30
+     * @param date 截止日期
+     * @param region 地区，未传日期时截止到该地区时区的当天
+     * @return GET /api/dau/mau?date=2026-02-07
+     */
+    @GetMapping("/mau")
+    public ResponseEntity<DAUStatistics> getMauCount(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(required = false) String region) {
+        return getRollingActiveCount(date, region, 30);
+    }
+
+    /**
+     * 获取最近N天的去重活跃用户数
+     * @param days 天数，范围为1到 dau.expire-days
+     * @param date 截止日期
+     * @param region 地区，未传日期时截止到该地区时区的当天
+     * @return GET /api/dau/rolling?days=14&date=2026-02-07
+     */
+    @GetMapping("/rolling")
+    public ResponseEntity<DAUStatistics> getRollingActiveCount(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(required = false) String region,
+            @RequestParam int days) {
+        if (!dayClock.isValidRegion(region)) {
+            return invalidRegion(region);
+        }
+        if (!dauService.isValidRollingWindow(days)) {
+            return ResponseEntity.badRequest().body(DAUStatistics.builder()
+                    .message(String.format("参数错误: 统计天数需在1到%d之间(dau.expire-days)", dauService.getExpireDays()))
+                    .build());
+        }
+        if (date == null) {
+            date = dayClock.today(region);
+        }
+
+        Long count = dauService.getRollingActiveCount(date, days);
+
+        DAUStatistics stats = DAUStatistics.builder()
+                .date(date.toString())
+                .dauCount(count)
+                .message(String.format("近%d天去重活跃用户查询成功", days))
+                .build();
+
+        return ResponseEntity.ok(stats);
+    }
+
     /**
      * 获取Key的内存占用
      * @param date 日期
@@ -138,7 +278,7 @@ public class DAUController {
     public ResponseEntity<Map<String, Object>> getMemoryUsage(
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
         if (date == null) {
-            date = LocalDate.now();
+            date = dayClock.today();
         }
 
         Long memoryBytes = dauService.getKeyMemoryUsage(date);
@@ -151,4 +291,10 @@ public class DAUController {
 
         return ResponseEntity.ok(response);
     }
+
+    private ResponseEntity<DAUStatistics> invalidRegion(String region) {
+        return ResponseEntity.badRequest().body(DAUStatistics.builder()
+                .message("参数错误: 未配置的地区 " + region)
+                .build());
+    }
 }
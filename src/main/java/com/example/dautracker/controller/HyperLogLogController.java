@@ -0,0 +1,183 @@
+package com.example.dautracker.controller;
+
+import com.example.dautracker.model.DAUStatistics;
+import com.example.dautracker.service.DAUDayClock;
+import com.example.dautracker.service.HyperLogLogService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按指标的HyperLogLog近似去重统计，ID为任意字符串(如设备UUID)
+ @author lk
+ @create 2026/02/16-21:10
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/hll")
+public class HyperLogLogController {
+
+    @Autowired
+    private HyperLogLogService hyperLogLogService;
+
+    @Autowired
+    private DAUDayClock dayClock;
+
+    /**
+     * 记录ID活跃
+     * @param metric 指标名
+     * @param id 字符串ID
+     * @param date 日期
+     * @return POST /api/hll/device/record?id=3f2b6c1e-...
+     */
+    @PostMapping("/{metric}/record")
+    public ResponseEntity<DAUStatistics> record(
+            @PathVariable String metric,
+            @RequestParam String id,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        if (!hyperLogLogService.isValidMetric(metric)) {
+            return invalidMetric();
+        }
+
+        boolean success = hyperLogLogService.record(metric, id, date);
+
+        DAUStatistics stats = DAUStatistics.builder()
+                .date(date != null ? date.toString() : dayClock.today().toString())
+                .message(success ? "活跃记录成功" : "活跃记录失败")
+                .build();
+
+        return ResponseEntity.ok(stats);
+    }
+
+    /**
+     * 批量记录ID活跃
+     * @param metric 指标名
+     * @param ids 字符串ID列表
+     * @param date 日期
+     * @return POST /api/hll/device/batch-record
+     * Body: ["a1", "b2", "c3"]
+     */
+    @PostMapping("/{metric}/batch-record")
+    public ResponseEntity<DAUStatistics> batchRecord(
+            @PathVariable String metric,
+            @RequestBody List<String> ids,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        if (!hyperLogLogService.isValidMetric(metric)) {
+            return invalidMetric();
+        }
+
+        int count = hyperLogLogService.batchRecord(metric, ids, date);
+
+        DAUStatistics stats = DAUStatistics.builder()
+                .date(date != null ? date.toString() : dayClock.today().toString())
+                .message(String.format("批量记录成功: %d/%d", count, ids.size()))
+                .build();
+
+        return ResponseEntity.ok(stats);
+    }
+
+    /**
+     * 获取指定日期的去重数量
+     * @param metric 指标名
+     * @param date 日期
+     * @return GET /api/hll/device/count?date=2026-02-16
+     */
+    @GetMapping("/{metric}/count")
+    public ResponseEntity<DAUStatistics> count(
+            @PathVariable String metric,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        if (!hyperLogLogService.isValidMetric(metric)) {
+            return invalidMetric();
+        }
+
+        if (date == null) {
+            date = dayClock.today();
+        }
+
+        DAUStatistics stats = DAUStatistics.builder()
+                .date(date.toString())
+                .dauCount(hyperLogLogService.count(metric, date))
+                .message("去重数量查询成功")
+                .build();
+
+        return ResponseEntity.ok(stats);
+    }
+
+    /**
+     * 获取日期范围内每天的去重数量
+     * @param metric 指标名
+     * @param startDate 开始日期
+     * @param endDate 结束日期
+     * @return GET /api/hll/device/range?startDate=2026-02-01&endDate=2026-02-07
+     */
+    @GetMapping("/{metric}/range")
+    public ResponseEntity<DAUStatistics> countRange(
+            @PathVariable String metric,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate) {
+        if (!hyperLogLogService.isValidMetric(metric)) {
+            return invalidMetric();
+        }
+
+        Map<String, Long> rangeStats = hyperLogLogService.countRange(metric, startDate, endDate);
+
+        DAUStatistics stats = DAUStatistics.builder()
+                .dateRangeStats(rangeStats)
+                .message("去重数量范围查询成功")
+                .build();
+
+        return ResponseEntity.ok(stats);
+    }
+
+    /**
+     * 获取截止日期在内的N天去重数量
+     * @param metric 指标名
+     * @param days 窗口天数，范围为1到 dau.expire-days
+     * @param date 截止日期
+     * @return GET /api/hll/device/rolling?days=30&date=2026-02-16
+     */
+    @GetMapping("/{metric}/rolling")
+    public ResponseEntity<DAUStatistics> countRolling(
+            @PathVariable String metric,
+            @RequestParam int days,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        if (!hyperLogLogService.isValidMetric(metric)) {
+            return invalidMetric();
+        }
+        if (!hyperLogLogService.isValidWindow(days)) {
+            return ResponseEntity.badRequest().body(DAUStatistics.builder()
+                    .message("参数错误: 统计天数需在1到数据保留天数(dau.expire-days)之间")
+                    .build());
+        }
+
+        if (date == null) {
+            date = dayClock.today();
+        }
+
+        DAUStatistics stats = DAUStatistics.builder()
+                .date(date.toString())
+                .dauCount(hyperLogLogService.countRolling(metric, date, days))
+                .message(String.format("近%d天去重数量查询成功", days))
+                .build();
+
+        return ResponseEntity.ok(stats);
+    }
+
+    private ResponseEntity<DAUStatistics> invalidMetric() {
+        return ResponseEntity.badRequest().body(DAUStatistics.builder()
+                .message("参数错误: 指标名只能包含字母、数字、下划线和中划线")
+                .build());
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.dautracker.controller;
+
+import com.example.dautracker.model.ImportResult;
+import com.example.dautracker.service.ActivityImportService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * 历史活跃数据导入
+ @author lk
+ @create 2026/02/21-21:20
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/dau")
+public class ImportController {
+
+    @Autowired
+    private ActivityImportService importService;
+
+    /**
+     * 流式导入历史活跃数据，请求体不会整体读入内存
+     * Content-Type 为 application/octet-stream 时请求体为连续的8字节小端long，全部属于date；
+     * text/csv、application/x-ndjson、text/plain 按行解析，每行 userId[,yyyy-MM-dd] 或 {"userId":123,"date":"yyyy-MM-dd"}，未带日期的行使用date；
+     * 表单类型的请求体会被Servlet容器当作参数解析，不能用于导入
+     * @param request 请求
+     * @param date 默认日期
+     * @param importId 导入任务ID，用于查询进度，不传时自动生成
+     * @return POST /api/dau/import?date=2026-02-01
+     * Body: 1,2026-02-01\n2,2026-02-02\n3
+     */
+    @PostMapping("/import")
+    public ResponseEntity<ImportResult> importActivity(
+            HttpServletRequest request,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(required = false) String importId) throws IOException {
+        String contentType = request.getContentType();
+        if (contentType != null && (contentType.startsWith(MediaType.APPLICATION_FORM_URLENCODED_VALUE)
+                || contentType.startsWith(MediaType.MULTIPART_FORM_DATA_VALUE))) {
+            return ResponseEntity.badRequest().body(ImportResult.builder()
+                    .message("参数错误: Content-Type 需为 text/csv、application/x-ndjson 或 application/octet-stream")
+                    .build());
+        }
+
+        ImportResult result;
+        try (InputStream in = request.getInputStream()) {
+            if (contentType != null && contentType.startsWith(MediaType.APPLICATION_OCTET_STREAM_VALUE)) {
+                result = importService.importBinary(in, date, importId);
+            } else {
+                result = importService.importText(in, date, importId);
+            }
+        }
+        if (result == null) {
+            return ResponseEntity.badRequest().body(ImportResult.builder()
+                    .importId(importId)
+                    .message("参数错误: 导入任务 " + importId + " 正在进行中")
+                    .build());
+        }
+
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * 查询进行中的导入任务的进度
+     * @param importId 导入任务ID，不传时返回全部
+     * @return GET /api/dau/import/progress?importId=xxx
+     */
+    @GetMapping("/import/progress")
+    public ResponseEntity<List<ImportResult>> getImportProgress(@RequestParam(required = false) String importId) {
+        return ResponseEntity.ok(importService.getProgress(importId));
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.dautracker.controller;
+
+import com.example.dautracker.model.DAUStatistics;
+import com.example.dautracker.service.ActivityWriteBuffer;
+import com.example.dautracker.service.DAUDayClock;
+import com.example.dautracker.service.ReactiveDAUService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * 非阻塞的DAU接口，返回Mono时Spring MVC以异步请求处理，等待Redis期间不占用Tomcat工作线程
+ @author lk
+ @create 2026/02/19-21:15
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/reactive/dau")
+public class ReactiveDAUController {
+
+    @Autowired
+    private ReactiveDAUService reactiveDAUService;
+
+    @Autowired
+    private ActivityWriteBuffer activityWriteBuffer;
+
+    @Autowired
+    private DAUDayClock dayClock;
+
+    /**
+     * 记录用户活跃
+     * @param userId 用户id
+     * @param date 日期
+     * @param region 地区，未传日期时按该地区时区的当天记录
+     * @return POST /api/reactive/dau/record?userId=123&region=apac
+     */
+    @PostMapping("/record")
+    public Mono<ResponseEntity<DAUStatistics>> recordUserActive(
+            @RequestParam Long userId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(required = false) String region) {
+        if (!dayClock.isValidRegion(region)) {
+            return invalidRegion(region);
+        }
+        LocalDate day = date != null ? date : dayClock.today(region);
+
+        //开启写缓冲时只写本地内存，本身不会阻塞
+        Mono<Boolean> result = activityWriteBuffer.isEnabled()
+                ? Mono.just(activityWriteBuffer.recordUserActive(userId, day))
+                : reactiveDAUService.recordUserActive(userId, day);
+
+        return result.map(success -> ResponseEntity.ok(DAUStatistics.builder()
+                .date(day.toString())
+                .message(success ? "用户活跃记录成功" : "用户活跃记录失败")
+                .build()));
+    }
+
+    /**
+     * 批量记录用户活跃
+     * @param userIds 用户id列表
+     * @param date 日期
+     * @param region 地区，未传日期时按该地区时区的当天记录
+     * @return POST /api/reactive/dau/batch-record?region=eu
+     * Body: [1, 2, 3, 100, 500]
+     */
+    @PostMapping("/batch-record")
+    public Mono<ResponseEntity<DAUStatistics>> batchRecordUserActive(
+            @RequestBody List<Long> userIds,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(required = false) String region) {
+        if (!dayClock.isValidRegion(region)) {
+            return invalidRegion(region);
+        }
+        LocalDate day = date != null ? date : dayClock.today(region);
+
+        return reactiveDAUService.batchRecordUserActive(userIds, day)
+                .map(count -> ResponseEntity.ok(DAUStatistics.builder()
+                        .date(day.toString())
+                        .message(String.format("批量记录成功: %d/%d", count, userIds.size()))
+                        .build()));
+    }
+
+    /**
+     * 检查用户是否活跃
+     * @param userId 用户id
+     * @param date 日期
+     * @param region 地区，未传日期时查询该地区时区的当天
+     * @return GET /api/reactive/dau/check?userId=123&date=2026-02-19
+     */
+    @GetMapping("/check")
+    public Mono<ResponseEntity<DAUStatistics>> checkUserActive(
+            @RequestParam Long userId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(required = false) String region) {
+        if (!dayClock.isValidRegion(region)) {
+            return invalidRegion(region);
+        }
+        LocalDate day = date != null ? date : dayClock.today(region);
+        return reactiveDAUService.isUserActive(userId, day)
+                .map(isActive -> ResponseEntity.ok(DAUStatistics.builder()
+                        .date(day.toString())
+                        .isActive(isActive)
+                        .message(isActive ? "用户活跃" : "用户不活跃")
+                        .build()));
+    }
+
+    /**
+     * 获取指定日期的DAU
+     * @param date 日期
+     * @param region 地区，未传日期时查询该地区时区的当天
+     * @return GET /api/reactive/dau/count?date=2026-02-19
+     */
+    @GetMapping("/count")
+    public Mono<ResponseEntity<DAUStatistics>> getDauCount(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(required = false) String region) {
+        if (!dayClock.isValidRegion(region)) {
+            return invalidRegion(region);
+        }
+        LocalDate day = date != null ? date : dayClock.today(region);
+        return reactiveDAUService.getDauCount(day)
+                .map(count -> ResponseEntity.ok(DAUStatistics.builder()
+                        .date(day.toString())
+                        .dauCount(count)
+                        .message("DAU 查询成功")
+                        .build()));
+    }
+
+    private Mono<ResponseEntity<DAUStatistics>> invalidRegion(String region) {
+        return Mono.just(ResponseEntity.badRequest().body(DAUStatistics.builder()
+                .message("参数错误: 未配置的地区 " + region)
+                .build()));
+    }
+}
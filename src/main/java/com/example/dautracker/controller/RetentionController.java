@@ -0,0 +1,66 @@
+package com.example.dautracker.controller;
+
+import com.example.dautracker.model.RetentionStatistics;
+import com.example.dautracker.service.RetentionService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ @author lk
+ @create 2026/02/14-21:30
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/dau")
+public class RetentionController {
+
+    @Autowired
+    private RetentionService retentionService;
+
+    /**
+     * 获取同期群留存矩阵
+     * @param startDate 同期群开始日期
+     * @param endDate 同期群结束日期
+     * @param days 留存天数列表，需在1到 dau.expire-days - 1 之间，默认次日、7日、30日中在此范围内的部分
+     * @return GET /api/dau/retention?startDate=2026-02-01&endDate=2026-02-07&days=1,6
+     *         目标日期未到达或同期群已过保留期的格子为null
+     */
+    @GetMapping("/retention")
+    public ResponseEntity<RetentionStatistics> getRetention(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(required = false) List<Integer> days) {
+        if (days == null) {
+            days = retentionService.getDefaultDays();
+        }
+        if (startDate.isAfter(endDate) || days.isEmpty()) {
+            return ResponseEntity.badRequest().body(RetentionStatistics.builder()
+                    .message("参数错误: 开始日期不能晚于结束日期，留存天数不能为空")
+                    .build());
+        }
+        if (!retentionService.isValidRetentionDays(days)) {
+            return ResponseEntity.badRequest().body(RetentionStatistics.builder()
+                    .message(String.format("参数错误: 留存天数需在1到%d之间(dau.expire-days - 1)", retentionService.getMaxRetentionDays()))
+                    .build());
+        }
+        if (!retentionService.isWithinLimit(startDate, endDate, days)) {
+            return ResponseEntity.badRequest().body(RetentionStatistics.builder()
+                    .message(String.format("参数错误: 同期群天数×留存天数不能超过%d", retentionService.getMaxCells()))
+                    .build());
+        }
+
+        RetentionStatistics stats = retentionService.getRetentionMatrix(startDate, endDate, days);
+        stats.setMessage("留存查询成功");
+
+        return ResponseEntity.ok(stats);
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.dautracker.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+/**
+ * 用户活跃事件，用于回放跨多个日期的离线活跃
+ @author lk
+ @create 2026/02/22-20:15
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ActivityEvent {
+    /**
+     * 用户ID
+     */
+    private Long userId;
+
+    /**
+     * 活跃日期，与timestamp二选一，同时存在时以date为准
+     */
+    private LocalDate date;
+
+    /**
+     * 活跃时间的毫秒时间戳，按region对应的时区换算为日期
+     */
+    private Long timestamp;
+
+    /**
+     * 地区，为空时使用请求的region参数，都为空时使用默认时区
+     */
+    private String region;
+}
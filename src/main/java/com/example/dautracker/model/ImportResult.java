@@ -0,0 +1,64 @@
+package com.example.dautracker.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * 批量导入结果/进度
+ @author lk
+ @create 2026/02/21-20:12
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImportResult {
+    /**
+     * 导入任务ID，可用于查询进度
+     */
+    private String importId;
+
+    /**
+     * 是否已结束
+     */
+    private Boolean finished;
+
+    /**
+     * 已读取的记录数
+     */
+    private long read;
+
+    /**
+     * 已写入的记录数
+     */
+    private long imported;
+
+    /**
+     * 格式错误、ID无效或日期超出数据保留期而跳过的记录数
+     */
+    private long invalid;
+
+    /**
+     * 写入失败的记录数
+     */
+    private long failed;
+
+    /**
+     * 日期 -> 写入的记录数
+     */
+    private Map<String, Long> dateCounts;
+
+    /**
+     * 耗时(毫秒)
+     */
+    private long elapsedMillis;
+
+    /**
+     * 消息
+     */
+    private String message;
+}
@@ -0,0 +1,55 @@
+package com.example.dautracker.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 留存统计数据模型
+ @author lk
+ @create 2026/02/14-20:41
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RetentionStatistics {
+    /**
+     * 同期群开始日期
+     */
+    private String startDate;
+
+    /**
+     * 同期群结束日期
+     */
+    private String endDate;
+
+    /**
+     * 留存天数，如次日(1)、7日(7)、30日(30)
+     */
+    private List<Integer> days;
+
+    /**
+     * 同期群日期 -> 当天活跃人数
+     */
+    private Map<String, Long> cohortSizes;
+
+    /**
+     * 同期群日期 -> (留存天数 -> 留存人数)，尚未到达的日期为null
+     */
+    private Map<String, Map<Integer, Long>> retained;
+
+    /**
+     * 同期群日期 -> (留存天数 -> 留存率)，尚未到达的日期为null
+     */
+    private Map<String, Map<Integer, Double>> retentionRates;
+
+    /**
+     * 消息
+     */
+    private String message;
+}
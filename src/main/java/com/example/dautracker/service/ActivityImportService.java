@@ -0,0 +1,447 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import com.example.dautracker.model.ImportResult;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 历史活跃数据流式导入
+ * 边读取请求体边解析，用户ID全程以long保存不装箱，按日期分组缓冲后通过 DAUService 分批Pipeline写入，
+ * 内存占用只与缓冲上限有关，与导入的数据量无关。支持两种格式：
+ * 文本：每行一条，CSV格式 userId[,yyyy-MM-dd] 或NDJSON格式 {"userId":123,"date":"yyyy-MM-dd"}，未带日期时使用默认日期；
+ * 二进制：连续的8字节小端long，全部属于默认日期
+ @author lk
+ @create 2026/02/21-20:30
+ */
+@Slf4j
+@Service
+public class ActivityImportService {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LINE_LENGTH = 4096;
+    private static final int DATE_LENGTH = 10;
+    private static final byte[] USER_ID_FIELD = "\"userId\"".getBytes();
+    private static final byte[] DATE_FIELD = "\"date\"".getBytes();
+    private static final DateTimeFormatter DISPLAY_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    @Autowired
+    private DAUService dauService;
+
+    @Autowired
+    private DAUProperties dauProperties;
+
+    @Autowired
+    private DAUDayClock dayClock;
+
+    /**
+     * 进行中的导入任务
+     */
+    private final Map<String, ImportTask> running = new ConcurrentHashMap<>();
+
+    /**
+     * 导入文本格式(CSV/NDJSON)的数据
+     * @param in 输入流
+     * @param defaultDate 行内没有日期时使用的日期，为null时使用当前日期
+     * @param importId 导入任务ID，为null时自动生成
+     * @return 导入结果，同一importId的导入正在进行时返回null
+     */
+    public ImportResult importText(InputStream in, LocalDate defaultDate, String importId) {
+        ImportTask task = start(defaultDate, importId);
+        if (task == null) {
+            return null;
+        }
+        try {
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            byte[] line = new byte[MAX_LINE_LENGTH];
+            int lineLength = 0;
+            boolean overflow = false;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                for (int i = 0; i < n; i++) {
+                    byte b = buffer[i];
+                    if (b == '\n') {
+                        task.parseLine(line, lineLength, overflow);
+                        lineLength = 0;
+                        overflow = false;
+                    } else if (lineLength < MAX_LINE_LENGTH) {
+                        line[lineLength++] = b;
+                    } else {
+                        overflow = true;
+                    }
+                }
+            }
+            task.parseLine(line, lineLength, overflow);
+            return finish(task, null);
+        } catch (IOException e) {
+            log.error("导入数据读取中断: importId={}", task.importId, e);
+            return finish(task, e);
+        }
+    }
+
+    /**
+     * 导入二进制格式的数据：连续的8字节小端long
+     * @param in 输入流
+     * @param date 日期，为null时使用当前日期
+     * @param importId 导入任务ID，为null时自动生成
+     * @return 导入结果，同一importId的导入正在进行时返回null
+     */
+    public ImportResult importBinary(InputStream in, LocalDate date, String importId) {
+        ImportTask task = start(date, importId);
+        if (task == null) {
+            return null;
+        }
+        try {
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            ByteBuffer view = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+            int carry = 0;
+            int n;
+            while ((n = in.read(buffer, carry, buffer.length - carry)) != -1) {
+                int available = carry + n;
+                int position = 0;
+                for (; available - position >= Long.BYTES; position += Long.BYTES) {
+                    task.read++;
+                    task.add(task.defaultDate, view.getLong(position));
+                }
+                //不足8字节的部分留到下一次读取
+                carry = available - position;
+                System.arraycopy(buffer, position, buffer, 0, carry);
+            }
+            if (carry > 0) {
+                task.read++;
+                task.invalid++;
+                log.warn("导入数据末尾有{}个多余字节: importId={}", carry, task.importId);
+            }
+            return finish(task, null);
+        } catch (IOException e) {
+            log.error("导入数据读取中断: importId={}", task.importId, e);
+            return finish(task, e);
+        }
+    }
+
+    /**
+     * 获取进行中的导入任务的进度
+     * @param importId 导入任务ID，为null时返回全部
+     * @return 进度列表
+     */
+    public List<ImportResult> getProgress(String importId) {
+        Collection<ImportTask> tasks = running.values();
+        List<ImportResult> results = new ArrayList<>(tasks.size());
+        for (ImportTask task : tasks) {
+            if (importId == null || importId.equals(task.importId)) {
+                results.add(task.toResult(false, "导入中"));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 登记导入任务，同一importId的任务正在进行时拒绝，避免两个任务的进度互相覆盖
+     * @return 导入任务，importId重复时返回null
+     */
+    private ImportTask start(LocalDate defaultDate, String importId) {
+        ImportTask task = new ImportTask(importId != null ? importId : UUID.randomUUID().toString(),
+                defaultDate != null ? defaultDate : dayClock.today());
+        if (running.putIfAbsent(task.importId, task) != null) {
+            log.warn("导入任务ID正在使用中: importId={}", task.importId);
+            return null;
+        }
+        log.info("开始导入: importId={}, 默认日期={}", task.importId, task.defaultDate);
+        return task;
+    }
+
+    private ImportResult finish(ImportTask task, Exception error) {
+        try {
+            //读取中断时已解析的数据仍然有效，全部写入
+            task.flushAll();
+        } finally {
+            running.remove(task.importId, task);
+        }
+
+        ImportResult result = task.toResult(true, error == null ? "导入完成" : "导入中断: " + error.getMessage());
+        log.info("导入结束: importId={}, 读取={}, 写入={}, 无效={}, 失败={}, 耗时={}ms",
+                result.getImportId(), result.getRead(), result.getImported(), result.getInvalid(),
+                result.getFailed(), result.getElapsedMillis());
+        return result;
+    }
+
+    /**
+     * 单个日期的ID缓冲
+     */
+    private static class IdBuffer {
+        private long[] ids = new long[1024];
+        private int size;
+    }
+
+    /**
+     * 一次导入的解析状态、缓冲和进度，只由导入线程修改，进度字段供其他线程读取
+     */
+    private class ImportTask {
+        private final String importId;
+        private final LocalDate defaultDate;
+        private final long startNanos = System.nanoTime();
+        private final int chunkSize = dauProperties.getBulkImport().getChunkSize();
+        private final int maxBufferedIds = dauProperties.getBulkImport().getMaxBufferedIds();
+        private final long progressLogInterval = dauProperties.getBulkImport().getProgressLogInterval();
+        private final Map<LocalDate, IdBuffer> buffers = new LinkedHashMap<>();
+        private final Map<LocalDate, Long> dateCounts = new ConcurrentHashMap<>();
+        /**
+         * 早于该日期的数据不会再被统计，按无效记录跳过
+         */
+        private final LocalDate oldestRetained = dayClock.oldestRetained();
+        private int buffered;
+
+        private volatile long read;
+        private volatile long imported;
+        private volatile long invalid;
+        private volatile long failed;
+
+        /**
+         * 最近一次解析的日期，连续多行日期相同时不重复解析
+         */
+        private final byte[] lastDateBytes = new byte[DATE_LENGTH];
+        private LocalDate lastDate;
+
+        private ImportTask(String importId, LocalDate defaultDate) {
+            this.importId = importId;
+            this.defaultDate = defaultDate;
+        }
+
+        private void parseLine(byte[] line, int length, boolean overflow) {
+            //去掉行尾的\r和空白
+            while (length > 0 && line[length - 1] <= ' ') {
+                length--;
+            }
+            int start = 0;
+            while (start < length && line[start] <= ' ') {
+                start++;
+            }
+            if (start == length && !overflow) {
+                return;
+            }
+
+            read++;
+            if (overflow) {
+                invalid++;
+                return;
+            }
+
+            long userId;
+            LocalDate date;
+            if (line[start] == '{') {
+                int idStart = valueStart(line, start, length, USER_ID_FIELD);
+                userId = idStart < 0 ? -1L : parseLong(line, idStart, length);
+                int dateStart = valueStart(line, start, length, DATE_FIELD);
+                date = dateStart < 0 ? defaultDate
+                        : line[dateStart] == '"' ? parseDate(line, dateStart + 1, length) : null;
+            } else {
+                userId = parseLong(line, start, length);
+                int comma = indexOf(line, start, length, (byte) ',');
+                date = comma < 0 ? defaultDate : parseDate(line, skipSpaces(line, comma + 1, length), length);
+            }
+
+            if (date == null) {
+                invalid++;
+                return;
+            }
+            add(date, userId);
+        }
+
+        private void add(LocalDate date, long userId) {
+            if (userId <= 0 || date.isBefore(oldestRetained)) {
+                invalid++;
+                return;
+            }
+
+            IdBuffer buffer = buffers.get(date);
+            if (buffer == null) {
+                buffer = new IdBuffer();
+                buffers.put(date, buffer);
+            }
+            if (buffer.size == buffer.ids.length) {
+                long[] grown = new long[Math.min(buffer.ids.length * 2, Math.max(chunkSize, buffer.ids.length + 1))];
+                System.arraycopy(buffer.ids, 0, grown, 0, buffer.size);
+                buffer.ids = grown;
+            }
+            buffer.ids[buffer.size++] = userId;
+            buffered++;
+
+            if (buffer.size >= chunkSize) {
+                //写入后释放该日期的缓冲，日期很多时不会为每个日期长期占用chunkSize大小的数组
+                flush(date, buffer);
+                buffers.remove(date);
+            } else if (buffered >= maxBufferedIds) {
+                flushAll();
+            }
+
+            if (progressLogInterval > 0 && read % progressLogInterval == 0) {
+                log.info("导入进度: importId={}, 读取={}, 写入={}, 无效={}, 失败={}", importId, read, imported, invalid, failed);
+            }
+        }
+
+        private void flushAll() {
+            for (Map.Entry<LocalDate, IdBuffer> entry : buffers.entrySet()) {
+                flush(entry.getKey(), entry.getValue());
+            }
+            buffers.clear();
+        }
+
+        private void flush(LocalDate date, IdBuffer buffer) {
+            if (buffer.size == 0) {
+                return;
+            }
+
+            //返回值在全部成功时按输入数量计算，部分失败时按去重后计算，失败数只能以报告的ID为准
+            long[] failedCount = new long[1];
+            int written = dauService.batchRecordUserActive(buffer.ids, buffer.size, date, id -> failedCount[0]++);
+            imported += written;
+            failed += failedCount[0];
+            dateCounts.merge(date, (long) written, Long::sum);
+            buffered -= buffer.size;
+            buffer.size = 0;
+        }
+
+        private ImportResult toResult(boolean finished, String message) {
+            Map<String, Long> counts = new LinkedHashMap<>();
+            dateCounts.entrySet().stream()
+                    .sorted(Map.Entry.comparingByKey())
+                    .forEach(entry -> counts.put(entry.getKey().format(DISPLAY_FORMATTER), entry.getValue()));
+
+            return ImportResult.builder()
+                    .importId(importId)
+                    .finished(finished)
+                    .read(read)
+                    .imported(imported)
+                    .invalid(invalid)
+                    .failed(failed)
+                    .dateCounts(counts)
+                    .elapsedMillis((System.nanoTime() - startNanos) / 1_000_000)
+                    .message(message)
+                    .build();
+        }
+
+        /**
+         * 解析 yyyy-MM-dd
+         * @return 格式错误时返回null
+         */
+        private LocalDate parseDate(byte[] line, int start, int length) {
+            if (length - start < DATE_LENGTH || line[start + 4] != '-' || line[start + 7] != '-') {
+                return null;
+            }
+            if (lastDate != null && regionEquals(line, start, lastDateBytes)) {
+                return lastDate;
+            }
+
+            int year = parseDigits(line, start, 4);
+            int month = parseDigits(line, start + 5, 2);
+            int day = parseDigits(line, start + 8, 2);
+            if (year < 0 || month < 0 || day < 0) {
+                return null;
+            }
+            try {
+                lastDate = LocalDate.of(year, month, day);
+            } catch (DateTimeException e) {
+                return null;
+            }
+            System.arraycopy(line, start, lastDateBytes, 0, DATE_LENGTH);
+            return lastDate;
+        }
+    }
+
+    /**
+     * 解析非负整数，没有数字、超过Long.MAX_VALUE或数字后紧跟其他字符时返回-1
+     */
+    static long parseLong(byte[] line, int start, int length) {
+        long value = 0L;
+        int i = start;
+        for (; i < length && line[i] >= '0' && line[i] <= '9'; i++) {
+            int digit = line[i] - '0';
+            if (value > (Long.MAX_VALUE - digit) / 10) {
+                return -1L;
+            }
+            value = value * 10 + digit;
+        }
+        if (i == start) {
+            return -1L;
+        }
+        if (i < length && line[i] != ',' && line[i] != '}' && line[i] != '"' && line[i] != ' ' && line[i] != '\t') {
+            return -1L;
+        }
+        return value;
+    }
+
+    private static int parseDigits(byte[] line, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            if (line[i] < '0' || line[i] > '9') {
+                return -1;
+            }
+            value = value * 10 + (line[i] - '0');
+        }
+        return value;
+    }
+
+    /**
+     * 在JSON行中查找字段，返回冒号之后第一个非空白字符的位置，数字值两侧允许带引号
+     */
+    private static int valueStart(byte[] line, int start, int length, byte[] field) {
+        for (int i = start; i <= length - field.length; i++) {
+            if (regionEquals(line, i, field)) {
+                int position = skipSpaces(line, i + field.length, length);
+                if (position >= length || line[position] != ':') {
+                    return -1;
+                }
+                position = skipSpaces(line, position + 1, length);
+                if (field == USER_ID_FIELD && position < length && line[position] == '"') {
+                    position++;
+                }
+                return position < length ? position : -1;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipSpaces(byte[] line, int position, int length) {
+        while (position < length && line[position] == ' ') {
+            position++;
+        }
+        return position;
+    }
+
+    private static int indexOf(byte[] line, int start, int length, byte target) {
+        for (int i = start; i < length; i++) {
+            if (line[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionEquals(byte[] line, int start, byte[] expected) {
+        if (start + expected.length > line.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (line[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
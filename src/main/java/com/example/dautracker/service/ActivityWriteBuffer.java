@@ -0,0 +1,302 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 用户活跃写缓冲
+ * 位于 DAUService.recordUserActive 之前：按天在本地对已上报过的用户去重，
+ * 新出现的用户先进入待刷新队列，由后台线程按批量写入Redis，应用关闭时在 shutdown-timeout 内重试刷新剩余记录；
+ * 刷新时只有因Redis异常等原因未写入的ID重新入队，超过重试次数后丢弃，永远无法写入的ID在接受前就被拒绝
+ @author lk
+ @create 2026/02/09-21:20
+ */
+@Slf4j
+@Service
+public class ActivityWriteBuffer implements InitializingBean, DisposableBean {
+
+    @Autowired
+    private DAUService dauService;
+
+    @Autowired
+    private DAUProperties dauProperties;
+
+    @Autowired
+    private DAUDayClock dayClock;
+
+    @Autowired
+    private DAUActivityLog activityLog;
+
+    @Autowired
+    private DAUMetrics metrics;
+
+    private final Map<LocalDate, DayBuffer> days = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 单日缓冲：已见用户集合 + 待刷新队列
+     */
+    private static class DayBuffer {
+        private final Set<Long> seen = ConcurrentHashMap.newKeySet();
+        private final ConcurrentLinkedQueue<PendingId> pending = new ConcurrentLinkedQueue<>();
+        /**
+         * 用户ID -> 已重试次数，只在刷新线程中访问
+         */
+        private final Map<Long, Integer> retries = new ConcurrentHashMap<>();
+        private final AtomicInteger pendingCount = new AtomicInteger();
+
+        private void enqueue(long userId) {
+            pending.offer(new PendingId(userId, System.nanoTime()));
+            pendingCount.incrementAndGet();
+        }
+
+        /**
+         * 队首是最早入队且尚未刷新的记录，部分刷新后剩余的记录保留各自的入队时间
+         * @return 入队时间，队列为空时返回now
+         */
+        private long oldestPendingNanos(long now) {
+            PendingId head = pending.peek();
+            return head != null ? head.enqueuedNanos : now;
+        }
+    }
+
+    /**
+     * 待刷新的用户ID及其入队时间
+     */
+    private static class PendingId {
+        private final long userId;
+        private final long enqueuedNanos;
+
+        private PendingId(long userId, long enqueuedNanos) {
+            this.userId = userId;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        DAUProperties.Buffer config = dauProperties.getBuffer();
+        if (!config.isEnabled()) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dau-buffer-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = config.getFlushInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::flushSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        log.info("本地写缓冲已开启: 刷新周期={}, 最大滞留={}, 批量大小={}",
+                config.getFlushInterval(), config.getMaxStaleness(), config.getFlushBatchSize());
+    }
+
+    /**
+     * 记录用户活跃，开启缓冲时只写入本地，关闭时直接写入Redis
+     * @param userId 用户id
+     * @param date 日期，为null时使用当前日期
+     * @return 是否记录成功
+     */
+    public boolean recordUserActive(Long userId, LocalDate date) {
+        if (scheduler == null) {
+            return dauService.recordUserActive(userId, date);
+        }
+
+        if (userId == null || userId <= 0) {
+            activityLog.warn(log, "无效的用户ID:{}", userId);
+            metrics.failure("buffer_record", "invalid_user_id");
+            return false;
+        }
+
+        //缓冲后的写入对调用方不可见，永远无法写入的ID必须在这里拒绝
+        if (!dauService.isRecordableUserId(userId)) {
+            activityLog.warn(log, "用户ID超出偏移量上限，请开启ID映射或分片:{}", userId);
+            metrics.failure("buffer_record", "offset_out_of_range");
+            return false;
+        }
+
+        if (date == null) {
+            date = dayClock.today();
+        }
+
+        DayBuffer day = days.computeIfAbsent(date, d -> new DayBuffer());
+        DAUProperties.Buffer config = dauProperties.getBuffer();
+
+        //当天已见过的用户直接吸收，不再访问Redis
+        if (day.seen.contains(userId)) {
+            return true;
+        }
+        if (day.seen.size() < config.getMaxTrackedUsersPerDay()) {
+            if (!day.seen.add(userId)) {
+                return true;
+            }
+        }
+
+        day.enqueue(userId);
+        if (day.pendingCount.get() >= config.getFlushBatchSize() && flushRequested.compareAndSet(false, true)) {
+            scheduler.execute(this::flushSafely);
+        }
+        return true;
+    }
+
+    /**
+     * 是否开启了本地写缓冲
+     * @return 开启返回true
+     */
+    public boolean isEnabled() {
+        return scheduler != null;
+    }
+
+    /**
+     * 获取尚未刷新到Redis的记录数
+     * @return 待刷新数量
+     */
+    public int getPendingCount() {
+        int total = 0;
+        for (DayBuffer day : days.values()) {
+            total += day.pendingCount.get();
+        }
+        return total;
+    }
+
+    private void flushSafely() {
+        flushRequested.set(false);
+        try {
+            flush(false);
+        } catch (Exception e) {
+            activityLog.error(log, "刷新本地写缓冲失败", e);
+        }
+    }
+
+    /**
+     * 刷新缓冲区
+     * @param force 为true时忽略批量大小和滞留时间，刷新全部待写记录
+     */
+    synchronized void flush(boolean force) {
+        DAUProperties.Buffer config = dauProperties.getBuffer();
+        long maxStalenessNanos = config.getMaxStaleness().toNanos();
+        long now = System.nanoTime();
+
+        for (Map.Entry<LocalDate, DayBuffer> entry : days.entrySet()) {
+            DayBuffer day = entry.getValue();
+            int pending = day.pendingCount.get();
+            if (pending == 0) {
+                continue;
+            }
+            if (force || pending >= config.getFlushBatchSize() || now - day.oldestPendingNanos(now) >= maxStalenessNanos) {
+                flushDay(entry.getKey(), day, pending);
+            }
+        }
+
+        //昨天之前且已全部刷新的日期不会再有热点上报，释放其去重集合
+        LocalDate yesterday = dayClock.earliestToday().minusDays(1);
+        Iterator<Map.Entry<LocalDate, DayBuffer>> iterator = days.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<LocalDate, DayBuffer> entry = iterator.next();
+            if (entry.getKey().isBefore(yesterday) && entry.getValue().pendingCount.get() == 0) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void flushDay(LocalDate date, DayBuffer day, int size) {
+        long[] userIds = new long[size];
+        int count = 0;
+        PendingId pendingId;
+        while (count < size && (pendingId = day.pending.poll()) != null) {
+            userIds[count++] = pendingId.userId;
+        }
+        day.pendingCount.addAndGet(-count);
+        if (count == 0) {
+            return;
+        }
+
+        List<Long> failed = new ArrayList<>();
+        int written = dauService.batchRecordUserActive(userIds, count, date, failed::add);
+
+        //写入成功的ID不再需要重试计数
+        if (!day.retries.isEmpty()) {
+            Set<Long> failedSet = new HashSet<>(failed);
+            for (int i = 0; i < count; i++) {
+                if (!failedSet.contains(userIds[i])) {
+                    day.retries.remove(userIds[i]);
+                }
+            }
+        }
+        if (failed.isEmpty()) {
+            return;
+        }
+
+        //SETBIT是幂等的，只把可以重试的ID重新入队，按重新入队的时间等待下次刷新
+        int maxRetries = dauProperties.getBuffer().getMaxFlushRetries();
+        int dropped = 0;
+        for (Long id : failed) {
+            if (day.retries.merge(id, 1, Integer::sum) > maxRetries) {
+                //放弃后从已见集合移除，之后再次上报时重新尝试
+                day.retries.remove(id);
+                day.seen.remove(id);
+                dropped++;
+            } else {
+                day.enqueue(id);
+            }
+        }
+        activityLog.warn(log, "本地写缓冲刷新未完全成功，重新入队: 日期={}, 数量={}, 成功={}, 重新入队={}",
+                date, count, written, failed.size() - dropped);
+        if (dropped > 0) {
+            activityLog.error(log, "本地写缓冲重试{}次后仍未写入，已丢弃: 日期={}, 数量={}", maxRetries, date, dropped);
+            metrics.failure("buffer_flush", "retries_exhausted");
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (scheduler == null) {
+            return;
+        }
+
+        DAUProperties.Buffer config = dauProperties.getBuffer();
+        long deadline = System.nanoTime() + config.getShutdownTimeout().toNanos();
+        scheduler.shutdown();
+        scheduler.awaitTermination(config.getShutdownTimeout().toNanos(), TimeUnit.NANOSECONDS);
+
+        //每次刷新失败的ID重试次数加一，刷新 max-flush-retries + 1 次后剩余的ID都已写入或因重试次数用尽而丢弃
+        for (int attempt = 0; attempt <= config.getMaxFlushRetries() && getPendingCount() > 0; attempt++) {
+            if (attempt > 0) {
+                long remainingNanos = deadline - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    break;
+                }
+                TimeUnit.NANOSECONDS.sleep(Math.min(config.getFlushInterval().toNanos(), remainingNanos));
+            }
+            flush(true);
+        }
+        int remaining = getPendingCount();
+        if (remaining > 0) {
+            log.error("应用关闭时仍有{}条活跃记录未能写入Redis", remaining);
+        } else {
+            log.info("本地写缓冲已全部刷新");
+        }
+    }
+}
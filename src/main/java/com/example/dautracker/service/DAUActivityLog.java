@@ -0,0 +1,288 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 活跃日志的汇总与限流
+ * 记录路径上不再逐条输出日志，而是由后台线程按周期从 DAUMetrics 的指标中输出一行汇总(各操作次数、批量ID数、新置位数和失败原因)；
+ * 无效ID、Redis失败等告警和错误日志按模板限流，同一模板在 rate-limit-interval 内只输出一次，其余只计数，
+ * 下一次输出时附带被省略的条数，避免异常流量下日志本身拖垮服务
+ @author lk
+ @create 2026/02/28-20:24
+ */
+@Slf4j
+@Component
+public class DAUActivityLog implements InitializingBean, DisposableBean {
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    @Autowired
+    private DAUProperties dauProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 日志模板 -> 限流状态
+     */
+    private final Map<String, Throttle> throttles = new ConcurrentHashMap<>();
+
+    /**
+     * 上一次汇总时各指标的累计值，用于计算周期内的增量
+     */
+    private final Map<String, Double> lastTotals = new HashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 单个日志模板的限流状态
+     */
+    private static class Throttle {
+        private final AtomicLong nextAllowedNanos = new AtomicLong(System.nanoTime());
+        private final LongAdder suppressed = new LongAdder();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        long intervalMillis = dauProperties.getLogging().getSummaryInterval().toMillis();
+        if (intervalMillis <= 0) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dau-log-summary");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::summarizeSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            summarizeSafely();
+        }
+    }
+
+    /**
+     * 限流输出WARN日志
+     * 常用的参数个数有固定参数的重载，日志级别关闭或被限流时不创建参数数组，用户ID等long参数也不装箱
+     * @param logger 调用方的Logger
+     * @param format 日志模板，同时作为限流的Key
+     */
+    public void warn(Logger logger, String format) {
+        long suppressed = acquireWarn(logger, format);
+        if (suppressed >= 0) {
+            logWarn(logger, format, suppressed, NO_ARGS);
+        }
+    }
+
+    public void warn(Logger logger, String format, Object arg) {
+        long suppressed = acquireWarn(logger, format);
+        if (suppressed >= 0) {
+            logWarn(logger, format, suppressed, new Object[]{arg});
+        }
+    }
+
+    public void warn(Logger logger, String format, long arg) {
+        long suppressed = acquireWarn(logger, format);
+        if (suppressed >= 0) {
+            logWarn(logger, format, suppressed, new Object[]{arg});
+        }
+    }
+
+    public void warn(Logger logger, String format, Object arg1, Object arg2) {
+        long suppressed = acquireWarn(logger, format);
+        if (suppressed >= 0) {
+            logWarn(logger, format, suppressed, new Object[]{arg1, arg2});
+        }
+    }
+
+    public void warn(Logger logger, String format, Object arg1, Object arg2, Object arg3) {
+        long suppressed = acquireWarn(logger, format);
+        if (suppressed >= 0) {
+            logWarn(logger, format, suppressed, new Object[]{arg1, arg2, arg3});
+        }
+    }
+
+    /**
+     * @param args 参数，最后一个可以是异常
+     */
+    public void warn(Logger logger, String format, Object... args) {
+        long suppressed = acquireWarn(logger, format);
+        if (suppressed >= 0) {
+            logWarn(logger, format, suppressed, args);
+        }
+    }
+
+    /**
+     * 限流输出ERROR日志，重载方式与 {@link #warn(Logger, String)} 相同
+     * @param logger 调用方的Logger
+     * @param format 日志模板，同时作为限流的Key
+     */
+    public void error(Logger logger, String format) {
+        long suppressed = acquireError(logger, format);
+        if (suppressed >= 0) {
+            logError(logger, format, suppressed, NO_ARGS);
+        }
+    }
+
+    public void error(Logger logger, String format, Object arg) {
+        long suppressed = acquireError(logger, format);
+        if (suppressed >= 0) {
+            logError(logger, format, suppressed, new Object[]{arg});
+        }
+    }
+
+    public void error(Logger logger, String format, Object arg1, Object arg2) {
+        long suppressed = acquireError(logger, format);
+        if (suppressed >= 0) {
+            logError(logger, format, suppressed, new Object[]{arg1, arg2});
+        }
+    }
+
+    public void error(Logger logger, String format, Object arg1, Object arg2, Object arg3) {
+        long suppressed = acquireError(logger, format);
+        if (suppressed >= 0) {
+            logError(logger, format, suppressed, new Object[]{arg1, arg2, arg3});
+        }
+    }
+
+    /**
+     * @param args 参数，最后一个可以是异常
+     */
+    public void error(Logger logger, String format, Object... args) {
+        long suppressed = acquireError(logger, format);
+        if (suppressed >= 0) {
+            logError(logger, format, suppressed, args);
+        }
+    }
+
+    /**
+     * 级别关闭的日志不参与限流
+     * @return 可以输出时返回上次输出后被省略的条数，不需要输出时返回-1
+     */
+    private long acquireWarn(Logger logger, String format) {
+        return logger.isWarnEnabled() ? acquire(format) : -1;
+    }
+
+    private long acquireError(Logger logger, String format) {
+        return logger.isErrorEnabled() ? acquire(format) : -1;
+    }
+
+    private static void logWarn(Logger logger, String format, long suppressed, Object[] args) {
+        logger.warn(withSuppressed(format, suppressed), withSuppressed(args, suppressed));
+    }
+
+    private static void logError(Logger logger, String format, long suppressed, Object[] args) {
+        logger.error(withSuppressed(format, suppressed), withSuppressed(args, suppressed));
+    }
+
+    /**
+     * 尝试获得一次输出机会
+     * @return 可以输出时返回上次输出后被省略的条数，需要省略时返回-1
+     */
+    private long acquire(String format) {
+        Throttle throttle = throttles.computeIfAbsent(format, f -> new Throttle());
+        long now = System.nanoTime();
+        long nextAllowed = throttle.nextAllowedNanos.get();
+        long intervalNanos = dauProperties.getLogging().getRateLimitInterval().toNanos();
+        if (now - nextAllowed < 0 || !throttle.nextAllowedNanos.compareAndSet(nextAllowed, now + intervalNanos)) {
+            throttle.suppressed.increment();
+            return -1;
+        }
+        return throttle.suppressed.sumThenReset();
+    }
+
+    private static String withSuppressed(String format, long suppressed) {
+        return suppressed > 0 ? format + " (上次输出后另有{}条相同日志被省略)" : format;
+    }
+
+    /**
+     * 把省略条数插入到参数末尾，最后一个参数是异常时插在异常之前，保证异常仍按堆栈输出
+     */
+    private static Object[] withSuppressed(Object[] args, long suppressed) {
+        if (suppressed <= 0) {
+            return args;
+        }
+        Object[] result = new Object[args.length + 1];
+        boolean throwable = args.length > 0 && args[args.length - 1] instanceof Throwable;
+        int position = throwable ? args.length - 1 : args.length;
+        System.arraycopy(args, 0, result, 0, position);
+        result[position] = suppressed;
+        if (throwable) {
+            result[args.length] = args[args.length - 1];
+        }
+        return result;
+    }
+
+    private void summarizeSafely() {
+        try {
+            summarize();
+        } catch (Exception e) {
+            log.warn("输出活跃汇总日志失败", e);
+        }
+    }
+
+    /**
+     * 输出一个周期内的汇总，周期内没有任何操作时不输出
+     */
+    synchronized void summarize() {
+        Map<String, Long> operations = new TreeMap<>();
+        for (Timer timer : meterRegistry.find("dau.operation").timers()) {
+            putDelta(operations, timer.getId().getTag("operation"), "operation:", timer.count());
+        }
+        if (operations.isEmpty()) {
+            return;
+        }
+
+        Map<String, Long> batchIds = new TreeMap<>();
+        for (DistributionSummary summary : meterRegistry.find("dau.batch.size").summaries()) {
+            putDelta(batchIds, summary.getId().getTag("operation"), "batch:", summary.totalAmount());
+        }
+        Map<String, Long> bits = new TreeMap<>();
+        for (Counter counter : meterRegistry.find("dau.bits").counters()) {
+            putDelta(bits, counter.getId().getTag("state"), "bits:", counter.count());
+        }
+        Map<String, Long> failures = new TreeMap<>();
+        for (Counter counter : meterRegistry.find("dau.failures").counters()) {
+            String key = counter.getId().getTag("operation") + "/" + counter.getId().getTag("cause");
+            putDelta(failures, key, "failure:", counter.count());
+        }
+
+        log.info("DAU活跃汇总(最近{}): 操作={}, 批量ID数={}, 置位={}, 失败={}",
+                dauProperties.getLogging().getSummaryInterval(), operations, batchIds, bits, failures);
+    }
+
+    /**
+     * 计算指标自上次汇总以来的增量，增量为0的不放入结果
+     */
+    private void putDelta(Map<String, Long> target, String name, String prefix, double total) {
+        Double last = lastTotals.put(prefix + name, total);
+        long delta = (long) (total - (last != null ? last : 0D));
+        if (delta > 0) {
+            target.put(name, delta);
+        }
+    }
+}
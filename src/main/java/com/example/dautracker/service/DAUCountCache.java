@@ -0,0 +1,225 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * DAU数量缓存
+ * 已结束日期的DAU通常不再变化，按LRU缓存在本地并持久化到Redis的 dau:total:yyyyMMdd 中，保留 totals-ttl；
+ * 当天的DAU仍在变化，只做短时间缓存。
+ * 补录已结束日期时 invalidate 删除总数并增加该日期的代数，统计前读到的代数与写回时不一致则放弃写回，
+ * 避免补录前开始的统计把旧的总数写回；Bitmap已过保留期的日期统计结果总是0，不做缓存
+ @author lk
+ @create 2026/02/15-20:18
+ */
+@Slf4j
+@Component
+public class DAUCountCache implements InitializingBean {
+
+    private static final byte[] COUNT_FIELD = "count".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] GENERATION_FIELD = "gen".getBytes(StandardCharsets.UTF_8);
+    private static final RedisScript<Long> INVALIDATE_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/invalidate_closed_total.lua"), Long.class);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private DAUProperties dauProperties;
+
+    @Autowired
+    private DAUKeyLayout keyLayout;
+
+    @Autowired
+    private DAUDayClock dayClock;
+
+    private final EvalShaScript putScript = new EvalShaScript("scripts/put_closed_total.lua");
+
+    /**
+     * 本实例的补录次数，统计期间有补录时不把结果放入本地缓存
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private Cache<LocalDate, Long> closedDayCache;
+
+    private Cache<LocalDate, Long> todayCache;
+
+    @Override
+    public void afterPropertiesSet() {
+        DAUProperties.CountCache config = dauProperties.getCountCache();
+        closedDayCache = Caffeine.newBuilder()
+                .maximumSize(config.getMaxClosedDays())
+                .expireAfterWrite(config.getClosedTtl())
+                .build();
+        todayCache = Caffeine.newBuilder()
+                .maximumSize(16)
+                .expireAfterWrite(config.getTodayTtl())
+                .build();
+    }
+
+    /**
+     * 获取多个日期的DAU，依次查找本地缓存、Redis中持久化的总数，都未命中时通过loader统计，
+     * 已结束且仍在保留期内的日期统计后在代数未变时写回
+     * @param dates 日期列表
+     * @param loader 实际统计DAU的方法，返回与入参顺序一致的数量
+     * @return 与dates顺序一致的DAU数量
+     */
+    public long[] getCounts(List<LocalDate> dates, Function<List<LocalDate>, long[]> loader) {
+        if (!dauProperties.getCountCache().isEnabled()) {
+            return loader.apply(dates);
+        }
+
+        LocalDate today = dayClock.earliestToday();
+        LocalDate oldestRetained = dayClock.today().minusDays(dauProperties.getExpireDays() - 1);
+        long invalidationsBefore = invalidations.get();
+        long[] counts = new long[dates.size()];
+        String[] generations = new String[dates.size()];
+        List<Integer> misses = new ArrayList<>();
+        List<Integer> closedMisses = new ArrayList<>();
+
+        for (int i = 0; i < dates.size(); i++) {
+            LocalDate date = dates.get(i);
+            Long cached = date.isBefore(today) ? closedDayCache.getIfPresent(date) : todayCache.getIfPresent(date);
+            if (cached != null) {
+                counts[i] = cached;
+            } else if (date.isBefore(today)) {
+                closedMisses.add(i);
+            } else {
+                misses.add(i);
+            }
+        }
+
+        //已结束日期先查持久化的总数，同时取回代数，统计后写回时校验
+        if (!closedMisses.isEmpty()) {
+            List<Object> totals = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Integer index : closedMisses) {
+                    connection.hashCommands().hMGet(rawTotalKey(dates.get(index)), COUNT_FIELD, GENERATION_FIELD);
+                }
+                return null;
+            });
+            for (int i = 0; i < closedMisses.size(); i++) {
+                List<?> fields = (List<?>) totals.get(i);
+                int index = closedMisses.get(i);
+                if (fields.get(0) != null) {
+                    counts[index] = Long.parseLong((String) fields.get(0));
+                    closedDayCache.put(dates.get(index), counts[index]);
+                } else {
+                    generations[index] = fields.get(1) != null ? (String) fields.get(1) : "0";
+                    misses.add(index);
+                }
+            }
+        }
+
+        if (misses.isEmpty()) {
+            return counts;
+        }
+
+        Collections.sort(misses);
+        List<LocalDate> missDates = new ArrayList<>(misses.size());
+        for (Integer index : misses) {
+            missDates.add(dates.get(index));
+        }
+
+        long[] loaded = loader.apply(missDates);
+        List<Integer> closedLoaded = new ArrayList<>();
+        for (int i = 0; i < misses.size(); i++) {
+            int index = misses.get(i);
+            LocalDate date = missDates.get(i);
+            counts[index] = loaded[i];
+            if (!date.isBefore(today)) {
+                todayCache.put(date, loaded[i]);
+            } else if (!date.isBefore(oldestRetained)) {
+                closedLoaded.add(index);
+            }
+        }
+
+        if (!closedLoaded.isEmpty()) {
+            boolean[] stored = storeTotals(dates, counts, generations, closedLoaded);
+            boolean invalidated = invalidations.get() != invalidationsBefore;
+            for (int i = 0; i < closedLoaded.size(); i++) {
+                if (stored[i] && !invalidated) {
+                    closedDayCache.put(dates.get(closedLoaded.get(i)), counts[closedLoaded.get(i)]);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 已结束日期有补录数据写入时，删除持久化总数并增加代数，再清除本地缓存
+     * @param date 日期
+     */
+    public void invalidate(LocalDate date) {
+        if (!dauProperties.getCountCache().isEnabled()) {
+            return;
+        }
+
+        invalidations.incrementAndGet();
+        stringRedisTemplate.execute(INVALIDATE_SCRIPT, Collections.singletonList(keyLayout.totalKey(date)), ttlSeconds());
+        closedDayCache.invalidate(date);
+        todayCache.invalidate(date);
+    }
+
+    /**
+     * 在代数未变时写回统计出的总数
+     * @return 与indexes顺序一致，是否已写入
+     */
+    private boolean[] storeTotals(List<LocalDate> dates, long[] counts, String[] generations, List<Integer> indexes) {
+        boolean[] stored = new boolean[indexes.size()];
+        byte[] ttl = ttlSeconds().getBytes(StandardCharsets.UTF_8);
+        List<Object> results;
+        try {
+            if (!putScript.isLoaded()) {
+                stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                    putScript.load(connection);
+                    return null;
+                });
+            }
+            results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Integer index : indexes) {
+                    connection.evalSha(putScript.getSha1(), ReturnType.INTEGER, 1, rawTotalKey(dates.get(index)),
+                            generations[index].getBytes(StandardCharsets.UTF_8),
+                            Long.toString(counts[index]).getBytes(StandardCharsets.UTF_8), ttl);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            if (EvalShaScript.isNoScript(e)) {
+                putScript.markUnloaded();
+            }
+            //只是少了一次缓存，下次查询重新统计
+            log.warn("写回DAU总数失败: 日期数={}", indexes.size(), e);
+            return stored;
+        }
+        for (int i = 0; i < indexes.size(); i++) {
+            stored[i] = Long.valueOf(1L).equals(results.get(i));
+        }
+        return stored;
+    }
+
+    private byte[] rawTotalKey(LocalDate date) {
+        return keyLayout.totalKey(date).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String ttlSeconds() {
+        return Long.toString(dauProperties.getCountCache().getTotalsTtl().getSeconds());
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按时区划分的当天日期
+ * 每个时区缓存当天的日期以及下一个零点的时间戳，记录时只需比较一次毫秒时间，
+ * 跨过该时区的零点后第一次访问时整体替换，热点路径上不做时区换算；当天的Key由 DAUKeyLayout 缓存。
+ * 未指定地区时使用默认时区；已结束的日期以所有时区中最晚进入当天的那个时区为准
+ @author lk
+ @create 2026/02/23-20:37
+ */
+@Slf4j
+@Component
+public class DAUDayClock implements InitializingBean {
+
+    @Autowired
+    private DAUProperties dauProperties;
+
+    private Clock clock = Clock.systemUTC();
+
+    private ZoneDay defaultZone;
+
+    /**
+     * 地区 -> 时区，启动后不再变化
+     */
+    private Map<String, ZoneDay> regions = Collections.emptyMap();
+
+    /**
+     * 某个时区的当天，不可变，跨天时整体替换
+     */
+    private static class Day {
+        private final LocalDate date;
+        private final long endMillis;
+
+        private Day(LocalDate date, long endMillis) {
+            this.date = date;
+            this.endMillis = endMillis;
+        }
+    }
+
+    private static class ZoneDay {
+        private final ZoneId zone;
+        private volatile Day current;
+
+        private ZoneDay(ZoneId zone) {
+            this.zone = zone;
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        DAUProperties.TimeZone config = dauProperties.getTimeZone();
+        String defaultZoneId = config.getDefaultZone();
+        defaultZone = new ZoneDay(defaultZoneId == null || defaultZoneId.isEmpty()
+                ? ZoneId.systemDefault() : ZoneId.of(defaultZoneId));
+
+        Map<String, ZoneDay> zones = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : config.getRegions().entrySet()) {
+            zones.put(entry.getKey(), new ZoneDay(ZoneId.of(entry.getValue())));
+        }
+        regions = Collections.unmodifiableMap(zones);
+        log.info("DAU日期时区: 默认={}, 地区={}", defaultZone.zone, config.getRegions());
+    }
+
+    /**
+     * 默认时区的当天
+     * @return 日期
+     */
+    public LocalDate today() {
+        return current(defaultZone).date;
+    }
+
+    /**
+     * 指定地区的当天
+     * @param region 地区，为空时使用默认时区
+     * @return 日期，地区未配置时返回null
+     */
+    public LocalDate today(String region) {
+        ZoneDay zoneDay = zoneDay(region);
+        return zoneDay != null ? current(zoneDay).date : null;
+    }
+
+    /**
+     * 获取地区的时区
+     * @param region 地区，为空时使用默认时区
+     * @return 时区，地区未配置时返回null
+     */
+    public ZoneId zone(String region) {
+        ZoneDay zoneDay = zoneDay(region);
+        return zoneDay != null ? zoneDay.zone : null;
+    }
+
+    /**
+     * 地区是否已配置，为空表示默认时区
+     * @param region 地区
+     * @return 有效返回true
+     */
+    public boolean isValidRegion(String region) {
+        return zoneDay(region) != null;
+    }
+
+    /**
+     * 所有时区中最早的当天，早于该日期的数据在所有时区都已结束，不会再变化
+     * @return 日期
+     */
+    public LocalDate earliestToday() {
+        LocalDate earliest = current(defaultZone).date;
+        for (ZoneDay zoneDay : regions.values()) {
+            LocalDate date = current(zoneDay).date;
+            if (date.isBefore(earliest)) {
+                earliest = date;
+            }
+        }
+        return earliest;
+    }
+
+    /**
+     * 数据保留期内最早的日期，更早日期的Key在所有时区都已超过 dau.expire-days，写入的数据不会再被统计
+     * @return 日期
+     */
+    public LocalDate oldestRetained() {
+        return earliestToday().minusDays(dauProperties.getExpireDays() - 1);
+    }
+
+    private ZoneDay zoneDay(String region) {
+        if (region == null || region.isEmpty()) {
+            return defaultZone;
+        }
+        return regions.get(region);
+    }
+
+    /**
+     * 当天未结束时直接返回缓存，跨过零点后重新计算并替换，并发替换的结果相同
+     */
+    private Day current(ZoneDay zoneDay) {
+        Day day = zoneDay.current;
+        long now = clock.millis();
+        if (day == null || now >= day.endMillis) {
+            LocalDate date = clock.instant().atZone(zoneDay.zone).toLocalDate();
+            long endMillis = date.plusDays(1).atStartOfDay(zoneDay.zone).toInstant().toEpochMilli();
+            day = new Day(date, endMillis);
+            zoneDay.current = day;
+        }
+        return day;
+    }
+}
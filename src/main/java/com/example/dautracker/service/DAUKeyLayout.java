@@ -0,0 +1,286 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * DAU Bitmap 的Key布局
+ * 未分片时每天一个Key：dau:yyyyMMdd，偏移量即用户ID(或映射后的偏移量)；
+ * 分片时按偏移量区间拆分为 dau:yyyyMMdd:{shard}，分片号作为hash tag，
+ * 同一分片不同日期的Key落在同一个slot上，不同分片分散到集群的各个节点
+ @author lk
+ @create 2026/02/11-22:08
+ */
+@Component
+public class DAUKeyLayout {
+
+    private static final String DAU_KEY_PREFIX = "dau:";
+    private static final String COUNTER_KEY_PREFIX = "dau:count:";
+    private static final String UNION_KEY_PREFIX = "dau:union:";
+    private static final String INTERSECT_KEY_PREFIX = "dau:tmp:and:";
+    private static final String HLL_KEY_PREFIX = "dau:hll:";
+    private static final String SNAPSHOT_KEY_PREFIX = "dau:snapshot:";
+    private static final String TOTAL_KEY_PREFIX = "dau:total:";
+    private static final String SHARD_INDEX_SUFFIX = ":shards";
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    /**
+     * Key缓存的日期数，覆盖保留期内的日期和少量历史查询
+     */
+    private static final int KEY_CACHE_DATES = 64;
+
+    /**
+     * Redis单个String最大512MB，即偏移量上限为2^32
+     */
+    public static final long MAX_BITMAP_OFFSET = 1L << 32;
+
+    @Autowired
+    private DAUProperties dauProperties;
+
+    /**
+     * 日期 -> 当天用到的Key及其UTF-8编码，Key只由日期和分片号决定，生成后不再变化
+     */
+    private final Cache<LocalDate, DayKeys> keyCache = Caffeine.newBuilder()
+            .maximumSize(KEY_CACHE_DATES)
+            .build();
+
+    /**
+     * Key字符串及其UTF-8编码，编码后的字节数组在调用方之间共享，不能修改
+     */
+    private static class CachedKey {
+        private final String key;
+        private final byte[] raw;
+
+        private CachedKey(String key) {
+            this.key = key;
+            this.raw = key.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * 单个日期的Key，分片Key和分片计数Key在第一次用到时生成
+     */
+    private static class DayKeys {
+        private final String date;
+        private final CachedKey dayKey;
+        private final CachedKey counterKey;
+        private final CachedKey shardIndexKey;
+        private final Map<Long, CachedKey> shardKeys = new ConcurrentHashMap<>();
+        private final Map<Long, CachedKey> shardCounterKeys = new ConcurrentHashMap<>();
+
+        private DayKeys(LocalDate date) {
+            this.date = date.format(DATE_FORMATTER);
+            this.dayKey = new CachedKey(DAU_KEY_PREFIX + this.date);
+            this.counterKey = new CachedKey(COUNTER_KEY_PREFIX + this.date);
+            this.shardIndexKey = new CachedKey(dayKey.key + SHARD_INDEX_SUFFIX);
+        }
+    }
+
+    /**
+     * 是否开启分片
+     * @return 开启返回true
+     */
+    public boolean isSharded() {
+        return dauProperties.getShard().isEnabled();
+    }
+
+    /**
+     * 偏移量是否能写入Bitmap，未分片时受单个Key的大小限制
+     * @param offset 偏移量
+     * @return 是否有效
+     */
+    public boolean isValidOffset(long offset) {
+        return offset >= 0 && (isSharded() || offset < MAX_BITMAP_OFFSET);
+    }
+
+    /**
+     * 计算偏移量所在的分片
+     * @param offset 偏移量
+     * @return 分片号，未分片时固定为0
+     */
+    public long shardOf(long offset) {
+        return isSharded() ? offset / dauProperties.getShard().getShardSize() : 0L;
+    }
+
+    /**
+     * 计算偏移量在分片Key内的位置
+     * @param offset 偏移量
+     * @return 分片内偏移量
+     */
+    public long offsetInShard(long offset) {
+        return isSharded() ? offset % dauProperties.getShard().getShardSize() : offset;
+    }
+
+    /**
+     * 生成 DAU Redis Key
+     * @param date 日期
+     * @return dau:yyyyMMdd
+     */
+    public String dayKey(LocalDate date) {
+        return dayKeys(date).dayKey.key;
+    }
+
+    /**
+     * 生成分片 Key，未分片时与 dayKey 相同
+     * @param date 日期
+     * @param shard 分片号
+     * @return dau:yyyyMMdd:{shard}
+     */
+    public String shardKey(LocalDate date, long shard) {
+        return cachedShardKey(date, shard).key;
+    }
+
+    /**
+     * 分片 Key 的UTF-8编码，返回的数组是共享的，不能修改
+     * @param date 日期
+     * @param shard 分片号
+     * @return Key字节
+     */
+    public byte[] rawShardKey(LocalDate date, long shard) {
+        return cachedShardKey(date, shard).raw;
+    }
+
+    /**
+     * 生成活跃人数计数 Key，分片时每个分片一个计数，与分片Key使用相同的hash tag
+     * @param date 日期
+     * @param shard 分片号
+     * @return dau:count:yyyyMMdd[:{shard}]
+     */
+    public String counterKey(LocalDate date, long shard) {
+        return cachedCounterKey(date, shard).key;
+    }
+
+    /**
+     * 计数 Key 的UTF-8编码，返回的数组是共享的，不能修改
+     * @param date 日期
+     * @param shard 分片号
+     * @return Key字节
+     */
+    public byte[] rawCounterKey(LocalDate date, long shard) {
+        return cachedCounterKey(date, shard).raw;
+    }
+
+    /**
+     * 生成分片索引 Key，记录当天有数据的分片号
+     * @param date 日期
+     * @return dau:yyyyMMdd:shards
+     */
+    public String shardIndexKey(LocalDate date) {
+        return dayKeys(date).shardIndexKey.key;
+    }
+
+    /**
+     * 分片索引 Key 的UTF-8编码，返回的数组是共享的，不能修改
+     * @param date 日期
+     * @return Key字节
+     */
+    public byte[] rawShardIndexKey(LocalDate date) {
+        return dayKeys(date).shardIndexKey.raw;
+    }
+
+    /**
+     * 生成多日并集的缓存 Key，分片时与对应分片使用相同的hash tag
+     * @param startDate 开始日期
+     * @param endDate 结束日期
+     * @param shard 分片号
+     * @return dau:union:yyyyMMdd-yyyyMMdd[:{shard}]
+     */
+    public String unionKey(LocalDate startDate, LocalDate endDate, long shard) {
+        String key = UNION_KEY_PREFIX + startDate.format(DATE_FORMATTER) + "-" + endDate.format(DATE_FORMATTER);
+        return isSharded() ? key + ":{" + shard + "}" : key;
+    }
+
+    /**
+     * 生成两日交集的临时 Key，分片时与对应分片使用相同的hash tag
+     * @param firstDate 第一个日期
+     * @param secondDate 第二个日期
+     * @param shard 分片号
+     * @return dau:tmp:and:yyyyMMdd-yyyyMMdd[:{shard}]
+     */
+    public String intersectKey(LocalDate firstDate, LocalDate secondDate, long shard) {
+        String key = INTERSECT_KEY_PREFIX + firstDate.format(DATE_FORMATTER) + "-" + secondDate.format(DATE_FORMATTER);
+        return isSharded() ? key + ":{" + shard + "}" : key;
+    }
+
+    /**
+     * 两日交集临时 Key 的UTF-8编码，组合较多，不做缓存
+     * @param firstDate 第一个日期
+     * @param secondDate 第二个日期
+     * @param shard 分片号
+     * @return Key的字节数组
+     */
+    public byte[] rawIntersectKey(LocalDate firstDate, LocalDate secondDate, long shard) {
+        return intersectKey(firstDate, secondDate, shard).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 生成指标的HyperLogLog Key，指标名作为hash tag，同一指标所有日期落在同一个slot上，可以直接多Key合并
+     * @param metric 指标名
+     * @param date 日期
+     * @return dau:hll:{metric}:yyyyMMdd
+     */
+    public String hllKey(String metric, LocalDate date) {
+        return HLL_KEY_PREFIX + "{" + metric + "}:" + date.format(DATE_FORMATTER);
+    }
+
+    /**
+     * 生成指标多日合并结果的缓存 Key
+     * @param metric 指标名
+     * @param startDate 开始日期
+     * @param endDate 结束日期
+     * @return dau:hll:{metric}:union:yyyyMMdd-yyyyMMdd
+     */
+    public String hllUnionKey(String metric, LocalDate startDate, LocalDate endDate) {
+        return HLL_KEY_PREFIX + "{" + metric + "}:union:" + startDate.format(DATE_FORMATTER) + "-" + endDate.format(DATE_FORMATTER);
+    }
+
+    /**
+     * 生成进程内Bitmap快照的 Key
+     * @param date 日期
+     * @return dau:snapshot:yyyyMMdd
+     */
+    public String snapshotKey(LocalDate date) {
+        return SNAPSHOT_KEY_PREFIX + date.format(DATE_FORMATTER);
+    }
+
+    /**
+     * 生成已结束日期DAU总数的 Key
+     * @param date 日期
+     * @return dau:total:yyyyMMdd
+     */
+    public String totalKey(LocalDate date) {
+        return TOTAL_KEY_PREFIX + date.format(DATE_FORMATTER);
+    }
+
+    private DayKeys dayKeys(LocalDate date) {
+        return keyCache.get(date, DayKeys::new);
+    }
+
+    private CachedKey cachedShardKey(LocalDate date, long shard) {
+        DayKeys keys = dayKeys(date);
+        if (!isSharded()) {
+            return keys.dayKey;
+        }
+        //先无锁读取，未命中时再创建
+        CachedKey key = keys.shardKeys.get(shard);
+        return key != null ? key : keys.shardKeys.computeIfAbsent(shard, s -> new CachedKey(keys.dayKey.key + ":{" + s + "}"));
+    }
+
+    private CachedKey cachedCounterKey(LocalDate date, long shard) {
+        DayKeys keys = dayKeys(date);
+        if (!isSharded()) {
+            return keys.counterKey;
+        }
+        CachedKey key = keys.shardCounterKeys.get(shard);
+        return key != null ? key : keys.shardCounterKeys.computeIfAbsent(shard, s -> new CachedKey(keys.counterKey.key + ":{" + s + "}"));
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.dautracker.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * DAUService 的监控指标，通过 /actuator/prometheus 暴露
+ * dau.operation: 每个对外方法的耗时；dau.redis: 每次Redis往返(单条命令、脚本或一个Pipeline)的耗时，次数即往返次数；
+ * dau.failures: 按原因统计的失败次数；dau.batch.size: 批量写入的ID数量；dau.bits: 新置位和原来已置位的数量。
+ * Meter按标签值缓存，热点路径上只有一次Map查找；失败次数按操作和原因两级缓存，已知的原因启动时预先注册，记录时不拼接字符串；
+ * 非阻塞调用按从订阅到结束的时间计入同样的指标
+ @author lk
+ @create 2026/02/27-20:16
+ */
+@Component
+public class DAUMetrics implements InitializingBean {
+
+    /**
+     * 启动时预先注册的失败原因：每行为操作名及其已知原因，异常导致的失败按异常类名在第一次出现时注册
+     */
+    private static final String[][] KNOWN_FAILURES = {
+            {"record", "invalid_user_id", "offset_out_of_range", "out_of_retention"},
+            {"record_and_count", "invalid_user_id", "offset_out_of_range", "out_of_retention"},
+            {"batch_record", "invalid_user_id", "offset_out_of_range", "out_of_retention", "pipeline_error"},
+            {"record_events", "invalid_event", "offset_out_of_range", "out_of_retention", "pipeline_error"},
+            {"store_write", "id_mapping", "offset_out_of_range"},
+            {"buffer_record", "invalid_user_id", "offset_out_of_range"},
+            {"buffer_flush", "retries_exhausted"},
+            {"rolling", "invalid_window"}
+    };
+
+    /**
+     * 异常类名，getSimpleName 每次调用都会重新截取字符串
+     */
+    private static final ClassValue<String> EXCEPTION_NAMES = new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            return type.getSimpleName();
+        }
+    };
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, Timer> operationTimers = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> redisTimers = new ConcurrentHashMap<>();
+
+    /**
+     * 操作名 -> 原因 -> 失败次数
+     */
+    private final Map<String, Map<String, Counter>> failureCounters = new ConcurrentHashMap<>();
+
+    private final Map<String, DistributionSummary> batchSizes = new ConcurrentHashMap<>();
+
+    private Counter newlySetBits;
+
+    private Counter alreadySetBits;
+
+    @Override
+    public void afterPropertiesSet() {
+        newlySetBits = bitCounter("newly_set");
+        alreadySetBits = bitCounter("already_set");
+        for (String[] failures : KNOWN_FAILURES) {
+            for (int i = 1; i < failures.length; i++) {
+                registerFailure(failures[0], failures[i]);
+            }
+        }
+    }
+
+    /**
+     * 开始计时一次操作
+     * @return 计时样本
+     */
+    public Timer.Sample start() {
+        return Timer.start(meterRegistry);
+    }
+
+    /**
+     * 结束计时并记录到操作的耗时
+     * @param sample start返回的样本
+     * @param operation 操作名，如 record、batch_record
+     */
+    public void stop(Timer.Sample sample, String operation) {
+        sample.stop(operationTimers.computeIfAbsent(operation, op -> Timer.builder("dau.operation")
+                .description("DAUService 操作耗时")
+                .tag("operation", op)
+                .register(meterRegistry)));
+    }
+
+    /**
+     * 记录一次非阻塞操作从订阅到结束的耗时
+     * @param operation 操作名，如 record、batch_record
+     * @param call 非阻塞操作
+     * @return 附加计时后的操作
+     */
+    public <T> Mono<T> operation(String operation, Mono<T> call) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = start();
+            return call.doFinally(signal -> stop(sample, operation));
+        });
+    }
+
+    /**
+     * 执行一次Redis往返并记录耗时，抛出异常时同样计入
+     * @param call 调用名，如 setbit、write_shard
+     * @param command Redis调用
+     * @return 调用结果
+     */
+    public <T> T redis(String call, Supplier<T> command) {
+        return redisTimer(call).record(command);
+    }
+
+    /**
+     * 记录一次非阻塞Redis往返从订阅到结束的耗时，出错或取消时同样计入
+     * @param call 调用名，如 setbit、bitcount
+     * @param command 非阻塞Redis调用
+     * @return 附加计时后的调用
+     */
+    public <T> Mono<T> redis(String call, Mono<T> command) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = start();
+            return command.doFinally(signal -> sample.stop(redisTimer(call)));
+        });
+    }
+
+    /**
+     * 记录一次因异常导致的失败，原因为异常类名
+     * @param operation 操作名
+     * @param e 异常
+     */
+    public void failure(String operation, Throwable e) {
+        failure(operation, EXCEPTION_NAMES.get(e.getClass()));
+    }
+
+    /**
+     * 记录一次失败
+     * @param operation 操作名
+     * @param cause 原因，如 invalid_user_id、offset_out_of_range
+     */
+    public void failure(String operation, String cause) {
+        Map<String, Counter> counters = failureCounters.get(operation);
+        Counter counter = counters != null ? counters.get(cause) : null;
+        if (counter == null) {
+            counter = registerFailure(operation, cause);
+        }
+        counter.increment();
+    }
+
+    /**
+     * 记录一次批量写入的ID数量
+     * @param operation 操作名
+     * @param size ID数量
+     */
+    public void batchSize(String operation, int size) {
+        batchSizes.computeIfAbsent(operation, op -> DistributionSummary.builder("dau.batch.size")
+                .description("批量写入的ID数量")
+                .tag("operation", op)
+                .register(meterRegistry))
+                .record(size);
+    }
+
+    /**
+     * 记录写入的位中新置位和原来已置位的数量
+     * @param newlySet 新置位的数量，即新增活跃
+     * @param alreadySet 原来已置位的数量
+     */
+    public void bits(long newlySet, long alreadySet) {
+        if (newlySet > 0) {
+            newlySetBits.increment(newlySet);
+        }
+        if (alreadySet > 0) {
+            alreadySetBits.increment(alreadySet);
+        }
+    }
+
+    private Timer redisTimer(String call) {
+        return redisTimers.computeIfAbsent(call, c -> Timer.builder("dau.redis")
+                .description("Redis往返耗时，单条命令、脚本或一个Pipeline为一次")
+                .tag("call", c)
+                .register(meterRegistry));
+    }
+
+    private Counter registerFailure(String operation, String cause) {
+        return failureCounters.computeIfAbsent(operation, op -> new ConcurrentHashMap<>())
+                .computeIfAbsent(cause, c -> Counter.builder("dau.failures")
+                        .description("DAUService 失败次数")
+                        .tag("operation", operation)
+                        .tag("cause", c)
+                        .register(meterRegistry));
+    }
+
+    private Counter bitCounter(String state) {
+        return Counter.builder("dau.bits")
+                .description("写入的位，按原来是否已置位区分")
+                .tag("state", state)
+                .register(meterRegistry);
+    }
+}
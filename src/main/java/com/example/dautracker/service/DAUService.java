@@ -1,77 +1,186 @@
 package com.example.dautracker.service;
 
+import com.example.dautracker.config.DAUProperties;
+import com.example.dautracker.model.ActivityEvent;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisCallback;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.TreeMap;
+import java.util.function.LongConsumer;
 
 /**
  * DAU服务类
- * 使用Redis Bitmap实现高效的日活跃用户统计
+ * 启动时按配置选择一个 DAUStore：默认为 RedisDAUStore，dau.store.type 为 ROARING 或 MMAP 时使用进程内的存储引擎，
+ * dau.hll.user-backend 为 HYPERLOGLOG 时使用 HyperLogLogDAUStore，为 BOTH 时写入同时复制到HyperLogLog；
+ * 本类负责参数校验、数据保留期检查和留存缓存失效，Bitmap的读写都委托给选中的存储引擎
+ * 每个对外方法的耗时、Redis往返、失败原因和写入的位数记录到 DAUMetrics；
+ * 记录路径上不逐条输出INFO日志，汇总由 DAUActivityLog 周期输出，告警和错误日志按模板限流
  @author lk
  @create 2026/02/07-23:03
  */
 @Slf4j
 @Service
-public class DAUService {
+public class DAUService implements InitializingBean {
 
-    private static final String DAU_KEY_PREFIX = "dau:";
-    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
-    //数据保留7天
-    private static final int EXPIRE_DAYS = 7;
+    @Autowired
+    private DAUProperties dauProperties;
+
+    @Autowired
+    private RedisDAUStore redisStore;
+
+    @Autowired
+    private HyperLogLogDAUStore hyperLogLogStore;
+
+    @Autowired
+    private RoaringDAUStore roaringStore;
 
     @Autowired
-    private RedisTemplate<String, Object> redisTemplate;
+    private MmapDAUStore mmapStore;
+
+    @Autowired
+    private HyperLogLogService hyperLogLogService;
+
+    @Autowired
+    private RetentionCache retentionCache;
+
+    @Autowired
+    private DAUDayClock dayClock;
+
+    @Autowired
+    private DAUMetrics metrics;
+
+    @Autowired
+    private DAUActivityLog activityLog;
 
     /**
-     * 生成 DAU Redis Key
-     * @param date 日期
-     * @return 改造后的key
+     * 启动时选定的存储引擎
      */
-    private String generateDauKey(LocalDate date) {
-        return DAU_KEY_PREFIX + date.format(DATE_FORMATTER);
+    private DAUStore store;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (dauProperties.getHll().getUserBackend() == DAUProperties.Backend.HYPERLOGLOG) {
+            store = hyperLogLogStore;
+        } else {
+            switch (dauProperties.getStore().getType()) {
+                case ROARING:
+                    store = roaringStore;
+                    break;
+                case MMAP:
+                    store = mmapStore;
+                    break;
+                default:
+                    store = redisStore;
+            }
+        }
+        log.info("DAU存储引擎: {}", store.getClass().getSimpleName());
     }
 
     /**
      * 记录用户活跃状况
      * @param userId 用户id
      * @param date 日期，为null时使用当前日期
-     * @return 是否记录成功
+     * @return 是否记录成功，日期已超出数据保留期时返回false
      */
     public boolean recordUserActive(Long userId, LocalDate date) {
-        if (userId == null || userId <= 0) {
-            log.warn("无效的用户ID:{}", userId);
-            return false;
-        }
+        Timer.Sample sample = metrics.start();
+        try {
+            if (userId == null || userId <= 0) {
+                activityLog.warn(log, "无效的用户ID:{}", userId);
+                metrics.failure("record", "invalid_user_id");
+                return false;
+            }
+
+            if (date == null) {
+                date = dayClock.today();
+            }
+            if (!isRetained(date, "record") || !isStorable(userId, "record")) {
+                return false;
+            }
+
+            try {
+                recordHyperLogLog(date, new long[]{userId}, 1);
+                boolean previous = store.setActive(date, userId);
+                if (!previous) {
+                    invalidateClosedDay(date);
+                }
+                metrics.bits(previous ? 0 : 1, previous ? 1 : 0);
 
-        if (date == null) {
-            date = LocalDate.now();
+                if (log.isDebugEnabled()) {
+                    log.debug("用户{}在{}的活跃度已记录", userId, date);
+                }
+                return true;
+            } catch (Exception e) {
+                activityLog.error(log, "记录用户活跃状态失败: userId={}, date={}", userId, date, e);
+                metrics.failure("record", e);
+                return false;
+            }
+        } finally {
+            metrics.stop(sample, "record");
         }
+    }
 
-        String key = generateDauKey(date);
+    /**
+     * 用户ID能否写入当前的存储，写缓冲在接受ID之前检查，避免先返回成功之后才发现永远无法写入
+     * @param userId 用户id
+     * @return 能写入返回true
+     */
+    public boolean isRecordableUserId(long userId) {
+        return userId > 0 && store.isValidOffset(userId);
+    }
 
+    /**
+     * 记录用户活跃并返回当天实时的DAU
+     * Redis开启计数时通过一次Lua脚本调用完成SETBIT、EXPIRE和计数，其他情况退化为记录后统计
+     * @param userId 用户id
+     * @param date 日期，为null时使用当前日期
+     * @return 记录后的DAU，记录失败或日期已超出数据保留期时返回null
+     */
+    public Long recordUserActiveAndCount(Long userId, LocalDate date) {
+        Timer.Sample sample = metrics.start();
         try {
-            //使用SETBIT设置用户活跃标记
-            Boolean result = redisTemplate.execute((RedisCallback<Boolean>) connection -> {
-                return connection.setBit(key.getBytes(), userId, true);
-            });
-
-            //设置过期时间
-            redisTemplate.expire(key, EXPIRE_DAYS, TimeUnit.DAYS);
+            if (userId == null || userId <= 0) {
+                activityLog.warn(log, "无效的用户ID:{}", userId);
+                metrics.failure("record_and_count", "invalid_user_id");
+                return null;
+            }
 
-            log.debug("用户{}在{}的活跃度已记录, key:{}", userId, date, key);
-            return result != null;
+            if (date == null) {
+                date = dayClock.today();
+            }
+            if (!isRetained(date, "record_and_count") || !isStorable(userId, "record_and_count")) {
+                return null;
+            }
 
-        } catch (Exception e) {
-            log.error("记录用户活跃状态失败: userId={}, date={}", userId, date, e);
-            return false;
+            try {
+                recordHyperLogLog(date, new long[]{userId}, 1);
+                long[] result = store.setActiveAndCount(date, userId);
+                if (result[0] == 0L) {
+                    invalidateClosedDay(date);
+                }
+                metrics.bits(1 - result[0], result[0]);
+                return result[1];
+            } catch (Exception e) {
+                activityLog.error(log, "记录用户活跃并计数失败: userId={}, date={}", userId, date, e);
+                metrics.failure("record_and_count", e);
+                return null;
+            }
+        } finally {
+            metrics.stop(sample, "record_and_count");
         }
     }
 
@@ -86,58 +195,373 @@ public class DAUService {
             return 0;
         }
 
-        if (date == null) {
-            date = LocalDate.now();
+        long[] ids = new long[userIds.length];
+        int count = 0;
+        for (Long userId : userIds) {
+            if (userId != null) {
+                ids[count++] = userId;
+            } else {
+                activityLog.warn(log, "批量记录跳过无效的用户ID:{}", userId);
+            }
         }
+        return batchRecordUserActive(ids, count, date);
+    }
 
-        int successCount = 0;
-        String key = generateDauKey(date);
-        for (Long userId : userIds) {
-            if (userId != null && userId > 0) {
-                try {
-                    redisTemplate.execute((RedisCallback<Boolean>) connection -> {
-                        return connection.setBit(key.getBytes(), userId, true);
-                    });
-                    successCount++;
-                } catch (Exception e) {
-                    log.error("批量记录失败: userId={}", userId, e);
+    /**
+     * 批量记录用户活跃状态，用户ID以原始long数组传入，不需要装箱
+     * 有效ID先排序去重，再交给存储引擎批量写入(Redis按分片切分为连续区间)，单个ID不产生额外对象；
+     * 重复的ID只写入一次，全部写入成功时按输入数量计入成功数
+     * @param userIds 用户Id数组，处理过程中不会修改
+     * @param length 数组中有效的数量
+     * @param date 日期
+     * @return 成功记录的数量
+     */
+    public int batchRecordUserActive(long[] userIds, int length, LocalDate date) {
+        return batchRecordUserActive(userIds, length, date, null);
+    }
+
+    /**
+     * 批量记录用户活跃状态，并报告因Redis异常等原因未能写入、可以重试的用户ID
+     * 无效ID、超出偏移量上限的ID和超出数据保留期的日期永远无法写入，只计入失败指标，不会报告
+     * @param userIds 用户Id数组，处理过程中不会修改
+     * @param length 数组中有效的数量
+     * @param date 日期
+     * @param retryable 接收可以重试的用户ID，为null时不报告
+     * @return 成功记录的数量
+     */
+    public int batchRecordUserActive(long[] userIds, int length, LocalDate date, LongConsumer retryable) {
+        Timer.Sample sample = metrics.start();
+        try {
+            if (userIds == null || length <= 0) {
+                return 0;
+            }
+            metrics.batchSize("batch_record", length);
+
+            if (date == null) {
+                date = dayClock.today();
+            }
+            if (!isRetained(date, "batch_record")) {
+                return 0;
+            }
+
+            //先过滤无效ID，保证写入的结果与ID一一对应
+            long[] validIds = new long[length];
+            int validCount = 0;
+            for (int i = 0; i < length; i++) {
+                if (userIds[i] > 0) {
+                    validIds[validCount++] = userIds[i];
+                } else {
+                    activityLog.warn(log, "批量记录跳过无效的用户ID:{}", userIds[i]);
                 }
             }
+            if (validCount < length) {
+                metrics.failure("batch_record", "invalid_user_id");
+            }
+
+            if (validCount == 0) {
+                return 0;
+            }
+
+            int distinctCount = sortDistinct(validIds, validCount);
+            int storeCount = retainStorable(validIds, distinctCount, "batch_record");
+            if (storeCount == 0) {
+                return 0;
+            }
+            recordHyperLogLog(date, validIds, storeCount);
+
+            long[] failedCount = new long[1];
+            long newlyActiveCount;
+            try {
+                newlyActiveCount = store.setActive(new LocalDate[]{date}, new long[][]{validIds}, new int[]{storeCount},
+                        failed(failedCount, retryable))[0];
+            } catch (Exception e) {
+                activityLog.error(log, "批量记录用户活跃失败: 数量={}, 日期={}", storeCount, date, e);
+                metrics.failure("batch_record", e);
+                reportRetryable(validIds, 0, storeCount, retryable);
+                return 0;
+            }
+
+            long successCount = storeCount - failedCount[0];
+            if (newlyActiveCount > 0) {
+                invalidateClosedDay(date);
+            }
+            metrics.bits(newlyActiveCount, successCount - newlyActiveCount);
+            if (failedCount[0] > 0) {
+                metrics.failure("batch_record", "pipeline_error");
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("批量记录用户活跃: 总数={},去重后={},成功={},新增活跃={},日期={}",
+                        length, distinctCount, successCount, newlyActiveCount, date);
+            }
+            return successCount == distinctCount ? validCount : (int) successCount;
+        } finally {
+            metrics.stop(sample, "batch_record");
         }
+    }
 
-        //设置过期时间
-        redisTemplate.expire(key, EXPIRE_DAYS, TimeUnit.DAYS);
+    /**
+     * 记录跨多个日期的用户活跃事件
+     * @param events 活跃事件列表，每个事件带日期或毫秒时间戳
+     * @param region 事件未指定地区时，时间戳按该地区的时区换算为日期，为空时使用默认时区
+     * @return 成功记录的数量
+     */
+    public int recordEvents(List<ActivityEvent> events, String region) {
+        if (events == null || events.isEmpty()) {
+            return 0;
+        }
 
-        log.info("批量记录用户活跃: 总数={},成功={},日期={}", userIds.length, successCount, date);
-        return successCount;
+        long[] userIds = new long[events.size()];
+        LocalDate[] dates = new LocalDate[events.size()];
+        for (int i = 0; i < events.size(); i++) {
+            ActivityEvent event = events.get(i);
+            if (event == null || event.getUserId() == null) {
+                continue;
+            }
+            userIds[i] = event.getUserId();
+            if (event.getDate() != null) {
+                dates[i] = event.getDate();
+            } else if (event.getTimestamp() != null) {
+                ZoneId zone = dayClock.zone(event.getRegion() != null ? event.getRegion() : region);
+                if (zone != null) {
+                    dates[i] = Instant.ofEpochMilli(event.getTimestamp()).atZone(zone).toLocalDate();
+                }
+            }
+        }
+        return recordEvents(userIds, dates, events.size());
     }
 
     /**
-     * 检查用户是否活跃
-     * @param userId 用户ID
+     * 记录跨多个日期的用户活跃事件，按日期分组后与 batchRecordUserActive 一样排序去重，
+     * 所有日期一次交给存储引擎，Redis把所有日期的写入按分片合并到同一个Pipeline中，每个Key只追加一次EXPIRE
+     * 超出数据保留期的事件与无效事件一样跳过，不计入成功数
+     * @param userIds 用户Id数组
+     * @param dates 与userIds一一对应的日期
+     * @param length 数组中有效的数量
+     * @return 成功记录的数量
+     */
+    public int recordEvents(long[] userIds, LocalDate[] dates, int length) {
+        Timer.Sample sample = metrics.start();
+        try {
+            if (userIds == null || dates == null || length <= 0) {
+                return 0;
+            }
+            metrics.batchSize("record_events", length);
+
+            //按日期分组，第一遍统计数量，第二遍填入各日期的数组
+            LocalDate oldestRetained = dayClock.oldestRetained();
+            Map<LocalDate, int[]> dateSizes = new TreeMap<>();
+            boolean skipped = false;
+            boolean expired = false;
+            for (int i = 0; i < length; i++) {
+                if (userIds[i] <= 0 || dates[i] == null) {
+                    activityLog.warn(log, "跳过无效的活跃事件: userId={}, date={}", userIds[i], dates[i]);
+                    skipped = true;
+                } else if (dates[i].isBefore(oldestRetained)) {
+                    activityLog.warn(log, "跳过超出数据保留期的活跃事件: userId={}, date={}", userIds[i], dates[i]);
+                    expired = true;
+                } else {
+                    dateSizes.computeIfAbsent(dates[i], d -> new int[1])[0]++;
+                }
+            }
+            if (skipped) {
+                metrics.failure("record_events", "invalid_event");
+            }
+            if (expired) {
+                metrics.failure("record_events", "out_of_retention");
+            }
+            if (dateSizes.isEmpty()) {
+                return 0;
+            }
+
+            Map<LocalDate, long[]> dateIds = new LinkedHashMap<>();
+            for (Map.Entry<LocalDate, int[]> entry : dateSizes.entrySet()) {
+                dateIds.put(entry.getKey(), new long[entry.getValue()[0]]);
+                entry.getValue()[0] = 0;
+            }
+            for (int i = 0; i < length; i++) {
+                int[] size = dates[i] != null ? dateSizes.get(dates[i]) : null;
+                if (userIds[i] > 0 && size != null) {
+                    dateIds.get(dates[i])[size[0]++] = userIds[i];
+                }
+            }
+
+            LocalDate[] storeDates = new LocalDate[dateIds.size()];
+            long[][] storeIds = new long[dateIds.size()][];
+            int[] storeCounts = new int[dateIds.size()];
+            int validCount = 0;
+            int distinctTotal = 0;
+            int writeCount = 0;
+            int d = 0;
+            for (Map.Entry<LocalDate, long[]> entry : dateIds.entrySet()) {
+                long[] ids = entry.getValue();
+                validCount += ids.length;
+                int distinctCount = sortDistinct(ids, ids.length);
+                distinctTotal += distinctCount;
+
+                storeDates[d] = entry.getKey();
+                storeIds[d] = ids;
+                storeCounts[d] = retainStorable(ids, distinctCount, "record_events");
+                writeCount += storeCounts[d];
+                recordHyperLogLog(entry.getKey(), ids, storeCounts[d]);
+                d++;
+            }
+
+            long[] failedCount = new long[1];
+            long[] newlyActive;
+            try {
+                newlyActive = store.setActive(storeDates, storeIds, storeCounts, failed(failedCount, null));
+            } catch (Exception e) {
+                activityLog.error(log, "记录活跃事件失败: 数量={}, 日期数={}", validCount, dateIds.size(), e);
+                metrics.failure("record_events", e);
+                return 0;
+            }
+
+            long successCount = writeCount - failedCount[0];
+            long newlyActiveCount = 0L;
+            for (int i = 0; i < storeDates.length; i++) {
+                newlyActiveCount += newlyActive[i];
+                if (newlyActive[i] > 0) {
+                    invalidateClosedDay(storeDates[i]);
+                }
+            }
+            metrics.bits(newlyActiveCount, successCount - newlyActiveCount);
+            if (failedCount[0] > 0) {
+                metrics.failure("record_events", "pipeline_error");
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("记录活跃事件: 总数={},去重后={},成功={},新增活跃={},日期数={}",
+                        length, distinctTotal, successCount, newlyActiveCount, dateIds.size());
+            }
+            return successCount == distinctTotal ? validCount : (int) successCount;
+        } finally {
+            metrics.stop(sample, "record_events");
+        }
+    }
+
+    /**
+     * 日期早于数据保留期时写入的数据不会再被统计，记录失败原因后拒绝写入
      * @param date 日期
-     * @return 是否活跃
+     * @param operation 记录失败原因时使用的操作名
+     * @return 在保留期内返回true
      */
-    public boolean isUserActive(Long userId, LocalDate date) {
-        if (userId == null || userId <= 0) {
-            return false;
+    private boolean isRetained(LocalDate date, String operation) {
+        if (!date.isBefore(dayClock.oldestRetained())) {
+            return true;
         }
+        activityLog.warn(log, "日期超出数据保留期{}天，拒绝写入: date={}", dauProperties.getExpireDays(), date);
+        metrics.failure(operation, "out_of_retention");
+        return false;
+    }
+
+    private boolean isStorable(long userId, String operation) {
+        if (store.isValidOffset(userId)) {
+            return true;
+        }
+        activityLog.warn(log, "用户ID超出存储引擎的偏移量上限，请开启ID映射或分片:{}", userId);
+        metrics.failure(operation, "offset_out_of_range");
+        return false;
+    }
+
+    /**
+     * 原地去掉存储引擎无法写入的ID
+     * @return 剩余的数量，结果位于数组开头
+     */
+    private int retainStorable(long[] userIds, int length, String operation) {
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (store.isValidOffset(userIds[i])) {
+                userIds[count++] = userIds[i];
+            } else {
+                activityLog.warn(log, "用户ID超出存储引擎的偏移量上限，请开启ID映射或分片:{}", userIds[i]);
+            }
+        }
+        if (count < length) {
+            metrics.failure(operation, "offset_out_of_range");
+        }
+        return count;
+    }
+
+    /**
+     * dau.hll.user-backend 为 BOTH 时把用户ID同时写入HyperLogLog，查询仍使用Bitmap
+     */
+    private void recordHyperLogLog(LocalDate date, long[] userIds, int length) {
+        if (dauProperties.getHll().getUserBackend() != DAUProperties.Backend.BOTH || length == 0) {
+            return;
+        }
+        List<String> ids = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            ids.add(Long.toString(userIds[i]));
+        }
+        hyperLogLogService.batchRecord(dauProperties.getHll().getUserMetric(), ids, date);
+    }
+
+    /**
+     * 统计存储引擎报告的写入失败数量，并转发给调用方
+     */
+    private static LongConsumer failed(long[] failedCount, LongConsumer retryable) {
+        return userId -> {
+            failedCount[0]++;
+            if (retryable != null) {
+                retryable.accept(userId);
+            }
+        };
+    }
 
-        if (date == null) {
-            date = LocalDate.now();
+    /**
+     * 报告一段可以重试的用户ID
+     */
+    private static void reportRetryable(long[] userIds, int from, int to, LongConsumer retryable) {
+        if (retryable == null) {
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            retryable.accept(userIds[i]);
         }
+    }
 
-        String key = generateDauKey(date);
+    /**
+     * 对数组前length个元素原地排序并去重
+     * @return 去重后的数量，结果位于数组开头
+     */
+    static int sortDistinct(long[] values, int length) {
+        Arrays.sort(values, 0, length);
+        int distinct = 0;
+        for (int i = 0; i < length; i++) {
+            if (distinct == 0 || values[i] != values[distinct - 1]) {
+                values[distinct++] = values[i];
+            }
+        }
+        return distinct;
+    }
 
+    /**
+     * 检查用户是否活跃
+     * @param userId 用户ID
+     * @param date 日期
+     * @return 是否活跃
+     */
+    public boolean isUserActive(Long userId, LocalDate date) {
+        Timer.Sample sample = metrics.start();
         try {
-            Boolean result = redisTemplate.execute((RedisCallback<Boolean>) connection -> {
-                return connection.getBit(key.getBytes(), userId);
-            });
+            if (userId == null || userId <= 0) {
+                return false;
+            }
 
-            return result != null && result;
-        } catch (Exception e) {
-            log.error("查询用户是否活跃失败:userId={}, date={}", userId, date, e);
-            return false;
+            if (date == null) {
+                date = dayClock.today();
+            }
+
+            try {
+                return store.isActive(date, userId);
+            } catch (Exception e) {
+                activityLog.error(log, "查询用户是否活跃失败:userId={}, date={}", userId, date, e);
+                metrics.failure("check", e);
+                return false;
+            }
+        } finally {
+            metrics.stop(sample, "check");
         }
     }
 
@@ -147,23 +571,26 @@ public class DAUService {
      * @return DAU数量
      */
     public Long getDauCount(LocalDate date) {
-        if (date == null) {
-            date = LocalDate.now();
-        }
-
-        String key = generateDauKey(date);
-
+        Timer.Sample sample = metrics.start();
         try {
-            //使用BITCOUNT 统计活跃用户数
-            Long count = redisTemplate.execute((RedisCallback<Long>) connection -> {
-                return connection.bitCount(key.getBytes());
-            });
+            if (date == null) {
+                date = dayClock.today();
+            }
+
+            try {
+                long count = store.count(Collections.singletonList(date))[0];
 
-            log.debug("日期{}的DAU: {}", date, count);
-            return count != null ? count : 0L;
-        } catch (Exception e) {
-            log.error("获取DAU失败:date={}", date, e);
-            return 0L;
+                if (log.isDebugEnabled()) {
+                    log.debug("日期{}的DAU: {}", date, count);
+                }
+                return count;
+            } catch (Exception e) {
+                activityLog.error(log, "获取DAU失败:date={}", date, e);
+                metrics.failure("count", e);
+                return 0L;
+            }
+        } finally {
+            metrics.stop(sample, "count");
         }
     }
 
@@ -174,46 +601,164 @@ public class DAUService {
      * @return 日期->DAU的映射
      */
     public Map<String, Long> getDauCountRange(LocalDate startDate, LocalDate endDate) {
-        Map<String, Long> result = new LinkedHashMap<>();
+        Timer.Sample sample = metrics.start();
+        try {
+            Map<String, Long> result = new LinkedHashMap<>();
+
+            if (startDate == null || endDate == null) {
+                return result;
+            }
 
-        if (startDate == null || endDate == null) {
+            List<LocalDate> dates = new ArrayList<>();
+            for (LocalDate currentDate = startDate; !currentDate.isAfter(endDate); currentDate = currentDate.plusDays(1)) {
+                dates.add(currentDate);
+            }
+
+            //所有日期一次交给存储引擎，Redis的BITCOUNT合并为一次Pipeline(分片时每个分片一次并行执行)
+            long[] counts;
+            try {
+                counts = store.count(dates);
+            } catch (Exception e) {
+                activityLog.error(log, "获取日期范围DAU失败: startDate={}, endDate={}", startDate, endDate, e);
+                metrics.failure("count_range", e);
+                counts = new long[dates.size()];
+            }
+
+            DateTimeFormatter displayFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+            for (int i = 0; i < dates.size(); i++) {
+                result.put(dates.get(i).format(displayFormatter), counts[i]);
+            }
+
+            log.debug("日期范围{}到{}的DAU统计完成", startDate, endDate);
             return result;
+        } finally {
+            metrics.stop(sample, "count_range");
         }
+    }
 
-        LocalDate currentDate = startDate;
-        DateTimeFormatter displayFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    /**
+     * 去重统计的窗口天数是否有效，需在1到数据保留天数之间
+     * @param days 窗口天数
+     * @return 有效返回true
+     */
+    public boolean isValidRollingWindow(int days) {
+        return days >= 1 && days <= dauProperties.getExpireDays();
+    }
+
+    /**
+     * 获取数据保留天数
+     * @return dau.expire-days
+     */
+    public int getExpireDays() {
+        return dauProperties.getExpireDays();
+    }
 
-        while (!currentDate.isAfter(endDate)) {
-            String dateStr = currentDate.format(displayFormatter);
-            Long count = getDauCount(currentDate);
-            result.put(dateStr, count);
-            currentDate = currentDate.plusDays(1);
+    /**
+     * 获取截止到指定日期的N天内去重活跃用户数，如WAU(7天)、MAU(30天)
+     * @param endDate 截止日期(包含)，为null时使用当前日期
+     * @param days 窗口天数
+     * @return 去重活跃用户数
+     */
+    public Long getRollingActiveCount(LocalDate endDate, int days) {
+        Timer.Sample sample = metrics.start();
+        try {
+            //窗口内每天一个Key都会进入同一次脚本调用，超过保留天数的窗口既没有数据又会长时间阻塞Redis
+            if (!isValidRollingWindow(days)) {
+                activityLog.warn(log, "统计窗口{}天超出范围，需在1到数据保留天数{}之间", days, dauProperties.getExpireDays());
+                metrics.failure("rolling", "invalid_window");
+                return 0L;
+            }
+
+            if (endDate == null) {
+                endDate = dayClock.today();
+            }
+
+            LocalDate startDate = endDate.minusDays(days - 1);
+            List<LocalDate> dates = new ArrayList<>(days);
+            for (LocalDate currentDate = startDate; !currentDate.isAfter(endDate); currentDate = currentDate.plusDays(1)) {
+                dates.add(currentDate);
+            }
+
+            try {
+                long count = store.unionCount(dates);
+
+                if (log.isDebugEnabled()) {
+                    log.debug("{}到{}的去重活跃用户数: {}", startDate, endDate, count);
+                }
+                return count;
+            } catch (Exception e) {
+                activityLog.error(log, "获取去重活跃用户数失败: endDate={}, days={}", endDate, days, e);
+                metrics.failure("rolling", e);
+                return 0L;
+            }
+        } finally {
+            metrics.stop(sample, "rolling");
         }
+    }
 
-        log.info("日期范围{}到{}的DAU统计完成", startDate, endDate);
-        return result;
+    /**
+     * 日期切换后统计并持久化前一天的DAU总数，之后对该日期的查询不再需要BITCOUNT
+     * 与查询走同一个写回路径，统计期间有补录时不会写入旧的总数；只有Redis存储使用DAU数量缓存
+     */
+    @Scheduled(cron = "${dau.count-cache.rollover-cron:0 1 0 * * *}")
+    public void persistYesterdayCount() {
+        Timer.Sample sample = metrics.start();
+        try {
+            if (!dauProperties.getCountCache().isEnabled() || store != redisStore) {
+                return;
+            }
+
+            LocalDate yesterday = dayClock.earliestToday().minusDays(1);
+            try {
+                long count = store.count(Collections.singletonList(yesterday))[0];
+                log.info("已持久化{}的DAU总数: {}", yesterday, count);
+            } catch (Exception e) {
+                log.error("持久化DAU总数失败: date={}", yesterday, e);
+                metrics.failure("persist_count", e);
+            }
+        } finally {
+            metrics.stop(sample, "persist_count");
+        }
     }
 
     /**
-     * 获取Redis的Key占用的内存大小(字节)
+     * 获取存储引擎中指定日期的数据占用的内存大小(字节)，Redis分片时为各分片之和
      * @param date 日期
      * @return 内存大小(字节)
      */
     public Long getKeyMemoryUsage(LocalDate date) {
-        if (date == null) {
-            date = LocalDate.now();
+        Timer.Sample sample = metrics.start();
+        try {
+            if (date == null) {
+                date = dayClock.today();
+            }
+
+            try {
+                return store.memoryUsage(date);
+            } catch (Exception e) {
+                activityLog.error(log, "获取内存使用大小失败:date={}", date, e);
+                metrics.failure("memory_usage", e);
+                return 0L;
+            }
+        } finally {
+            metrics.stop(sample, "memory_usage");
         }
+    }
 
-        String key = generateDauKey(date);
+    /**
+     * 获取启动时选定的存储引擎
+     */
+    DAUStore getStore() {
+        return store;
+    }
 
-        try {
-            return redisTemplate.execute((RedisCallback<Long>) connection -> {
-                Object result = connection.execute("MEMORY", "USAGE".getBytes(), key.getBytes());
-                return result != null ? (Long) result : 0L;
-            });
-        } catch (Exception e) {
-            log.error("获取内存使用大小失败:date={}", date, e);
-            return 0L;
+    /**
+     * 向已结束的日期补录数据后，涉及该日期的留存结果失效，存储引擎自身的缓存由存储引擎处理
+     * @param date 日期
+     */
+    void invalidateClosedDay(LocalDate date) {
+        if (date.isBefore(dayClock.earliestToday())) {
+            retentionCache.invalidate(date);
         }
     }
 }
@@ -0,0 +1,107 @@
+package com.example.dautracker.service;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * DAU Bitmap 存储引擎
+ * 以偏移量为单位记录每天的活跃用户，DAUService 负责参数校验、保留期检查、留存缓存和同时写入HyperLogLog等上层逻辑，
+ * 启动时按配置选择一个实现：Redis Bitmap(默认，开启ID映射时在内部把用户ID换算为偏移量)、进程内的Roaring或MMAP，
+ * 用户DAU只使用HyperLogLog统计时为 HyperLogLogDAUStore
+ @author lk
+ @create 2026/02/17-20:14
+ */
+public interface DAUStore {
+
+    /**
+     * 偏移量是否能写入
+     * @param offset 偏移量
+     * @return 是否有效
+     */
+    default boolean isValidOffset(long offset) {
+        return offset >= 0;
+    }
+
+    /**
+     * 标记偏移量在指定日期活跃
+     * @param date 日期
+     * @param offset 偏移量
+     * @return 之前是否已经活跃
+     */
+    boolean setActive(LocalDate date, long offset);
+
+    /**
+     * 批量标记偏移量活跃
+     * @param date 日期
+     * @param offsets 偏移量数组
+     * @param length 数组中有效的数量
+     * @return 新增的活跃数量
+     */
+    int setActive(LocalDate date, long[] offsets, int length);
+
+    /**
+     * 批量标记多个日期的偏移量活跃
+     * 默认逐个日期写入，任一日期写入异常时直接抛出；Redis实现把所有日期合并写入，只报告失败和超出上限的ID
+     * @param dates 日期数组，不能重复
+     * @param offsets 与dates一一对应的偏移量数组，每个数组中有序且去重
+     * @param lengths 与dates一一对应的有效数量
+     * @param failed 接收未能写入的偏移量，为null时不报告
+     * @return 与dates一一对应的新增活跃数量
+     */
+    default long[] setActive(LocalDate[] dates, long[][] offsets, int[] lengths, LongConsumer failed) {
+        long[] newlyActive = new long[dates.length];
+        for (int i = 0; i < dates.length; i++) {
+            newlyActive[i] = lengths[i] > 0 ? setActive(dates[i], offsets[i], lengths[i]) : 0;
+        }
+        return newlyActive;
+    }
+
+    /**
+     * 标记偏移量活跃并返回当天的活跃数量
+     * @param date 日期
+     * @param offset 偏移量
+     * @return {之前是否已经活跃(1/0), 写入后的活跃数量}
+     */
+    default long[] setActiveAndCount(LocalDate date, long offset) {
+        boolean previous = setActive(date, offset);
+        return new long[]{previous ? 1L : 0L, count(Collections.singletonList(date))[0]};
+    }
+
+    /**
+     * 偏移量在指定日期是否活跃
+     * @param date 日期
+     * @param offset 偏移量
+     * @return 是否活跃
+     */
+    boolean isActive(LocalDate date, long offset);
+
+    /**
+     * 统计多个日期各自的活跃数量
+     * @param dates 日期列表
+     * @return 与dates顺序一致的活跃数量
+     */
+    long[] count(List<LocalDate> dates);
+
+    /**
+     * 统计多个日期活跃用户的并集数量
+     * @param dates 日期列表
+     * @return 去重后的活跃数量
+     */
+    long unionCount(List<LocalDate> dates);
+
+    /**
+     * 统计多组两日活跃用户的交集数量
+     * @param pairs [第一个日期, 第二个日期] 列表
+     * @return 与pairs顺序一致的交集数量
+     */
+    long[] intersectCounts(List<LocalDate[]> pairs);
+
+    /**
+     * 获取指定日期数据占用的内存
+     * @param date 日期
+     * @return 字节数
+     */
+    long memoryUsage(LocalDate date);
+}
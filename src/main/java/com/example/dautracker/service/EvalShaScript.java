@@ -0,0 +1,69 @@
+package com.example.dautracker.service;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 在Pipeline中通过EVALSHA调用的Lua脚本
+ * 第一次使用前通过SCRIPT LOAD加载一次，之后每次调用只发送SHA1；Redis重启或执行过SCRIPT FLUSH时EVALSHA返回NOSCRIPT，
+ * 调用方发现后通过 markUnloaded 让下次使用前重新加载，本次失败的命令按各自的失败处理
+ @author lk
+ @create 2026/03/03-20:15
+ */
+final class EvalShaScript {
+
+    private final String sha1;
+
+    private final byte[] body;
+
+    private volatile boolean loaded;
+
+    EvalShaScript(String location) {
+        RedisScript<Object> script = RedisScript.of(new ClassPathResource(location));
+        this.sha1 = script.getSha1();
+        this.body = script.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    String getSha1() {
+        return sha1;
+    }
+
+    /**
+     * 脚本体，用于不经过Pipeline的EVAL
+     */
+    byte[] getBody() {
+        return body;
+    }
+
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * 加载到Redis的脚本缓存
+     * @param connection Redis连接，不能处于Pipeline中
+     */
+    void load(RedisConnection connection) {
+        connection.scriptLoad(body);
+        loaded = true;
+    }
+
+    void markUnloaded() {
+        loaded = false;
+    }
+
+    /**
+     * Pipeline中的命令结果或抛出的异常是否为NOSCRIPT错误
+     */
+    static boolean isNoScript(Object result) {
+        for (Throwable e = result instanceof Throwable ? (Throwable) result : null; e != null; e = e.getCause()) {
+            if (e.getMessage() != null && e.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
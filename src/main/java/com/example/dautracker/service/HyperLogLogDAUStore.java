@@ -0,0 +1,91 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 用户DAU只使用HyperLogLog统计时的存储引擎，配置 dau.hll.user-backend 为 HYPERLOGLOG 时由 DAUService 选用
+ * 用户ID按字符串写入 dau.hll.user-metric 指标，数量和滚动窗口为近似值；无法查询单个用户，也不支持交集和内存统计
+ @author lk
+ @create 2026/03/03-20:45
+ */
+@Slf4j
+@Component
+public class HyperLogLogDAUStore implements DAUStore {
+
+    @Autowired
+    private HyperLogLogService hyperLogLogService;
+
+    @Autowired
+    private DAUProperties dauProperties;
+
+    @Autowired
+    private DAUActivityLog activityLog;
+
+    /**
+     * PFADD无法区分是否已记录，按新增处理
+     */
+    @Override
+    public boolean setActive(LocalDate date, long offset) {
+        if (!hyperLogLogService.record(metric(), Long.toString(offset), date)) {
+            throw new IllegalStateException("HyperLogLog记录失败: date=" + date + ", userId=" + offset);
+        }
+        return false;
+    }
+
+    /**
+     * PFADD是幂等的，未全部成功时抛出异常由调用方整批重试
+     */
+    @Override
+    public int setActive(LocalDate date, long[] offsets, int length) {
+        List<String> ids = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            ids.add(Long.toString(offsets[i]));
+        }
+        int recorded = hyperLogLogService.batchRecord(metric(), ids, date);
+        if (recorded < length) {
+            throw new IllegalStateException("HyperLogLog批量记录失败: date=" + date + ", 数量=" + length);
+        }
+        return recorded;
+    }
+
+    @Override
+    public boolean isActive(LocalDate date, long offset) {
+        activityLog.warn(log, "用户DAU仅使用HyperLogLog统计，无法查询单个用户是否活跃: userId={}", offset);
+        return false;
+    }
+
+    @Override
+    public long[] count(List<LocalDate> dates) {
+        return hyperLogLogService.counts(metric(), dates);
+    }
+
+    /**
+     * @param dates 连续的日期，按时间顺序排列
+     */
+    @Override
+    public long unionCount(List<LocalDate> dates) {
+        Long count = hyperLogLogService.countRolling(metric(), dates.get(dates.size() - 1), dates.size());
+        return count != null ? count : 0L;
+    }
+
+    @Override
+    public long[] intersectCounts(List<LocalDate[]> pairs) {
+        throw new UnsupportedOperationException("HyperLogLog不支持计算交集");
+    }
+
+    @Override
+    public long memoryUsage(LocalDate date) {
+        throw new UnsupportedOperationException("HyperLogLog不支持统计内存使用");
+    }
+
+    private String metric() {
+        return dauProperties.getHll().getUserMetric();
+    }
+}
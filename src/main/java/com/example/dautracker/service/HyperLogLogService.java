@@ -0,0 +1,327 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * HyperLogLog近似去重统计服务
+ * 适用于UUID等稀疏、无法映射为Bitmap偏移量的字符串ID，每个指标每天一个Key，
+ * 通过 PFADD/PFCOUNT/PFMERGE 实现，标准误差约0.81%，单个Key最多12KB
+ @author lk
+ @create 2026/02/16-20:35
+ */
+@Slf4j
+@Service
+public class HyperLogLogService {
+
+    /**
+     * 指标名会拼进Key的hash tag，只允许字母、数字、下划线和中划线
+     */
+    private static final Pattern METRIC_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    /**
+     * 单条PFADD携带的ID数量上限，避免单个命令过大阻塞Redis
+     */
+    private static final int PFADD_CHUNK_SIZE = 1000;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private DAUProperties dauProperties;
+
+    @Autowired
+    private DAUKeyLayout keyLayout;
+
+    @Autowired
+    private KeyExpireTracker expireTracker;
+
+    @Autowired
+    private DAUDayClock dayClock;
+
+    @Autowired
+    private DAUActivityLog activityLog;
+
+    /**
+     * 指标名是否合法
+     * @param metric 指标名
+     * @return 合法返回true
+     */
+    public boolean isValidMetric(String metric) {
+        return metric != null && METRIC_PATTERN.matcher(metric).matches();
+    }
+
+    /**
+     * 去重统计的窗口天数是否有效，需在1到数据保留天数之间
+     * @param days 窗口天数
+     * @return 有效返回true
+     */
+    public boolean isValidWindow(int days) {
+        return days >= 1 && days <= dauProperties.getExpireDays();
+    }
+
+    /**
+     * 记录一个ID在指定日期活跃
+     * @param metric 指标名
+     * @param id 字符串ID
+     * @param date 日期，为null时使用当前日期
+     * @return 是否记录成功
+     */
+    public boolean record(String metric, String id, LocalDate date) {
+        if (id == null || id.isEmpty()) {
+            activityLog.warn(log, "无效的ID: metric={}, id={}", metric, id);
+            return false;
+        }
+
+        List<String> ids = new ArrayList<>(1);
+        ids.add(id);
+        return batchRecord(metric, ids, date) == 1;
+    }
+
+    /**
+     * 批量记录ID活跃，所有PFADD和EXPIRE在一次Pipeline中完成
+     * @param metric 指标名
+     * @param ids 字符串ID列表
+     * @param date 日期，为null时使用当前日期
+     * @return 成功记录的数量
+     */
+    public int batchRecord(String metric, List<String> ids, LocalDate date) {
+        if (ids == null || ids.isEmpty()) {
+            return 0;
+        }
+
+        if (date == null) {
+            date = dayClock.today();
+        }
+
+        List<byte[]> rawIds = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            if (id != null && !id.isEmpty()) {
+                rawIds.add(id.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        if (rawIds.isEmpty()) {
+            return 0;
+        }
+
+        String key = keyLayout.hllKey(metric, date);
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        boolean needExpire = !expireTracker.isExpireSet(date, key);
+        long expireSeconds = TimeUnit.DAYS.toSeconds(dauProperties.getExpireDays());
+
+        try {
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int from = 0; from < rawIds.size(); from += PFADD_CHUNK_SIZE) {
+                    List<byte[]> chunk = rawIds.subList(from, Math.min(from + PFADD_CHUNK_SIZE, rawIds.size()));
+                    connection.pfAdd(rawKey, chunk.toArray(new byte[0][]));
+                }
+                if (needExpire) {
+                    connection.expire(rawKey, expireSeconds);
+                }
+                return null;
+            });
+
+            if (needExpire) {
+                expireTracker.markExpireSet(date, key);
+            }
+
+            //PFADD返回1表示基数估计发生了变化，已结束日期的变化让覆盖它的合并结果失效
+            LocalDate today = dayClock.earliestToday();
+            if (date.isBefore(today) && results.contains(1L)) {
+                deleteMergedKeys(metric, date, today);
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("指标{}在{}批量记录{}个ID", metric, date, rawIds.size());
+            }
+            return rawIds.size();
+        } catch (Exception e) {
+            activityLog.error(log, "HyperLogLog批量记录失败: metric={}, date={}", metric, date, e);
+            return 0;
+        }
+    }
+
+    /**
+     * 获取指标在指定日期的去重数量
+     * @param metric 指标名
+     * @param date 日期，为null时使用当前日期
+     * @return 去重数量(近似值)
+     */
+    public Long count(String metric, LocalDate date) {
+        if (date == null) {
+            date = dayClock.today();
+        }
+
+        try {
+            Long count = stringRedisTemplate.opsForHyperLogLog().size(keyLayout.hllKey(metric, date));
+            return count != null ? count : 0L;
+        } catch (Exception e) {
+            activityLog.error(log, "获取HyperLogLog数量失败: metric={}, date={}", metric, date, e);
+            return 0L;
+        }
+    }
+
+    /**
+     * 获取指标在日期范围内每天的去重数量，所有PFCOUNT合并为一次Pipeline
+     * @param metric 指标名
+     * @param startDate 开始日期
+     * @param endDate 结束日期
+     * @return 日期->去重数量的映射
+     */
+    public Map<String, Long> countRange(String metric, LocalDate startDate, LocalDate endDate) {
+        Map<String, Long> result = new LinkedHashMap<>();
+
+        if (startDate == null || endDate == null) {
+            return result;
+        }
+
+        List<LocalDate> dates = new ArrayList<>();
+        for (LocalDate currentDate = startDate; !currentDate.isAfter(endDate); currentDate = currentDate.plusDays(1)) {
+            dates.add(currentDate);
+        }
+
+        long[] counts;
+        try {
+            counts = counts(metric, dates);
+        } catch (Exception e) {
+            activityLog.error(log, "获取HyperLogLog日期范围数量失败: metric={}, startDate={}, endDate={}", metric, startDate, endDate, e);
+            counts = new long[dates.size()];
+        }
+
+        DateTimeFormatter displayFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+        for (int i = 0; i < dates.size(); i++) {
+            result.put(dates.get(i).format(displayFormatter), counts[i]);
+        }
+        return result;
+    }
+
+    /**
+     * 获取指标在多个日期各自的去重数量，所有PFCOUNT合并为一次Pipeline，失败时直接抛出异常
+     * @param metric 指标名
+     * @param dates 日期列表
+     * @return 与dates顺序一致的去重数量
+     */
+    long[] counts(String metric, List<LocalDate> dates) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (LocalDate date : dates) {
+                connection.pfCount(keyLayout.hllKey(metric, date).getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+
+        long[] counts = new long[dates.size()];
+        for (int i = 0; i < dates.size(); i++) {
+            Object count = results.get(i);
+            counts[i] = count != null ? (Long) count : 0L;
+        }
+        return counts;
+    }
+
+    /**
+     * 获取截止到指定日期的N天内去重数量
+     * 之前已结束日期的合并结果通过PFMERGE缓存，每次请求只需再与最后一天做一次多Key的PFCOUNT
+     * @param metric 指标名
+     * @param endDate 截止日期(包含)，为null时使用当前日期
+     * @param days 窗口天数
+     * @return 去重数量(近似值)
+     */
+    public Long countRolling(String metric, LocalDate endDate, int days) {
+        if (!isValidWindow(days)) {
+            activityLog.warn(log, "统计窗口{}天超出范围，需在1到数据保留天数{}之间", days, dauProperties.getExpireDays());
+            return 0L;
+        }
+
+        if (endDate == null) {
+            endDate = dayClock.today();
+        }
+
+        LocalDate startDate = endDate.minusDays(days - 1);
+        try {
+            LocalDate today = dayClock.earliestToday();
+            String lastDayKey = keyLayout.hllKey(metric, endDate);
+            Long count;
+            if (days == 1) {
+                count = stringRedisTemplate.opsForHyperLogLog().size(lastDayKey);
+            } else if (endDate.isBefore(today)) {
+                //整个窗口都已结束，直接缓存整个窗口的合并结果
+                count = stringRedisTemplate.opsForHyperLogLog().size(mergedKey(metric, startDate, endDate));
+            } else if (endDate.equals(today)) {
+                String prefixKey = mergedKey(metric, startDate, endDate.minusDays(1));
+                count = stringRedisTemplate.opsForHyperLogLog().size(prefixKey, lastDayKey);
+            } else {
+                //窗口包含未来日期，不做缓存
+                List<String> keys = new ArrayList<>(days);
+                for (LocalDate currentDate = startDate; !currentDate.isAfter(endDate); currentDate = currentDate.plusDays(1)) {
+                    keys.add(keyLayout.hllKey(metric, currentDate));
+                }
+                count = stringRedisTemplate.opsForHyperLogLog().size(keys.toArray(new String[0]));
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("指标{}在{}到{}的去重数量: {}", metric, startDate, endDate, count);
+            }
+            return count != null ? count : 0L;
+        } catch (Exception e) {
+            activityLog.error(log, "获取HyperLogLog去重数量失败: metric={}, endDate={}, days={}", metric, endDate, days, e);
+            return 0L;
+        }
+    }
+
+    /**
+     * 删除覆盖该日期的合并Key，它们按 union.closed-ttl 缓存
+     * 只有结束日期早于当天的区间才会缓存，区间最长为数据保留天数；同一指标的Key使用相同的hash tag，一次DEL即可
+     * @param metric 指标名
+     * @param date 补录的日期
+     * @param today 所有时区中最早的当天
+     */
+    private void deleteMergedKeys(String metric, LocalDate date, LocalDate today) {
+        int maxDays = dauProperties.getExpireDays();
+        List<String> keys = new ArrayList<>();
+        for (LocalDate end = date; end.isBefore(today) && end.isBefore(date.plusDays(maxDays)); end = end.plusDays(1)) {
+            for (LocalDate start = end.minusDays(maxDays - 1); !start.isAfter(date); start = start.plusDays(1)) {
+                keys.add(keyLayout.hllUnionKey(metric, start, end));
+            }
+        }
+
+        try {
+            stringRedisTemplate.delete(keys);
+        } catch (Exception e) {
+            activityLog.error(log, "清除HyperLogLog合并结果失败: metric={}, date={}", metric, date, e);
+        }
+    }
+
+    /**
+     * 获取已结束日期区间的合并Key，不存在时通过PFMERGE生成并设置缓存时间
+     * @return 合并结果Key
+     */
+    private String mergedKey(String metric, LocalDate startDate, LocalDate endDate) {
+        String unionKey = keyLayout.hllUnionKey(metric, startDate, endDate);
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(unionKey))) {
+            return unionKey;
+        }
+
+        List<String> sourceKeys = new ArrayList<>();
+        for (LocalDate currentDate = startDate; !currentDate.isAfter(endDate); currentDate = currentDate.plusDays(1)) {
+            sourceKeys.add(keyLayout.hllKey(metric, currentDate));
+        }
+
+        long closedTtl = dauProperties.getUnion().getClosedTtl().getSeconds();
+        stringRedisTemplate.opsForHyperLogLog().union(unionKey, sourceKeys.toArray(new String[0]));
+        stringRedisTemplate.expire(unionKey, closedTtl, TimeUnit.SECONDS);
+        return unionKey;
+    }
+}
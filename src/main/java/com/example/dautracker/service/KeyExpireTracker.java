@@ -0,0 +1,47 @@
+package com.example.dautracker.service;
+
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 记录本进程内已设置过期时间的Key
+ * 每个Key每天只需要在第一次写入时设置一次过期时间，之后的写入可以省掉EXPIRE命令
+ @author lk
+ @create 2026/02/12-21:46
+ */
+@Component
+public class KeyExpireTracker {
+
+    private final Map<LocalDate, Set<String>> expiredKeys = new ConcurrentHashMap<>();
+
+    /**
+     * Key是否已在本进程内设置过过期时间
+     * @param date Key所属日期
+     * @param key Redis Key
+     * @return 已设置返回true
+     */
+    public boolean isExpireSet(LocalDate date, String key) {
+        Set<String> keys = expiredKeys.get(date);
+        return keys != null && keys.contains(key);
+    }
+
+    /**
+     * 标记Key已设置过期时间，应在EXPIRE成功之后调用
+     * @param date Key所属日期
+     * @param key Redis Key
+     */
+    public void markExpireSet(LocalDate date, String key) {
+        Set<String> keys = expiredKeys.get(date);
+        if (keys == null) {
+            //出现新的日期时清理昨天之前的记录，之后若再写入这些日期最多多执行一次EXPIRE
+            LocalDate yesterday = LocalDate.now().minusDays(1);
+            expiredKeys.keySet().removeIf(d -> d.isBefore(yesterday) && !d.equals(date));
+            keys = expiredKeys.computeIfAbsent(date, d -> ConcurrentHashMap.newKeySet());
+        }
+        keys.add(key);
+    }
+}
@@ -0,0 +1,385 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 内存映射文件存储引擎
+ * 每天一个Bitmap文件，按固定大小分段映射为 MappedByteBuffer，置位和查询直接读写映射内存，不产生堆上对象；
+ * 位序与Redis Bitmap一致(字节内高位在前)，文件内容可以直接作为 dau:yyyyMMdd 的值写入Redis。
+ * 数据由操作系统页缓存负责落盘，应用关闭时会主动刷盘
+ @author lk
+ @create 2026/02/18-20:22
+ */
+@Slf4j
+@Component
+public class MmapDAUStore implements DAUStore, InitializingBean, DisposableBean {
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final String FILE_SUFFIX = ".bitmap";
+
+    @Autowired
+    private DAUProperties dauProperties;
+
+    /**
+     * 日期 -> 已打开的文件，写入时以DayFile为锁
+     */
+    private final Map<LocalDate, DayFile> days = new ConcurrentHashMap<>();
+
+    /**
+     * 单日Bitmap文件，segments中未写入过的段为null
+     */
+    private static class DayFile {
+        private final FileChannel channel;
+        private final MappedByteBuffer[] segments;
+        private volatile long cardinality;
+
+        private DayFile(FileChannel channel, int segmentCount) {
+            this.channel = channel;
+            this.segments = new MappedByteBuffer[segmentCount];
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (dauProperties.getStore().getType() != DAUProperties.StoreType.MMAP) {
+            return;
+        }
+
+        //加载文件时按long统计置位数，段大小必须是8的正整数倍
+        int segmentSize = dauProperties.getStore().getMmap().getSegmentSize();
+        if (segmentSize <= 0 || segmentSize % Long.BYTES != 0) {
+            throw new IllegalStateException("dau.store.mmap.segment-size必须是8的正整数倍: " + segmentSize);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        for (DayFile day : days.values()) {
+            close(day);
+        }
+        days.clear();
+    }
+
+    @Override
+    public boolean isValidOffset(long offset) {
+        return offset >= 0 && offset < dauProperties.getStore().getMmap().getMaxOffset();
+    }
+
+    @Override
+    public boolean setActive(LocalDate date, long offset) {
+        checkOffset(offset);
+        DayFile day = openDay(date);
+        synchronized (day) {
+            return setBit(day, offset);
+        }
+    }
+
+    @Override
+    public int setActive(LocalDate date, long[] offsets, int length) {
+        for (int i = 0; i < length; i++) {
+            checkOffset(offsets[i]);
+        }
+
+        DayFile day = openDay(date);
+        int newlyActive = 0;
+        synchronized (day) {
+            for (int i = 0; i < length; i++) {
+                if (!setBit(day, offsets[i])) {
+                    newlyActive++;
+                }
+            }
+        }
+        return newlyActive;
+    }
+
+    @Override
+    public boolean isActive(LocalDate date, long offset) {
+        DayFile day = existingDay(date);
+        if (day == null || !isValidOffset(offset)) {
+            return false;
+        }
+
+        synchronized (day) {
+            MappedByteBuffer segment = day.segments[segmentIndex(offset)];
+            return segment != null && (segment.get(byteInSegment(offset)) & bitMask(offset)) != 0;
+        }
+    }
+
+    @Override
+    public long[] count(List<LocalDate> dates) {
+        long[] counts = new long[dates.size()];
+        for (int i = 0; i < dates.size(); i++) {
+            DayFile day = existingDay(dates.get(i));
+            counts[i] = day != null ? day.cardinality : 0L;
+        }
+        return counts;
+    }
+
+    @Override
+    public long unionCount(List<LocalDate> dates) {
+        MappedByteBuffer[][] files = new MappedByteBuffer[dates.size()][];
+        for (int i = 0; i < dates.size(); i++) {
+            files[i] = segments(existingDay(dates.get(i)));
+        }
+
+        int segmentSize = dauProperties.getStore().getMmap().getSegmentSize();
+        long count = 0L;
+        for (int s = 0; s < segmentCount(); s++) {
+            boolean written = false;
+            for (MappedByteBuffer[] segments : files) {
+                written |= segments != null && segments[s] != null;
+            }
+            if (!written) {
+                continue;
+            }
+            //按8字节逐段做OR后统计，所有日期的同一段一起扫描
+            for (int position = 0; position < segmentSize; position += Long.BYTES) {
+                long word = 0L;
+                for (MappedByteBuffer[] segments : files) {
+                    if (segments != null && segments[s] != null) {
+                        word |= segments[s].getLong(position);
+                    }
+                }
+                count += Long.bitCount(word);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public long[] intersectCounts(List<LocalDate[]> pairs) {
+        long[] counts = new long[pairs.size()];
+        for (int i = 0; i < pairs.size(); i++) {
+            MappedByteBuffer[] first = segments(existingDay(pairs.get(i)[0]));
+            MappedByteBuffer[] second = segments(existingDay(pairs.get(i)[1]));
+            if (first == null || second == null) {
+                continue;
+            }
+            for (int s = 0; s < segmentCount(); s++) {
+                MappedByteBuffer a = first[s];
+                MappedByteBuffer b = second[s];
+                if (a == null || b == null) {
+                    continue;
+                }
+                for (int position = 0; position < a.capacity(); position += Long.BYTES) {
+                    counts[i] += Long.bitCount(a.getLong(position) & b.getLong(position));
+                }
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public long memoryUsage(LocalDate date) {
+        DayFile day = existingDay(date);
+        if (day == null) {
+            return 0L;
+        }
+
+        long bytes = 0L;
+        for (MappedByteBuffer segment : segments(day)) {
+            bytes += segment != null ? segment.capacity() : 0L;
+        }
+        return bytes;
+    }
+
+    /**
+     * 置位并维护当天的活跃数量，调用方需持有day的锁
+     * @return 该位原来是否已置位
+     */
+    private boolean setBit(DayFile day, long offset) {
+        int s = segmentIndex(offset);
+        MappedByteBuffer segment = day.segments[s];
+        if (segment == null) {
+            segment = mapSegment(day, s);
+        }
+
+        int index = byteInSegment(offset);
+        byte current = segment.get(index);
+        byte mask = bitMask(offset);
+        if ((current & mask) != 0) {
+            return true;
+        }
+        segment.put(index, (byte) (current | mask));
+        day.cardinality++;
+        return false;
+    }
+
+    private MappedByteBuffer mapSegment(DayFile day, int s) {
+        int segmentSize = dauProperties.getStore().getMmap().getSegmentSize();
+        try {
+            //READ_WRITE模式映射超出文件长度的区域时会自动扩展文件，未写入的部分为稀疏空洞
+            MappedByteBuffer segment = day.channel.map(FileChannel.MapMode.READ_WRITE, (long) s * segmentSize, segmentSize);
+            day.segments[s] = segment;
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("映射Bitmap文件失败: segment=" + s, e);
+        }
+    }
+
+    /**
+     * 获取已存在的日期文件，文件不存在时返回null而不是创建空文件
+     * 超过保留天数的日期直接返回null，不会因打开时的过期清理删除文件后又重新创建一个空文件
+     */
+    private DayFile existingDay(LocalDate date) {
+        DayFile day = days.get(date);
+        if (day != null || date.isBefore(oldestDay()) || !Files.exists(dayFile(date))) {
+            return day;
+        }
+        return openDay(date);
+    }
+
+    /**
+     * 在锁内复制当前已映射的段，之后扫描时不阻塞写入
+     */
+    private static MappedByteBuffer[] segments(DayFile day) {
+        if (day == null) {
+            return null;
+        }
+        synchronized (day) {
+            return day.segments.clone();
+        }
+    }
+
+    private DayFile openDay(LocalDate date) {
+        DayFile day = days.get(date);
+        if (day != null) {
+            return day;
+        }
+        //出现新日期时顺带清理超过保留天数的文件
+        removeExpiredDays();
+        return days.computeIfAbsent(date, this::loadDay);
+    }
+
+    /**
+     * 打开日期文件，映射已有的段并统计活跃数量
+     */
+    private DayFile loadDay(LocalDate date) {
+        DAUProperties.Mmap config = dauProperties.getStore().getMmap();
+        Path file = dayFile(date);
+        try {
+            Files.createDirectories(file.getParent());
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            DayFile day = new DayFile(channel, segmentCount());
+
+            long size = channel.size();
+            long cardinality = 0L;
+            for (int s = 0; s < day.segments.length && (long) s * config.getSegmentSize() < size; s++) {
+                MappedByteBuffer segment = mapSegment(day, s);
+                for (int position = 0; position < segment.capacity(); position += Long.BYTES) {
+                    cardinality += Long.bitCount(segment.getLong(position));
+                }
+            }
+            day.cardinality = cardinality;
+
+            log.info("已打开日期{}的Bitmap文件: {}, 活跃数={}", date, file, cardinality);
+            return day;
+        } catch (IOException e) {
+            throw new UncheckedIOException("打开Bitmap文件失败: " + file, e);
+        }
+    }
+
+    /**
+     * 保留天数内最早的日期
+     */
+    private LocalDate oldestDay() {
+        return LocalDate.now().minusDays(dauProperties.getExpireDays() - 1);
+    }
+
+    private void removeExpiredDays() {
+        LocalDate oldest = oldestDay();
+        days.entrySet().removeIf(entry -> {
+            if (entry.getKey().isBefore(oldest)) {
+                close(entry.getValue());
+                return true;
+            }
+            return false;
+        });
+
+        Path dir = Paths.get(dauProperties.getStore().getMmap().getDataDir());
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    LocalDate date = LocalDate.parse(name.substring(0, name.length() - FILE_SUFFIX.length()), DATE_FORMATTER);
+                    if (date.isBefore(oldest)) {
+                        Files.deleteIfExists(file);
+                        log.info("已删除过期的Bitmap文件: {}", file);
+                    }
+                } catch (DateTimeParseException ignored) {
+                    //不是本引擎生成的文件
+                }
+            }
+        } catch (IOException e) {
+            log.warn("清理过期的Bitmap文件失败: {}", dir, e);
+        }
+    }
+
+    private void close(DayFile day) {
+        synchronized (day) {
+            for (MappedByteBuffer segment : day.segments) {
+                if (segment != null) {
+                    segment.force();
+                }
+            }
+        }
+        try {
+            day.channel.close();
+        } catch (IOException e) {
+            log.warn("关闭Bitmap文件失败", e);
+        }
+    }
+
+    private void checkOffset(long offset) {
+        if (!isValidOffset(offset)) {
+            throw new IllegalArgumentException("偏移量超出上限: " + offset);
+        }
+    }
+
+    private Path dayFile(LocalDate date) {
+        return Paths.get(dauProperties.getStore().getMmap().getDataDir(), date.format(DATE_FORMATTER) + FILE_SUFFIX);
+    }
+
+    private int segmentCount() {
+        DAUProperties.Mmap config = dauProperties.getStore().getMmap();
+        long bytes = (config.getMaxOffset() + 7) / 8;
+        return (int) ((bytes + config.getSegmentSize() - 1) / config.getSegmentSize());
+    }
+
+    private int segmentIndex(long offset) {
+        return (int) ((offset >>> 3) / dauProperties.getStore().getMmap().getSegmentSize());
+    }
+
+    private int byteInSegment(long offset) {
+        return (int) ((offset >>> 3) % dauProperties.getStore().getMmap().getSegmentSize());
+    }
+
+    private static byte bitMask(long offset) {
+        //与Redis一致，偏移量0对应第一个字节的最高位
+        return (byte) (0x80 >>> (offset & 7));
+    }
+}
@@ -0,0 +1,331 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * 非阻塞DAU服务类
+ * 通过 ReactiveStringRedisTemplate 访问Redis，请求线程不会阻塞在Lettuce上，大量并发的记录和查询复用少量共享连接；
+ * 开启ID映射、本地存储引擎或HyperLogLog统计时，以及写入超出数据保留期的日期时，改为在 boundedElastic 线程池上调用阻塞的 DAUService；
+ * 非阻塞路径与 DAUService 记录相同名称的 dau.operation、dau.redis 和 dau.failures 指标，阻塞路径由 DAUService 自己记录
+ @author lk
+ @create 2026/02/19-20:31
+ */
+@Slf4j
+@Service
+public class ReactiveDAUService {
+
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> RECORD_AND_COUNT_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/record_and_count.lua"), List.class);
+
+    /**
+     * 批量记录时同时在途的命令数，命令在共享连接上自动流水线发送
+     */
+    private static final int BATCH_CONCURRENCY = 256;
+
+    @Autowired
+    private ReactiveStringRedisTemplate reactiveRedisTemplate;
+
+    @Autowired
+    private DAUService dauService;
+
+    @Autowired
+    private RedisDAUStore redisStore;
+
+    @Autowired
+    private DAUProperties dauProperties;
+
+    @Autowired
+    private DAUKeyLayout keyLayout;
+
+    @Autowired
+    private KeyExpireTracker expireTracker;
+
+    @Autowired
+    private DAUDayClock dayClock;
+
+    @Autowired
+    private DAUMetrics metrics;
+
+    @Autowired
+    private DAUActivityLog activityLog;
+
+    /**
+     * 记录用户活跃状况
+     * @param userId 用户id
+     * @param date 日期，为null时使用当前日期
+     * @return 是否记录成功
+     */
+    public Mono<Boolean> recordUserActive(Long userId, LocalDate date) {
+        LocalDate day = date != null ? date : dayClock.today();
+        if (requiresBlockingPath() || day.isBefore(dayClock.oldestRetained())) {
+            return blocking(() -> dauService.recordUserActive(userId, day));
+        }
+
+        if (userId == null || userId <= 0) {
+            activityLog.warn(log, "无效的用户ID:{}", userId);
+            metrics.failure("record", "invalid_user_id");
+            return Mono.just(false);
+        }
+        if (!keyLayout.isValidOffset(userId)) {
+            activityLog.warn(log, "用户ID超出单个Bitmap的偏移量上限，请开启ID映射或分片:{}", userId);
+            metrics.failure("record", "offset_out_of_range");
+            return Mono.just(false);
+        }
+
+        long shard = keyLayout.shardOf(userId);
+        return metrics.operation("record", setActive(day, userId)
+                .flatMap(previous -> {
+                    metrics.bits(previous ? 0 : 1, previous ? 1 : 0);
+                    return initShardKey(day, shard)
+                            .then(previous ? Mono.empty() : invalidateClosedDayCount(day, Collections.singleton(shard)))
+                            .thenReturn(true);
+                })
+                .doOnSuccess(r -> log.debug("用户{}在{}的活跃度已记录", userId, day))
+                .onErrorResume(e -> {
+                    activityLog.error(log, "记录用户活跃状态失败: userId={}, date={}", userId, day, e);
+                    metrics.failure("record", e);
+                    return Mono.just(false);
+                }));
+    }
+
+    /**
+     * 批量记录用户活跃状态，所有SETBIT并发发出，由Lettuce在共享连接上流水线发送
+     * @param userIds 用户Id列表
+     * @param date 日期，为null时使用当前日期
+     * @return 成功记录的数量
+     */
+    public Mono<Integer> batchRecordUserActive(List<Long> userIds, LocalDate date) {
+        if (userIds == null || userIds.isEmpty()) {
+            return Mono.just(0);
+        }
+
+        LocalDate day = date != null ? date : dayClock.today();
+        if (requiresBlockingPath() || day.isBefore(dayClock.oldestRetained())) {
+            return blocking(() -> dauService.batchRecordUserActive(userIds.toArray(new Long[0]), day));
+        }
+
+        List<Long> validIds = new ArrayList<>(userIds.size());
+        Set<Long> shards = new LinkedHashSet<>();
+        for (Long userId : userIds) {
+            if (userId == null || userId <= 0) {
+                activityLog.warn(log, "批量记录跳过无效的用户ID:{}", userId);
+                metrics.failure("batch_record", "invalid_user_id");
+            } else if (!keyLayout.isValidOffset(userId)) {
+                activityLog.warn(log, "批量记录跳过超出偏移量上限的用户ID:{}", userId);
+                metrics.failure("batch_record", "offset_out_of_range");
+            } else {
+                validIds.add(userId);
+                shards.add(keyLayout.shardOf(userId));
+            }
+        }
+        if (validIds.isEmpty()) {
+            return Mono.just(0);
+        }
+        metrics.batchSize("batch_record", validIds.size());
+
+        //每个结果: [成功数, 新增活跃数]
+        return metrics.operation("batch_record", Flux.fromIterable(validIds)
+                .flatMap(userId -> setActive(day, userId)
+                        .map(previous -> new int[]{1, previous ? 0 : 1})
+                        .onErrorResume(e -> {
+                            activityLog.error(log, "批量记录中单个用户写入失败: userId={}, date={}", userId, day, e);
+                            metrics.failure("batch_record", e);
+                            return Mono.just(new int[]{0, 0});
+                        }), BATCH_CONCURRENCY)
+                .reduce(new int[2], (total, result) -> {
+                    total[0] += result[0];
+                    total[1] += result[1];
+                    return total;
+                })
+                .flatMap(total -> {
+                    metrics.bits(total[1], total[0] - total[1]);
+                    return Flux.fromIterable(shards)
+                            .flatMap(shard -> initShardKey(day, shard))
+                            .then(total[1] > 0 ? invalidateClosedDayCount(day, shards) : Mono.empty())
+                            .then(Mono.fromCallable(() -> {
+                                log.debug("批量记录完成: 成功={}, 新增活跃={}, 日期={}", total[0], total[1], day);
+                                return total[0];
+                            }));
+                })
+                .onErrorResume(e -> {
+                    activityLog.error(log, "批量记录用户活跃失败: 数量={}, 日期={}", validIds.size(), day, e);
+                    metrics.failure("batch_record", e);
+                    return Mono.just(0);
+                }));
+    }
+
+    /**
+     * 检查用户在指定日期是否活跃
+     * @param userId 用户ID
+     * @param date 日期，为null时使用当前日期
+     * @return 是否活跃
+     */
+    public Mono<Boolean> isUserActive(Long userId, LocalDate date) {
+        if (userId == null || userId <= 0) {
+            return Mono.just(false);
+        }
+
+        LocalDate day = date != null ? date : dayClock.today();
+        if (requiresBlockingPath()) {
+            return blocking(() -> dauService.isUserActive(userId, day));
+        }
+
+        if (!keyLayout.isValidOffset(userId)) {
+            return Mono.just(false);
+        }
+
+        String key = keyLayout.shardKey(day, keyLayout.shardOf(userId));
+        return metrics.operation("check", metrics.redis("getbit",
+                        reactiveRedisTemplate.opsForValue().getBit(key, keyLayout.offsetInShard(userId)))
+                .defaultIfEmpty(false)
+                .onErrorResume(e -> {
+                    activityLog.error(log, "查询用户是否活跃失败:userId={}, date={}", userId, day, e);
+                    metrics.failure("check", e);
+                    return Mono.just(false);
+                }));
+    }
+
+    /**
+     * 获取指定日期的DAU
+     * 已结束的日期由 DAUService 从DAU数量缓存中读取，当天的DAU直接读取计数Key或BITCOUNT
+     * @param date 日期，为null时使用当前日期
+     * @return DAU数量
+     */
+    public Mono<Long> getDauCount(LocalDate date) {
+        LocalDate day = date != null ? date : dayClock.today();
+        if (requiresBlockingPath() || day.isBefore(dayClock.earliestToday())) {
+            return blocking(() -> dauService.getDauCount(day));
+        }
+
+        Mono<Long> count = dauProperties.getCounter().isEnabled()
+                ? liveCount(day).switchIfEmpty(Mono.defer(() -> bitCount(day)))
+                : bitCount(day);
+        return metrics.operation("count", count
+                .doOnSuccess(c -> log.debug("日期{}的DAU: {}", day, c))
+                .onErrorResume(e -> {
+                    activityLog.error(log, "获取DAU失败:date={}", day, e);
+                    metrics.failure("count", e);
+                    return Mono.just(0L);
+                }));
+    }
+
+    /**
+     * 置位，开启计数时通过Lua脚本同时维护计数Key
+     * @return 该位原来是否已置位
+     */
+    private Mono<Boolean> setActive(LocalDate date, long offset) {
+        long shard = keyLayout.shardOf(offset);
+        String key = keyLayout.shardKey(date, shard);
+        if (!dauProperties.getCounter().isEnabled()) {
+            return metrics.redis("setbit", reactiveRedisTemplate.opsForValue().setBit(key, keyLayout.offsetInShard(offset), true));
+        }
+
+        List<String> keys = Arrays.asList(key, keyLayout.counterKey(date, shard));
+        return metrics.redis("record_and_count", reactiveRedisTemplate.execute(RECORD_AND_COUNT_SCRIPT, keys,
+                        Arrays.asList(Long.toString(keyLayout.offsetInShard(offset)), Long.toString(expireSeconds())))
+                .next())
+                .map(result -> ((Long) result.get(0)) == 1L);
+    }
+
+    /**
+     * 本进程第一次写入分片Key时设置过期时间，分片时同时登记到当天的分片索引中
+     */
+    private Mono<Void> initShardKey(LocalDate date, long shard) {
+        String key = keyLayout.shardKey(date, shard);
+        if (expireTracker.isExpireSet(date, key)) {
+            return Mono.empty();
+        }
+
+        Duration ttl = Duration.ofSeconds(expireSeconds());
+        Mono<Boolean> init = reactiveRedisTemplate.expire(key, ttl);
+        if (keyLayout.isSharded()) {
+            String indexKey = keyLayout.shardIndexKey(date);
+            init = init.then(reactiveRedisTemplate.opsForSet().add(indexKey, Long.toString(shard)))
+                    .then(reactiveRedisTemplate.expire(indexKey, ttl));
+        }
+        return metrics.redis("init_key", init).doOnSuccess(r -> expireTracker.markExpireSet(date, key)).then();
+    }
+
+    /**
+     * 当天出现过的分片号，未分片时固定为0
+     */
+    private Flux<Long> shards(LocalDate date) {
+        if (!keyLayout.isSharded()) {
+            return Flux.just(0L);
+        }
+        return metrics.redis("shard_index", reactiveRedisTemplate.opsForSet().members(keyLayout.shardIndexKey(date)).collectList())
+                .flatMapMany(Flux::fromIterable)
+                .map(Long::valueOf);
+    }
+
+    private Mono<Long> bitCount(LocalDate date) {
+        return shards(date)
+                .flatMap(shard -> metrics.redis("bitcount", reactiveRedisTemplate.execute(connection -> connection.stringCommands()
+                        .bitCount(ByteBuffer.wrap(keyLayout.rawShardKey(date, shard)))).next()))
+                .reduce(0L, Long::sum);
+    }
+
+    /**
+     * 汇总各分片的计数Key，有分片的计数Key不存在时返回空，由调用方退化为BITCOUNT
+     */
+    private Mono<Long> liveCount(LocalDate date) {
+        return shards(date)
+                .flatMap(shard -> metrics.redis("live_count", reactiveRedisTemplate.opsForValue().get(keyLayout.counterKey(date, shard)))
+                        .map(Long::valueOf)
+                        .defaultIfEmpty(-1L))
+                .collectList()
+                .flatMap(counts -> counts.contains(-1L)
+                        ? Mono.empty()
+                        : Mono.just(counts.stream().mapToLong(Long::longValue).sum()));
+    }
+
+    private Mono<Void> invalidateClosedDayCount(LocalDate date, Set<Long> shards) {
+        if (!date.isBefore(dayClock.earliestToday())) {
+            return Mono.empty();
+        }
+        return Mono.fromRunnable(() -> {
+                    redisStore.invalidateClosedDay(date, shards);
+                    dauService.invalidateClosedDay(date);
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .then();
+    }
+
+    /**
+     * ID映射、本地存储引擎和HyperLogLog统计只有阻塞实现
+     */
+    private boolean requiresBlockingPath() {
+        return dauProperties.getIdMapping().isEnabled()
+                || dauService.getStore() != redisStore
+                || dauProperties.getHll().getUserBackend() != DAUProperties.Backend.BITMAP;
+    }
+
+    private <T> Mono<T> blocking(Callable<T> call) {
+        return Mono.fromCallable(call).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private long expireSeconds() {
+        return Duration.ofDays(dauProperties.getExpireDays()).getSeconds();
+    }
+}
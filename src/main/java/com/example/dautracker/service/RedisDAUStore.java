@@ -0,0 +1,1064 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Redis Bitmap存储引擎，默认的实现，多个实例共享同一份数据
+ * 每天一个 dau:yyyyMMdd Bitmap，开启分片时按偏移量区间拆分为 dau:yyyyMMdd:{shard}；开启ID映射时传入的是用户ID，写入前换算为连续偏移量。
+ * 批量写入按分片合并为Pipeline，已结束日期的总数通过 DAUCountCache 缓存，WAU/MAU的并集和留存的交集都在Redis端计算；
+ * 已结束日期有新增活跃时，该日期缓存的总数和覆盖它的并集Key随之失效
+ @author lk
+ @create 2026/03/03-20:40
+ */
+@Slf4j
+@Component
+public class RedisDAUStore implements DAUStore {
+
+    private static final RedisScript<Long> ROLLING_UNION_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/rolling_union_count.lua"), Long.class);
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> RECORD_AND_COUNT_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/record_and_count.lua"), List.class);
+    private static final byte[] MEMORY_USAGE_SCRIPT = "return redis.call('MEMORY', 'USAGE', KEYS[1])".getBytes();
+
+    /**
+     * 开启计数时单次 setbits_and_count 脚本携带的偏移量数量上限，避免单个脚本执行过久阻塞Redis
+     */
+    private static final int SETBITS_CHUNK_SIZE = 1000;
+
+    /**
+     * 批量写入内部的失败(ID映射、分片异常)在指标中使用的操作名
+     */
+    private static final String WRITE_OPERATION = "store_write";
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private DAUProperties dauProperties;
+
+    @Autowired
+    private UserIdMapper userIdMapper;
+
+    @Autowired
+    private DAUKeyLayout keyLayout;
+
+    @Autowired
+    private KeyExpireTracker expireTracker;
+
+    @Autowired
+    private DAUCountCache countCache;
+
+    @Autowired
+    private Executor dauFanOutExecutor;
+
+    @Autowired
+    private DAUDayClock dayClock;
+
+    @Autowired
+    private DAUMetrics metrics;
+
+    @Autowired
+    private DAUActivityLog activityLog;
+
+    /**
+     * 批量写入和交集的脚本，Pipeline中只发送脚本的SHA1
+     */
+    private final EvalShaScript mergeRangeScript = new EvalShaScript("scripts/merge_bitmap_range.lua");
+
+    private final EvalShaScript setBitsAndCountScript = new EvalShaScript("scripts/setbits_and_count.lua");
+
+    private final EvalShaScript intersectScript = new EvalShaScript("scripts/intersect_count.lua");
+
+    /**
+     * 一个日期在一个分片内的写入，对应有序偏移量的 [from, to) 区间
+     */
+    private static class ShardWrite {
+        private final int dateIndex;
+        private final LocalDate date;
+        private final long shard;
+        private final long[] offsets;
+        private final int from;
+        private final int to;
+        private long successCount;
+        private long newlyActiveCount;
+        /**
+         * 写入失败、可以重试的偏移量，下标相对于from，没有失败时为null
+         */
+        private BitSet failed;
+
+        private ShardWrite(int dateIndex, LocalDate date, long shard, long[] offsets, int from, int to) {
+            this.dateIndex = dateIndex;
+            this.date = date;
+            this.shard = shard;
+            this.offsets = offsets;
+            this.from = from;
+            this.to = to;
+        }
+
+        private void markFailed(int fromIndex, int toIndex) {
+            if (failed == null) {
+                failed = new BitSet(to - from);
+            }
+            failed.set(fromIndex - from, toIndex - from);
+        }
+    }
+
+    /**
+     * 开启ID映射时偏移量在写入时才分配，只检查用户ID本身
+     */
+    @Override
+    public boolean isValidOffset(long userId) {
+        return userId >= 0 && (userIdMapper.isEnabled() || keyLayout.isValidOffset(userId));
+    }
+
+    @Override
+    public boolean setActive(LocalDate date, long userId) {
+        long offset = toOffset(userId);
+        long shard = keyLayout.shardOf(offset);
+        String key = keyLayout.shardKey(date, shard);
+        byte[] rawKey = keyLayout.rawShardKey(date, shard);
+
+        boolean previous;
+        if (dauProperties.getCounter().isEnabled()) {
+            //开启计数时由脚本同时维护计数Key
+            previous = recordWithCounter(date, shard, offset)[0] == 1L;
+        } else {
+            //使用SETBIT设置用户活跃标记
+            Boolean result = metrics.redis("setbit", () -> redisTemplate.execute((RedisCallback<Boolean>) connection -> {
+                return connection.setBit(rawKey, keyLayout.offsetInShard(offset), true);
+            }));
+            if (result == null) {
+                throw new IllegalStateException("SETBIT没有返回结果: key=" + key);
+            }
+            previous = result;
+        }
+
+        //只在本进程第一次写入该Key时设置过期时间
+        if (!expireTracker.isExpireSet(date, key)) {
+            initShardKey(date, shard);
+        }
+        if (!previous) {
+            invalidateClosedDay(date, Collections.singleton(shard));
+        }
+        return previous;
+    }
+
+    /**
+     * 写入前排序去重，有写入失败时抛出异常
+     */
+    @Override
+    public int setActive(LocalDate date, long[] userIds, int length) {
+        long[] ids = Arrays.copyOf(userIds, length);
+        int distinctCount = DAUService.sortDistinct(ids, length);
+        int[] failedCount = new int[1];
+        long newlyActive = setActive(new LocalDate[]{date}, new long[][]{ids}, new int[]{distinctCount}, id -> failedCount[0]++)[0];
+        if (failedCount[0] > 0) {
+            throw new IllegalStateException("批量写入失败: date=" + date + ", 失败数量=" + failedCount[0]);
+        }
+        return (int) newlyActive;
+    }
+
+    /**
+     * 所有日期按分片切分为连续区间，每个分片一个Pipeline，单个分片写入异常时只有该分片的用户ID报告为失败
+     */
+    @Override
+    public long[] setActive(LocalDate[] dates, long[][] userIds, int[] lengths, LongConsumer failed) {
+        long[][] offsets = new long[dates.length][];
+        int[] sizes = new int[dates.length];
+        List<ShardWrite> writes = new ArrayList<>();
+        for (int d = 0; d < dates.length; d++) {
+            if (lengths[d] == 0) {
+                continue;
+            }
+            offsets[d] = mapOffsets(userIds[d], lengths[d], dates[d]);
+            if (offsets[d] == null) {
+                metrics.failure(WRITE_OPERATION, "id_mapping");
+                reportRetryable(userIds[d], 0, lengths[d], failed);
+                continue;
+            }
+            sizes[d] = trimInvalidOffsets(offsets[d], lengths[d]);
+            if (sizes[d] < lengths[d]) {
+                metrics.failure(WRITE_OPERATION, "offset_out_of_range");
+            }
+            addShardWrites(d, dates[d], offsets[d], sizes[d], writes);
+        }
+
+        try {
+            writeShards(writes);
+        } catch (Exception e) {
+            activityLog.error(log, "批量写入失败: 写入数={}, 日期数={}", writes.size(), dates.length, e);
+            metrics.failure(WRITE_OPERATION, e);
+            markFailed(writes);
+        }
+
+        long[] newlyActive = new long[dates.length];
+        for (ShardWrite write : writes) {
+            newlyActive[write.dateIndex] += write.newlyActiveCount;
+        }
+        applyNewlyActive(writes);
+
+        for (int d = 0; d < dates.length; d++) {
+            if (offsets[d] != null) {
+                reportFailedWrites(d, userIds[d], lengths[d], offsets[d], sizes[d], writes, failed);
+            }
+        }
+        return newlyActive;
+    }
+
+    /**
+     * 开启计数时通过一次Lua脚本调用完成SETBIT、EXPIRE和计数
+     */
+    @Override
+    public long[] setActiveAndCount(LocalDate date, long userId) {
+        if (!dauProperties.getCounter().isEnabled()) {
+            return DAUStore.super.setActiveAndCount(date, userId);
+        }
+
+        long offset = toOffset(userId);
+        long shard = keyLayout.shardOf(offset);
+        long[] result = recordWithCounter(date, shard, offset);
+        if (!expireTracker.isExpireSet(date, keyLayout.shardKey(date, shard))) {
+            initShardKey(date, shard);
+        }
+        if (result[0] == 0L) {
+            invalidateClosedDay(date, Collections.singleton(shard));
+        }
+
+        //未分片时脚本返回的就是当天总数，分片时需要汇总各分片的计数
+        return new long[]{result[0], keyLayout.isSharded() ? getLiveCount(date) : result[1]};
+    }
+
+    @Override
+    public boolean isActive(LocalDate date, long userId) {
+        long offset;
+        if (userIdMapper.isEnabled()) {
+            //从未分配过偏移量的用户一定没有活跃记录
+            Long mapped = userIdMapper.getOffset(userId);
+            if (mapped == null) {
+                return false;
+            }
+            offset = mapped;
+        } else {
+            offset = userId;
+        }
+        if (!keyLayout.isValidOffset(offset)) {
+            return false;
+        }
+
+        byte[] rawKey = keyLayout.rawShardKey(date, keyLayout.shardOf(offset));
+        Boolean result = metrics.redis("getbit", () -> redisTemplate.execute((RedisCallback<Boolean>) connection -> {
+            return connection.getBit(rawKey, keyLayout.offsetInShard(offset));
+        }));
+        return result != null && result;
+    }
+
+    /**
+     * 开启计数时未结束的日期直接读取计数Key，其余日期通过 DAUCountCache 读取，未命中时BITCOUNT
+     */
+    @Override
+    public long[] count(List<LocalDate> dates) {
+        if (!dauProperties.getCounter().isEnabled()) {
+            return countCache.getCounts(dates, this::countDays);
+        }
+
+        LocalDate today = dayClock.earliestToday();
+        long[] counts = new long[dates.size()];
+        List<LocalDate> closedDates = new ArrayList<>(dates.size());
+        for (int i = 0; i < dates.size(); i++) {
+            if (dates.get(i).isBefore(today)) {
+                closedDates.add(dates.get(i));
+            } else {
+                counts[i] = getLiveCount(dates.get(i));
+            }
+        }
+        if (!closedDates.isEmpty()) {
+            long[] closedCounts = countCache.getCounts(closedDates, this::countDays);
+            for (int i = 0, c = 0; i < dates.size(); i++) {
+                if (dates.get(i).isBefore(today)) {
+                    counts[i] = closedCounts[c++];
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 之前日期的并集通过BITOP OR计算后缓存，每次请求只需与最后一天再做一次OR
+     * 包含当天的数据还在变化，只缓存 union.live-ttl；已结束的缓存 union.closed-ttl，补录时由 invalidateClosedDay 删除
+     * @param dates 连续的日期，按时间顺序排列
+     */
+    @Override
+    public long unionCount(List<LocalDate> dates) {
+        LocalDate startDate = dates.get(0);
+        LocalDate endDate = dates.get(dates.size() - 1);
+        if (ChronoUnit.DAYS.between(startDate, endDate) + 1 != dates.size()) {
+            throw new IllegalArgumentException("并集的日期必须连续: " + dates);
+        }
+
+        LocalDate today = dayClock.earliestToday();
+        long closedTtl = dauProperties.getUnion().getClosedTtl().getSeconds();
+        long liveTtl = dauProperties.getUnion().getLiveTtl().getSeconds();
+        String prefixTtl = Long.toString(endDate.minusDays(1).isBefore(today) ? closedTtl : liveTtl);
+        String resultTtl = Long.toString(endDate.isBefore(today) ? closedTtl : liveTtl);
+
+        //窗口内出现过的所有分片，每个分片独立求并集后相加
+        Set<Long> shards = new LinkedHashSet<>();
+        for (List<Long> dateShards : getShards(dates)) {
+            shards.addAll(dateShards);
+        }
+
+        List<Supplier<Long>> tasks = new ArrayList<>(shards.size());
+        for (Long shard : shards) {
+            List<String> keys = new ArrayList<>(dates.size() + 2);
+            keys.add(keyLayout.unionKey(startDate, endDate, shard));
+            keys.add(keyLayout.unionKey(startDate, endDate.minusDays(1), shard));
+            keys.add(keyLayout.shardKey(endDate, shard));
+            for (int i = 0; i < dates.size() - 1; i++) {
+                keys.add(keyLayout.shardKey(dates.get(i), shard));
+            }
+            tasks.add(() -> metrics.redis("rolling_union",
+                    () -> stringRedisTemplate.execute(ROLLING_UNION_SCRIPT, keys, prefixTtl, resultTtl)));
+        }
+
+        long count = 0L;
+        for (Long shardCount : fanOut(tasks)) {
+            count += shardCount != null ? shardCount : 0L;
+        }
+        return count;
+    }
+
+    /**
+     * 按第一个日期的分片分组，每个分片一个Pipeline，多个分片并行执行
+     * Redis重启或执行过SCRIPT FLUSH时重新加载交集脚本后重试一次
+     */
+    @Override
+    public long[] intersectCounts(List<LocalDate[]> pairs) {
+        List<LocalDate> firstDates = new ArrayList<>(pairs.size());
+        for (LocalDate[] pair : pairs) {
+            firstDates.add(pair[0]);
+        }
+        List<List<Long>> shardsByPair = getShards(firstDates);
+
+        Map<Long, List<Integer>> pairsByShard = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.size(); i++) {
+            for (Long shard : shardsByPair.get(i)) {
+                pairsByShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(i);
+            }
+        }
+
+        loadIntersectScript();
+        List<Supplier<List<Object>>> tasks = new ArrayList<>(pairsByShard.size());
+        for (Map.Entry<Long, List<Integer>> group : pairsByShard.entrySet()) {
+            long shard = group.getKey();
+            tasks.add(() -> {
+                try {
+                    return intersectPipeline(pairs, group.getValue(), shard);
+                } catch (RuntimeException e) {
+                    if (!EvalShaScript.isNoScript(e)) {
+                        throw e;
+                    }
+                    //Redis重启或执行过SCRIPT FLUSH，只读的交集计算重新加载后重试一次
+                    log.warn("Redis中没有交集脚本，重新加载后重试: shard={}", shard);
+                    intersectScript.markUnloaded();
+                    loadIntersectScript();
+                    return intersectPipeline(pairs, group.getValue(), shard);
+                }
+            });
+        }
+
+        long[] counts = new long[pairs.size()];
+        Iterator<List<Integer>> groups = pairsByShard.values().iterator();
+        for (List<Object> results : fanOut(tasks)) {
+            List<Integer> indexes = groups.next();
+            for (int i = 0; i < indexes.size(); i++) {
+                Object count = results.get(i);
+                counts[indexes.get(i)] += count != null ? (Long) count : 0L;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 分片时为各分片Key之和
+     */
+    @Override
+    public long memoryUsage(LocalDate date) {
+        long total = 0L;
+        for (Long shard : getShards(Collections.singletonList(date)).get(0)) {
+            byte[] rawKey = keyLayout.rawShardKey(date, shard);
+            //Lettuce不支持直接用execute执行返回整数的MEMORY USAGE，改为通过脚本调用
+            Long usage = metrics.redis("memory_usage", () -> redisTemplate.execute((RedisCallback<Long>) connection -> {
+                return connection.eval(MEMORY_USAGE_SCRIPT, ReturnType.INTEGER, 1, rawKey);
+            }));
+            total += usage != null ? usage : 0L;
+        }
+        return total;
+    }
+
+    /**
+     * 向已结束的日期补录数据后，该日期缓存的DAU总数和覆盖该日期的滚动窗口并集失效
+     * @param date 日期
+     * @param shards 有新增活跃的分片
+     */
+    void invalidateClosedDay(LocalDate date, Collection<Long> shards) {
+        LocalDate today = dayClock.earliestToday();
+        if (date.isBefore(today)) {
+            countCache.invalidate(date);
+            deleteClosedUnionKeys(date, shards, today);
+        }
+    }
+
+    /**
+     * 删除覆盖该日期、按 union.closed-ttl 缓存的并集Key
+     * 只有结束日期早于当天的窗口和前缀才会长时间缓存，窗口最长为数据保留天数，包含当天的Key只缓存 live-ttl 不需要处理
+     * @param date 补录的日期
+     * @param shards 有新增活跃的分片
+     * @param today 所有时区中最早的当天
+     */
+    private void deleteClosedUnionKeys(LocalDate date, Collection<Long> shards, LocalDate today) {
+        int maxDays = dauProperties.getExpireDays();
+        List<String> keys = new ArrayList<>();
+        for (LocalDate end = date; end.isBefore(today) && end.isBefore(date.plusDays(maxDays)); end = end.plusDays(1)) {
+            for (LocalDate start = end.minusDays(maxDays - 1); !start.isAfter(date); start = start.plusDays(1)) {
+                for (Long shard : shards) {
+                    keys.add(keyLayout.unionKey(start, end, shard));
+                }
+            }
+        }
+
+        try {
+            metrics.redis("union_invalidate", () -> stringRedisTemplate.delete(keys));
+        } catch (Exception e) {
+            activityLog.error(log, "清除滚动窗口并集缓存失败: date={}, shards={}", date, shards, e);
+            metrics.failure("union_invalidate", e);
+        }
+    }
+
+    /**
+     * 执行记录并计数的Lua脚本
+     * @return {该位原来的值, 分片当前计数}
+     */
+    private long[] recordWithCounter(LocalDate date, long shard, long offset) {
+        List<String> keys = Arrays.asList(keyLayout.shardKey(date, shard), keyLayout.counterKey(date, shard));
+        List<?> result = metrics.redis("record_and_count", () -> stringRedisTemplate.execute(RECORD_AND_COUNT_SCRIPT, keys,
+                Long.toString(keyLayout.offsetInShard(offset)),
+                Long.toString(TimeUnit.DAYS.toSeconds(dauProperties.getExpireDays()))));
+        if (result == null || result.size() < 2) {
+            throw new IllegalStateException("记录并计数脚本返回结果异常: " + result);
+        }
+        return new long[]{(Long) result.get(0), (Long) result.get(1)};
+    }
+
+    /**
+     * 开启ID映射时换算为偏移量
+     */
+    private long toOffset(long userId) {
+        long offset = userIdMapper.isEnabled() ? userIdMapper.getOrAssignOffset(userId) : userId;
+        if (!keyLayout.isValidOffset(offset)) {
+            throw new IllegalArgumentException("偏移量超出单个Bitmap的上限，请开启分片: userId=" + userId + ", offset=" + offset);
+        }
+        return offset;
+    }
+
+    /**
+     * 开启ID映射时把有序去重的用户ID映射为偏移量并重新排序，未开启时直接返回原数组
+     * @return 偏移量数组，分配失败时返回null
+     */
+    private long[] mapOffsets(long[] userIds, int length, LocalDate date) {
+        if (!userIdMapper.isEnabled()) {
+            return userIds;
+        }
+        try {
+            long[] offsets = userIdMapper.getOrAssignOffsets(userIds, length);
+            Arrays.sort(offsets);
+            return offsets;
+        } catch (Exception e) {
+            activityLog.error(log, "批量分配用户偏移量失败: 数量={}, 日期={}", length, date, e);
+            return null;
+        }
+    }
+
+    /**
+     * 偏移量已有序，超出上限的只会出现在末尾
+     * @return 去掉超出上限的偏移量后的数量
+     */
+    private int trimInvalidOffsets(long[] offsets, int length) {
+        int size = length;
+        while (size > 0 && !keyLayout.isValidOffset(offsets[size - 1])) {
+            activityLog.warn(log, "用户ID超出单个Bitmap的偏移量上限，请开启ID映射或分片: offset={}", offsets[size - 1]);
+            size--;
+        }
+        return size;
+    }
+
+    /**
+     * 报告一段写入失败的用户ID
+     */
+    private static void reportRetryable(long[] userIds, int from, int to, LongConsumer failed) {
+        if (failed == null) {
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            failed.accept(userIds[i]);
+        }
+    }
+
+    /**
+     * 把一个日期写入失败和超出上限的偏移量换算回用户ID后报告，开启ID映射时通过本地缓存重新查询偏移量
+     * @param dateIndex 日期下标
+     * @param userIds 有序去重的用户ID
+     * @param distinctCount 用户ID数量
+     * @param offsets 与写入对应的偏移量数组
+     * @param size 写入的偏移量数量，之后的超出了上限
+     * @param writes 写入列表
+     * @param failed 接收写入失败的用户ID
+     */
+    private void reportFailedWrites(int dateIndex, long[] userIds, int distinctCount, long[] offsets, int size,
+                                    List<ShardWrite> writes, LongConsumer failed) {
+        if (failed == null) {
+            return;
+        }
+        long[] failedOffsets = new long[distinctCount];
+        int failedCount = 0;
+        for (ShardWrite write : writes) {
+            if (write.dateIndex != dateIndex || write.failed == null) {
+                continue;
+            }
+            for (int i = write.failed.nextSetBit(0); i >= 0; i = write.failed.nextSetBit(i + 1)) {
+                failedOffsets[failedCount++] = write.offsets[write.from + i];
+            }
+        }
+        for (int i = size; i < distinctCount; i++) {
+            failedOffsets[failedCount++] = offsets[i];
+        }
+        if (failedCount == 0) {
+            return;
+        }
+        if (!userIdMapper.isEnabled()) {
+            //未开启ID映射时偏移量就是用户ID
+            for (int i = 0; i < failedCount; i++) {
+                failed.accept(failedOffsets[i]);
+            }
+            return;
+        }
+
+        Arrays.sort(failedOffsets, 0, failedCount);
+        try {
+            long[] mapped = userIdMapper.getOrAssignOffsets(userIds, distinctCount);
+            for (int i = 0; i < distinctCount; i++) {
+                if (Arrays.binarySearch(failedOffsets, 0, failedCount, mapped[i]) >= 0) {
+                    failed.accept(userIds[i]);
+                }
+            }
+        } catch (Exception e) {
+            //无法换算时整批重试，SETBIT是幂等的
+            reportRetryable(userIds, 0, distinctCount, failed);
+        }
+    }
+
+    /**
+     * 有序偏移量中同一分片的是连续的一段，每段生成一个写入
+     */
+    private void addShardWrites(int dateIndex, LocalDate date, long[] offsets, int size, List<ShardWrite> writes) {
+        int from = 0;
+        for (int i = 1; i <= size; i++) {
+            if (i == size || keyLayout.shardOf(offsets[i]) != keyLayout.shardOf(offsets[from])) {
+                writes.add(new ShardWrite(dateIndex, date, keyLayout.shardOf(offsets[from]), offsets, from, i));
+                from = i;
+            }
+        }
+    }
+
+    /**
+     * 每个分片一个Pipeline，同一分片不同日期的写入放在同一个Pipeline中，多个分片时并行写入
+     * 单个分片写入异常时只把该分片的偏移量标记为失败，其他分片的结果照常计入
+     * @param writes 写入列表
+     */
+    private void writeShards(List<ShardWrite> writes) {
+        Map<Long, List<ShardWrite>> shardGroups = new LinkedHashMap<>();
+        for (ShardWrite write : writes) {
+            shardGroups.computeIfAbsent(write.shard, s -> new ArrayList<>()).add(write);
+        }
+
+        List<Supplier<Void>> tasks = new ArrayList<>(shardGroups.size());
+        for (List<ShardWrite> group : shardGroups.values()) {
+            tasks.add(() -> {
+                try {
+                    writeShard(group);
+                } catch (Exception e) {
+                    int size = 0;
+                    for (ShardWrite write : group) {
+                        size += write.to - write.from;
+                    }
+                    activityLog.error(log, "分片写入失败: shard={}, 数量={}", group.get(0).shard, size, e);
+                    metrics.failure(WRITE_OPERATION, e);
+                    markFailed(group);
+                }
+                return null;
+            });
+        }
+        fanOut(tasks);
+    }
+
+    /**
+     * 把写入全部标记为失败，丢弃已统计的结果
+     */
+    private static void markFailed(List<ShardWrite> writes) {
+        for (ShardWrite write : writes) {
+            write.successCount = 0L;
+            write.newlyActiveCount = 0L;
+            write.markFailed(write.from, write.to);
+        }
+    }
+
+    /**
+     * 有新增活跃的已结束日期让缓存的DAU数量和并集失效，计数Key已在写入脚本中同步累加
+     */
+    private void applyNewlyActive(List<ShardWrite> writes) {
+        Map<LocalDate, Set<Long>> newlyActiveShards = new LinkedHashMap<>();
+        for (ShardWrite write : writes) {
+            if (write.newlyActiveCount > 0) {
+                newlyActiveShards.computeIfAbsent(write.date, d -> new LinkedHashSet<>()).add(write.shard);
+            }
+        }
+        for (Map.Entry<LocalDate, Set<Long>> entry : newlyActiveShards.entrySet()) {
+            invalidateClosedDay(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * 使用Pipeline在一次网络往返内把一个分片的全部写入发送出去：
+     * 密集的区间在本地拼成字节块后由脚本按位或合并，其余偏移量逐个SETBIT，
+     * 开启计数时稀疏的偏移量按块交给 setbits_and_count 脚本，计数Key与置位在同一个脚本内原子地累加，
+     * 本进程第一次写入某个Key时追加EXPIRE以及分片索引登记，结果回填到每个写入的成功数和新增活跃数
+     * @param writes 同一分片的写入，每个日期一个
+     */
+    private void writeShard(List<ShardWrite> writes) {
+        int count = writes.size();
+        boolean counterEnabled = dauProperties.getCounter().isEnabled();
+        byte[] expireSeconds = Long.toString(TimeUnit.DAYS.toSeconds(dauProperties.getExpireDays())).getBytes();
+        byte[][] rawKeys = new byte[count][];
+        byte[][] rawCounterKeys = new byte[count][];
+        boolean[] initKeys = new boolean[count];
+        //rangeBounds[w][r]为第w个写入第r个区间的起点，dense[w][r]表示该区间按字节块合并
+        int[][] rangeBounds = new int[count][];
+        boolean[][] dense = new boolean[count][];
+        int[] rangeCounts = new int[count];
+        boolean usesScripts = false;
+        for (int w = 0; w < count; w++) {
+            ShardWrite write = writes.get(w);
+            String key = keyLayout.shardKey(write.date, write.shard);
+            rawKeys[w] = keyLayout.rawShardKey(write.date, write.shard);
+            rawCounterKeys[w] = counterEnabled ? keyLayout.rawCounterKey(write.date, write.shard) : null;
+            initKeys[w] = !expireTracker.isExpireSet(write.date, key);
+            rangeBounds[w] = new int[write.to - write.from + 1];
+            dense[w] = new boolean[write.to - write.from];
+            rangeCounts[w] = planRanges(write.offsets, write.from, write.to, rangeBounds[w], dense[w]);
+            for (int r = 0; r < rangeCounts[w] && !usesScripts; r++) {
+                usesScripts = counterEnabled || dense[w][r];
+            }
+        }
+        if (usesScripts) {
+            loadWriteScripts();
+        }
+
+        List<Object> results;
+        boolean noScript = false;
+        try {
+            results = metrics.redis("write_shard", () -> redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int w = 0; w < count; w++) {
+                    ShardWrite write = writes.get(w);
+                    for (int r = 0; r < rangeCounts[w]; r++) {
+                        int from = rangeBounds[w][r];
+                        int to = rangeBounds[w][r + 1];
+                        if (dense[w][r]) {
+                            long firstByte = keyLayout.offsetInShard(write.offsets[from]) >>> 3;
+                            byte[] bytes = buildRange(write.offsets, from, to, firstByte);
+                            if (counterEnabled) {
+                                connection.evalSha(mergeRangeScript.getSha1(), ReturnType.INTEGER, 2, rawKeys[w], rawCounterKeys[w],
+                                        Long.toString(firstByte).getBytes(), bytes, expireSeconds);
+                            } else {
+                                connection.evalSha(mergeRangeScript.getSha1(), ReturnType.INTEGER, 1,
+                                        rawKeys[w], Long.toString(firstByte).getBytes(), bytes);
+                            }
+                        } else if (counterEnabled) {
+                            for (int chunk = from; chunk < to; chunk += SETBITS_CHUNK_SIZE) {
+                                int chunkEnd = Math.min(chunk + SETBITS_CHUNK_SIZE, to);
+                                byte[][] keysAndArgs = new byte[chunkEnd - chunk + 3][];
+                                keysAndArgs[0] = rawKeys[w];
+                                keysAndArgs[1] = rawCounterKeys[w];
+                                keysAndArgs[2] = expireSeconds;
+                                for (int i = chunk; i < chunkEnd; i++) {
+                                    keysAndArgs[i - chunk + 3] = Long.toString(keyLayout.offsetInShard(write.offsets[i])).getBytes();
+                                }
+                                connection.evalSha(setBitsAndCountScript.getSha1(), ReturnType.INTEGER, 2, keysAndArgs);
+                            }
+                        } else {
+                            for (int i = from; i < to; i++) {
+                                connection.setBit(rawKeys[w], keyLayout.offsetInShard(write.offsets[i]), true);
+                            }
+                        }
+                    }
+                    if (initKeys[w]) {
+                        appendInitCommands(connection, write.date, write.shard, rawKeys[w]);
+                    }
+                }
+                return null;
+            }));
+        } catch (RedisPipelineException e) {
+            //部分命令失败时，异常中仍携带每条命令的执行结果
+            results = e.getPipelineResult();
+            //EVALSHA找不到脚本时Lettuce可能不返回逐条结果，只能从异常本身判断
+            noScript = EvalShaScript.isNoScript(e);
+        }
+
+        //结果依次对应每个区间的一次脚本调用(新增置位数)、开启计数时每块偏移量的一次脚本调用(新增置位数)
+        //或每个偏移量的SETBIT(该位原来的状态)，之后是首次写入时追加的初始化命令
+        int index = 0;
+        for (int w = 0; w < count; w++) {
+            ShardWrite write = writes.get(w);
+            for (int r = 0; r < rangeCounts[w]; r++) {
+                int from = rangeBounds[w][r];
+                int to = rangeBounds[w][r + 1];
+                if (dense[w][r]) {
+                    Object result = index < results.size() ? results.get(index) : null;
+                    index++;
+                    if (result instanceof Long) {
+                        write.successCount += to - from;
+                        write.newlyActiveCount += (Long) result;
+                    } else {
+                        write.markFailed(from, to);
+                        noScript |= EvalShaScript.isNoScript(result);
+                        activityLog.error(log, "批量合并Bitmap区间失败: offset={}~{}, date={}, result={}",
+                                write.offsets[from], write.offsets[to - 1], write.date, result);
+                    }
+                    continue;
+                }
+                if (counterEnabled) {
+                    for (int chunk = from; chunk < to; chunk += SETBITS_CHUNK_SIZE) {
+                        int chunkEnd = Math.min(chunk + SETBITS_CHUNK_SIZE, to);
+                        Object result = index < results.size() ? results.get(index) : null;
+                        index++;
+                        if (result instanceof Long) {
+                            write.successCount += chunkEnd - chunk;
+                            write.newlyActiveCount += (Long) result;
+                        } else {
+                            write.markFailed(chunk, chunkEnd);
+                            noScript |= EvalShaScript.isNoScript(result);
+                            activityLog.error(log, "批量记录失败: offset={}~{}, date={}, result={}",
+                                    write.offsets[chunk], write.offsets[chunkEnd - 1], write.date, result);
+                        }
+                    }
+                    continue;
+                }
+                for (int i = from; i < to; i++) {
+                    Object result = index < results.size() ? results.get(index) : null;
+                    index++;
+                    if (result instanceof Boolean) {
+                        write.successCount++;
+                        if (!(Boolean) result) {
+                            write.newlyActiveCount++;
+                        }
+                    } else {
+                        write.markFailed(i, i + 1);
+                        activityLog.error(log, "批量记录失败: offset={}, date={}, result={}", write.offsets[i], write.date, result);
+                    }
+                }
+            }
+            if (initKeys[w]) {
+                if (index < results.size() && results.get(index) instanceof Boolean) {
+                    expireTracker.markExpireSet(write.date, keyLayout.shardKey(write.date, write.shard));
+                }
+                index += initCommandCount();
+            }
+        }
+        if (noScript) {
+            //Redis重启或执行过SCRIPT FLUSH，失败的偏移量已报告为可重试，下次写入前重新加载
+            mergeRangeScript.markUnloaded();
+            setBitsAndCountScript.markUnloaded();
+            activityLog.warn(log, "Redis中没有批量写入脚本，下次写入前重新加载");
+        }
+    }
+
+    /**
+     * 把批量写入的脚本加载到Redis的脚本缓存，之后Pipeline中通过EVALSHA调用，不再每次发送脚本正文
+     */
+    private void loadWriteScripts() {
+        if (mergeRangeScript.isLoaded() && setBitsAndCountScript.isLoaded()) {
+            return;
+        }
+        metrics.redis("script_load", () -> redisTemplate.execute((RedisCallback<Object>) connection -> {
+            mergeRangeScript.load(connection);
+            setBitsAndCountScript.load(connection);
+            return null;
+        }));
+    }
+
+    /**
+     * 把有序偏移量切分为不超过 max-range-bytes 的区间，并判断每个区间是否足够密集
+     * @return 区间数量
+     */
+    int planRanges(long[] offsets, int from, int to, int[] rangeBounds, boolean[] dense) {
+        DAUProperties.DenseWrite config = dauProperties.getDenseWrite();
+        if (!config.isEnabled() || to - from < config.getMinIdsPerRange()) {
+            rangeBounds[0] = from;
+            rangeBounds[1] = to;
+            dense[0] = false;
+            return 1;
+        }
+
+        int rangeCount = 0;
+        int start = from;
+        while (start < to) {
+            long firstByte = keyLayout.offsetInShard(offsets[start]) >>> 3;
+            int end = start + 1;
+            while (end < to && (keyLayout.offsetInShard(offsets[end]) >>> 3) - firstByte < config.getMaxRangeBytes()) {
+                end++;
+            }
+            long rangeBytes = (keyLayout.offsetInShard(offsets[end - 1]) >>> 3) - firstByte + 1;
+            int ids = end - start;
+            boolean isDense = ids >= config.getMinIdsPerRange() && rangeBytes <= (long) ids * config.getMaxBytesPerId();
+
+            //相邻的稀疏区间合并为一段SETBIT，只需延后上一段的终点
+            if (isDense || rangeCount == 0 || dense[rangeCount - 1]) {
+                rangeBounds[rangeCount] = start;
+                dense[rangeCount] = isDense;
+                rangeCount++;
+            }
+            start = end;
+        }
+        rangeBounds[rangeCount] = to;
+        return rangeCount;
+    }
+
+    /**
+     * 按Redis位序(字节内高位在前)把区间内的偏移量拼成字节块
+     */
+    byte[] buildRange(long[] offsets, int from, int to, long firstByte) {
+        long lastByte = keyLayout.offsetInShard(offsets[to - 1]) >>> 3;
+        byte[] bytes = new byte[(int) (lastByte - firstByte + 1)];
+        for (int i = from; i < to; i++) {
+            long offset = keyLayout.offsetInShard(offsets[i]);
+            bytes[(int) ((offset >>> 3) - firstByte)] |= (byte) (0x80 >>> (offset & 7));
+        }
+        return bytes;
+    }
+
+    /**
+     * 统计多个日期的DAU
+     * 按分片分组，每个分片一个Pipeline包含该分片在所有日期上的BITCOUNT，多个分片并行执行
+     * @param dates 日期列表
+     * @return 与dates顺序一致的DAU数量
+     */
+    private long[] countDays(List<LocalDate> dates) {
+        List<List<Long>> shardsByDate = getShards(dates);
+
+        Map<Long, List<Integer>> datesByShard = new LinkedHashMap<>();
+        for (int i = 0; i < dates.size(); i++) {
+            for (Long shard : shardsByDate.get(i)) {
+                datesByShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(i);
+            }
+        }
+
+        List<Supplier<List<Object>>> tasks = new ArrayList<>(datesByShard.size());
+        for (Map.Entry<Long, List<Integer>> group : datesByShard.entrySet()) {
+            tasks.add(() -> metrics.redis("bitcount", () -> redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Integer index : group.getValue()) {
+                    connection.bitCount(keyLayout.rawShardKey(dates.get(index), group.getKey()));
+                }
+                return null;
+            })));
+        }
+
+        long[] counts = new long[dates.size()];
+        Iterator<List<Integer>> groups = datesByShard.values().iterator();
+        for (List<Object> results : fanOut(tasks)) {
+            List<Integer> indexes = groups.next();
+            for (int i = 0; i < indexes.size(); i++) {
+                Object count = results.get(i);
+                counts[indexes.get(i)] += count != null ? (Long) count : 0L;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 获取多个日期有数据的分片，分片时通过一次Pipeline读取各日期的分片索引
+     * @param dates 日期列表
+     * @return 与dates顺序一致的分片号列表，未分片时每个日期只有0
+     */
+    @SuppressWarnings("unchecked")
+    List<List<Long>> getShards(List<LocalDate> dates) {
+        List<List<Long>> shardsByDate = new ArrayList<>(dates.size());
+        if (!keyLayout.isSharded()) {
+            for (int i = 0; i < dates.size(); i++) {
+                shardsByDate.add(Collections.singletonList(0L));
+            }
+            return shardsByDate;
+        }
+
+        List<Object> results = metrics.redis("shard_index", () -> redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (LocalDate date : dates) {
+                connection.sMembers(keyLayout.rawShardIndexKey(date));
+            }
+            return null;
+        }, RedisSerializer.string()));
+
+        for (Object members : results) {
+            List<Long> shards = new ArrayList<>();
+            if (members != null) {
+                for (String member : (Set<String>) members) {
+                    shards.add(Long.parseLong(member));
+                }
+            }
+            shardsByDate.add(shards);
+        }
+        return shardsByDate;
+    }
+
+    /**
+     * 本进程第一次写入分片Key时设置过期时间，分片时同时把分片号登记到当天的分片索引中
+     * @param date 日期
+     * @param shard 分片号
+     */
+    private void initShardKey(LocalDate date, long shard) {
+        String key = keyLayout.shardKey(date, shard);
+        metrics.redis("init_key", () -> redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            appendInitCommands(connection, date, shard, keyLayout.rawShardKey(date, shard));
+            return null;
+        }));
+        expireTracker.markExpireSet(date, key);
+    }
+
+    private void appendInitCommands(RedisConnection connection, LocalDate date, long shard, byte[] rawKey) {
+        long expireSeconds = TimeUnit.DAYS.toSeconds(dauProperties.getExpireDays());
+        connection.expire(rawKey, expireSeconds);
+        if (keyLayout.isSharded()) {
+            byte[] rawIndexKey = keyLayout.rawShardIndexKey(date);
+            connection.sAdd(rawIndexKey, Long.toString(shard).getBytes());
+            connection.expire(rawIndexKey, expireSeconds);
+        }
+    }
+
+    /**
+     * appendInitCommands 追加的命令数
+     */
+    private int initCommandCount() {
+        return keyLayout.isSharded() ? 3 : 1;
+    }
+
+    /**
+     * 读取计数Key得到实时DAU，分片时通过一次Pipeline读取各分片的计数
+     * 计数Key不存在(如刚开启计数功能)时退化为BITCOUNT
+     * @param date 日期
+     * @return DAU数量
+     */
+    private long getLiveCount(LocalDate date) {
+        List<Long> shards = getShards(Collections.singletonList(date)).get(0);
+        List<Object> counters = metrics.redis("live_count", () -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long shard : shards) {
+                connection.get(keyLayout.rawCounterKey(date, shard));
+            }
+            return null;
+        }));
+
+        long count = 0L;
+        for (Object counter : counters) {
+            if (counter == null) {
+                return countDays(Collections.singletonList(date))[0];
+            }
+            count += Long.parseLong((String) counter);
+        }
+        return count;
+    }
+
+    /**
+     * 在一个Pipeline中通过EVALSHA计算同一分片上的多组交集
+     */
+    private List<Object> intersectPipeline(List<LocalDate[]> pairs, List<Integer> indexes, long shard) {
+        return stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Integer index : indexes) {
+                LocalDate[] pair = pairs.get(index);
+                connection.evalSha(intersectScript.getSha1(), ReturnType.INTEGER, 3,
+                        keyLayout.rawIntersectKey(pair[0], pair[1], shard),
+                        keyLayout.rawShardKey(pair[0], shard),
+                        keyLayout.rawShardKey(pair[1], shard));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 把交集脚本加载到Redis的脚本缓存，之后Pipeline中只发送脚本的SHA1
+     */
+    private void loadIntersectScript() {
+        if (intersectScript.isLoaded()) {
+            return;
+        }
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            intersectScript.load(connection);
+            return null;
+        });
+    }
+
+    /**
+     * 执行一组相互独立的Redis操作，多于一个时提交到线程池并行执行
+     * @param tasks 任务列表
+     * @return 与任务顺序一致的结果
+     */
+    <T> List<T> fanOut(List<Supplier<T>> tasks) {
+        if (tasks.size() <= 1) {
+            List<T> results = new ArrayList<>(1);
+            for (Supplier<T> task : tasks) {
+                results.add(task.get());
+            }
+            return results;
+        }
+
+        List<CompletableFuture<T>> futures = new ArrayList<>(tasks.size());
+        for (Supplier<T> task : tasks) {
+            futures.add(CompletableFuture.supplyAsync(task, dauFanOutExecutor));
+        }
+
+        List<T> results = new ArrayList<>(tasks.size());
+        for (CompletableFuture<T> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+
+/**
+ * 已结束日期的留存人数缓存
+ * 同期群日期和目标日期都已结束时交集人数通常不再变化，但补录、批量导入或写缓冲延迟刷新仍可能写入这些日期，
+ * 写入时通过 invalidate 清除涉及该日期的结果；其他实例的补录无法感知，由 closed-ttl 限制最长的过期时间
+ @author lk
+ @create 2026/03/02-20:40
+ */
+@Component
+public class RetentionCache implements InitializingBean {
+
+    @Autowired
+    private DAUProperties dauProperties;
+
+    /**
+     * 同期群日期:留存天数 -> 留存人数
+     */
+    private Cache<String, Long> retainedCache;
+
+    @Override
+    public void afterPropertiesSet() {
+        DAUProperties.Retention config = dauProperties.getRetention();
+        retainedCache = Caffeine.newBuilder()
+                .maximumSize(config.getCacheSize())
+                .expireAfterWrite(config.getClosedTtl())
+                .build();
+    }
+
+    /**
+     * 获取缓存的留存人数
+     * @param cohort 同期群日期
+     * @param days 留存天数
+     * @return 留存人数，未缓存时返回null
+     */
+    public Long get(LocalDate cohort, int days) {
+        return retainedCache.getIfPresent(cacheKey(cohort, days));
+    }
+
+    /**
+     * 缓存留存人数，只应在同期群日期和目标日期都已结束时调用
+     * @param cohort 同期群日期
+     * @param days 留存天数
+     * @param retained 留存人数
+     */
+    public void put(LocalDate cohort, int days, long retained) {
+        retainedCache.put(cacheKey(cohort, days), retained);
+    }
+
+    /**
+     * 已结束日期有新的活跃写入时，清除以该日期为同期群或目标日期的留存结果
+     * @param date 日期
+     */
+    public void invalidate(LocalDate date) {
+        if (retainedCache.estimatedSize() == 0) {
+            return;
+        }
+        retainedCache.asMap().keySet().removeIf(key -> {
+            int separator = key.lastIndexOf(':');
+            LocalDate cohort = LocalDate.parse(key.substring(0, separator));
+            return cohort.equals(date) || cohort.plusDays(Integer.parseInt(key.substring(separator + 1))).equals(date);
+        });
+    }
+
+    private String cacheKey(LocalDate cohort, int days) {
+        return cohort + ":" + days;
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import com.example.dautracker.model.RetentionStatistics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 留存服务类
+ * 通过 DAUService 选定的存储引擎计算两天活跃用户的交集(Redis为 BITOP AND + BITCOUNT)，得到同期群的N日留存，
+ * 两天都已结束的结果缓存在 RetentionCache 中，一次查询的同期群天数×留存天数受 max-cells 限制；
+ * 同期群日期和目标日期的Bitmap需同时存在，留存天数不能超过 expire-days - 1，已过保留期的同期群不再计算
+ @author lk
+ @create 2026/02/14-20:52
+ */
+@Slf4j
+@Service
+public class RetentionService {
+
+    private static final DateTimeFormatter DISPLAY_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    /**
+     * 未指定留存天数时的默认值：次日、7日、30日
+     */
+    private static final List<Integer> DEFAULT_DAYS = Arrays.asList(1, 7, 30);
+
+    @Autowired
+    private DAUService dauService;
+
+    @Autowired
+    private DAUProperties dauProperties;
+
+    @Autowired
+    private DAUDayClock dayClock;
+
+    @Autowired
+    private RetentionCache retentionCache;
+
+    /**
+     * 留存矩阵的格子数是否在上限之内，每个格子对应一次两日交集计算
+     * @param startDate 同期群开始日期
+     * @param endDate 同期群结束日期
+     * @param days 留存天数列表
+     * @return 未超出返回true
+     */
+    public boolean isWithinLimit(LocalDate startDate, LocalDate endDate, List<Integer> days) {
+        long cohorts = ChronoUnit.DAYS.between(startDate, endDate) + 1;
+        return cohorts * days.size() <= getMaxCells();
+    }
+
+    /**
+     * 留存天数是否都在数据保留范围内，目标日期到达时同期群日期的Bitmap还没有过期
+     * @param days 留存天数列表
+     * @return 都在1到 expire-days - 1 之间返回true
+     */
+    public boolean isValidRetentionDays(List<Integer> days) {
+        int maxDays = getMaxRetentionDays();
+        return days.stream().allMatch(d -> d != null && d >= 1 && d <= maxDays);
+    }
+
+    /**
+     * 获取可以查询的最长留存天数
+     * @return dau.expire-days - 1
+     */
+    public int getMaxRetentionDays() {
+        return dauProperties.getExpireDays() - 1;
+    }
+
+    /**
+     * 获取默认的留存天数：次日、7日、30日中不超过最长留存天数的部分，有超出的时补上最长留存天数
+     * @return 留存天数列表
+     */
+    public List<Integer> getDefaultDays() {
+        int maxDays = getMaxRetentionDays();
+        List<Integer> days = new ArrayList<>(DEFAULT_DAYS.size());
+        for (Integer d : DEFAULT_DAYS) {
+            if (d <= maxDays) {
+                days.add(d);
+            }
+        }
+        if (days.size() < DEFAULT_DAYS.size() && maxDays >= 1 && !days.contains(maxDays)) {
+            days.add(maxDays);
+        }
+        return days;
+    }
+
+    /**
+     * 获取一次查询的格子数上限
+     * @return dau.retention.max-cells
+     */
+    public int getMaxCells() {
+        return dauProperties.getRetention().getMaxCells();
+    }
+
+    /**
+     * 获取日期范围内每个同期群的留存矩阵
+     * @param startDate 同期群开始日期
+     * @param endDate 同期群结束日期
+     * @param days 留存天数列表
+     * @return 留存统计
+     */
+    public RetentionStatistics getRetentionMatrix(LocalDate startDate, LocalDate endDate, List<Integer> days) {
+        if (!isWithinLimit(startDate, endDate, days) || !isValidRetentionDays(days)) {
+            log.warn("留存矩阵超出格子数上限{}或留存天数超出{}: startDate={}, endDate={}, days={}",
+                    getMaxCells(), getMaxRetentionDays(), startDate, endDate, days);
+            return RetentionStatistics.builder()
+                    .startDate(startDate.toString())
+                    .endDate(endDate.toString())
+                    .days(days)
+                    .build();
+        }
+
+        List<LocalDate> cohorts = new ArrayList<>();
+        for (LocalDate currentDate = startDate; !currentDate.isAfter(endDate); currentDate = currentDate.plusDays(1)) {
+            cohorts.add(currentDate);
+        }
+
+        LocalDate today = dayClock.today();
+        LocalDate closedBefore = dayClock.earliestToday();
+        //早于该日期的Bitmap已过期，交集总是0，不能计算也不能缓存
+        LocalDate oldestRetained = today.minusDays(dauProperties.getExpireDays() - 1);
+        Long[][] retained = new Long[cohorts.size()][days.size()];
+
+        //缓存未命中、目标日期已到达且同期群仍在保留期内的组合，需要到Redis计算
+        List<int[]> pending = new ArrayList<>();
+        for (int c = 0; c < cohorts.size(); c++) {
+            for (int d = 0; d < days.size(); d++) {
+                LocalDate target = cohorts.get(c).plusDays(days.get(d));
+                if (target.isAfter(today)) {
+                    continue;
+                }
+                Long cached = retentionCache.get(cohorts.get(c), days.get(d));
+                if (cached != null) {
+                    retained[c][d] = cached;
+                } else if (!cohorts.get(c).isBefore(oldestRetained)) {
+                    pending.add(new int[]{c, d});
+                }
+            }
+        }
+
+        if (!pending.isEmpty()) {
+            List<LocalDate[]> pairs = new ArrayList<>(pending.size());
+            for (int[] cell : pending) {
+                LocalDate cohort = cohorts.get(cell[0]);
+                pairs.add(new LocalDate[]{cohort, cohort.plusDays(days.get(cell[1]))});
+            }
+
+            long[] counts;
+            try {
+                counts = dauService.getStore().intersectCounts(pairs);
+            } catch (Exception e) {
+                log.error("计算留存失败: startDate={}, endDate={}, days={}", startDate, endDate, days, e);
+                counts = null;
+            }
+
+            for (int i = 0; counts != null && i < pending.size(); i++) {
+                int[] cell = pending.get(i);
+                retained[cell[0]][cell[1]] = counts[i];
+                //两天都已结束，之后再写入这两天时由 RetentionCache.invalidate 清除
+                if (pairs.get(i)[1].isBefore(closedBefore)) {
+                    retentionCache.put(cohorts.get(cell[0]), days.get(cell[1]), counts[i]);
+                }
+            }
+            log.debug("留存计算完成: 缓存未命中={}", pending.size());
+        }
+
+        Map<String, Long> cohortSizes = dauService.getDauCountRange(startDate, endDate);
+        Map<String, Map<Integer, Long>> retainedMap = new LinkedHashMap<>();
+        Map<String, Map<Integer, Double>> rateMap = new LinkedHashMap<>();
+        for (int c = 0; c < cohorts.size(); c++) {
+            String cohort = cohorts.get(c).format(DISPLAY_FORMATTER);
+            long cohortSize = cohortSizes.getOrDefault(cohort, 0L);
+            Map<Integer, Long> retainedRow = new LinkedHashMap<>();
+            Map<Integer, Double> rateRow = new LinkedHashMap<>();
+            for (int d = 0; d < days.size(); d++) {
+                Long count = retained[c][d];
+                retainedRow.put(days.get(d), count);
+                rateRow.put(days.get(d), count == null ? null
+                        : cohortSize == 0 ? 0.0 : Math.round(count * 10000.0 / cohortSize) / 10000.0);
+            }
+            retainedMap.put(cohort, retainedRow);
+            rateMap.put(cohort, rateRow);
+        }
+
+        return RetentionStatistics.builder()
+                .startDate(startDate.toString())
+                .endDate(endDate.toString())
+                .days(days)
+                .cohortSizes(cohortSizes)
+                .retained(retainedMap)
+                .retentionRates(rateMap)
+                .build();
+    }
+}
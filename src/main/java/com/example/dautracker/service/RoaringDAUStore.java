@@ -0,0 +1,380 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内Roaring Bitmap存储引擎
+ * 每天一个 Roaring64NavigableMap，稀疏的ID区间会被压缩，查询、并集和交集都在本地内存完成不经过网络；
+ * 有变化的日期定期序列化为快照保存到Redis或磁盘，某天第一次被访问时从快照恢复
+ @author lk
+ @create 2026/02/17-20:40
+ */
+@Slf4j
+@Component
+public class RoaringDAUStore implements DAUStore, InitializingBean, DisposableBean {
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final String SNAPSHOT_FILE_SUFFIX = ".roaring";
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private DAUProperties dauProperties;
+
+    @Autowired
+    private DAUKeyLayout keyLayout;
+
+    /**
+     * 日期 -> 当天的活跃Bitmap，Roaring64NavigableMap本身不是线程安全的，读写时都以它为锁
+     */
+    private final Map<LocalDate, Roaring64NavigableMap> days = new ConcurrentHashMap<>();
+
+    /**
+     * 上次快照之后有新写入的日期
+     */
+    private final Set<LocalDate> dirtyDays = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService scheduler;
+
+    @Override
+    public void afterPropertiesSet() {
+        DAUProperties.Store config = dauProperties.getStore();
+        if (config.getType() != DAUProperties.StoreType.ROARING) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dau-roaring-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = config.getRoaring().getSnapshotInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::snapshotSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        log.info("进程内Roaring Bitmap引擎已开启: 快照位置={}, 快照周期={}",
+                config.getRoaring().getSnapshot(), config.getRoaring().getSnapshotInterval());
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler == null) {
+            return;
+        }
+
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        snapshotSafely();
+    }
+
+    @Override
+    public boolean setActive(LocalDate date, long offset) {
+        Roaring64NavigableMap bitmap = day(date);
+        synchronized (bitmap) {
+            if (bitmap.contains(offset)) {
+                return true;
+            }
+            bitmap.addLong(offset);
+        }
+        dirtyDays.add(date);
+        return false;
+    }
+
+    @Override
+    public int setActive(LocalDate date, long[] offsets, int length) {
+        Roaring64NavigableMap bitmap = day(date);
+        int newlyActive = 0;
+        synchronized (bitmap) {
+            for (int i = 0; i < length; i++) {
+                if (!bitmap.contains(offsets[i])) {
+                    bitmap.addLong(offsets[i]);
+                    newlyActive++;
+                }
+            }
+        }
+        if (newlyActive > 0) {
+            dirtyDays.add(date);
+        }
+        return newlyActive;
+    }
+
+    @Override
+    public boolean isActive(LocalDate date, long offset) {
+        Roaring64NavigableMap bitmap = existingDay(date);
+        if (bitmap == null) {
+            return false;
+        }
+        synchronized (bitmap) {
+            return bitmap.contains(offset);
+        }
+    }
+
+    @Override
+    public long[] count(List<LocalDate> dates) {
+        long[] counts = new long[dates.size()];
+        for (int i = 0; i < dates.size(); i++) {
+            Roaring64NavigableMap bitmap = existingDay(dates.get(i));
+            if (bitmap == null) {
+                continue;
+            }
+            synchronized (bitmap) {
+                counts[i] = bitmap.getLongCardinality();
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public long unionCount(List<LocalDate> dates) {
+        Roaring64NavigableMap union = new Roaring64NavigableMap();
+        for (LocalDate date : dates) {
+            Roaring64NavigableMap bitmap = existingDay(date);
+            if (bitmap == null) {
+                continue;
+            }
+            synchronized (bitmap) {
+                union.or(bitmap);
+            }
+        }
+        return union.getLongCardinality();
+    }
+
+    @Override
+    public long[] intersectCounts(List<LocalDate[]> pairs) {
+        long[] counts = new long[pairs.size()];
+        for (int i = 0; i < pairs.size(); i++) {
+            Roaring64NavigableMap first = existingDay(pairs.get(i)[0]);
+            Roaring64NavigableMap second = existingDay(pairs.get(i)[1]);
+            if (first == null || second == null) {
+                continue;
+            }
+            Roaring64NavigableMap intersection = new Roaring64NavigableMap();
+            synchronized (first) {
+                intersection.or(first);
+            }
+            synchronized (second) {
+                intersection.and(second);
+            }
+            counts[i] = intersection.getLongCardinality();
+        }
+        return counts;
+    }
+
+    @Override
+    public long memoryUsage(LocalDate date) {
+        Roaring64NavigableMap bitmap = existingDay(date);
+        if (bitmap == null) {
+            return 0L;
+        }
+        synchronized (bitmap) {
+            return bitmap.getLongSizeInBytes();
+        }
+    }
+
+    /**
+     * 获取某天用于写入的Bitmap，本进程第一次写入该日期时从快照恢复，没有快照时新建
+     * 读取快照失败时异常直接抛出，不会缓存空的Bitmap，避免之后的快照覆盖掉已有数据
+     */
+    private Roaring64NavigableMap day(LocalDate date) {
+        Roaring64NavigableMap bitmap = days.get(date);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        return days.computeIfAbsent(date, d -> {
+            Roaring64NavigableMap restored = loadSnapshot(d);
+            return restored != null ? restored : new Roaring64NavigableMap();
+        });
+    }
+
+    /**
+     * 获取某天已有的Bitmap用于查询，内存中没有时尝试从快照恢复
+     * 没有快照或超过保留天数时返回null且不缓存，任意日期或未来日期的查询不会留下空的Bitmap
+     * @return 没有数据时返回null
+     */
+    private Roaring64NavigableMap existingDay(LocalDate date) {
+        Roaring64NavigableMap bitmap = days.get(date);
+        if (bitmap != null || date.isBefore(oldestDay())) {
+            return bitmap;
+        }
+        Roaring64NavigableMap restored = loadSnapshot(date);
+        return restored != null ? days.computeIfAbsent(date, d -> restored) : null;
+    }
+
+    /**
+     * 保留天数内最早的日期
+     */
+    private LocalDate oldestDay() {
+        return LocalDate.now().minusDays(dauProperties.getExpireDays() - 1);
+    }
+
+    /**
+     * 把有变化的日期写入快照，并清理超过保留天数的日期和磁盘快照，Redis快照由过期时间清理
+     */
+    void snapshot() {
+        LocalDate oldest = oldestDay();
+        days.keySet().removeIf(date -> date.isBefore(oldest));
+        dirtyDays.removeIf(date -> date.isBefore(oldest));
+        if (dauProperties.getStore().getRoaring().getSnapshot() == DAUProperties.SnapshotTarget.DISK) {
+            removeExpiredSnapshots(oldest);
+        }
+
+        for (LocalDate date : dirtyDays) {
+            Roaring64NavigableMap bitmap = days.get(date);
+            if (bitmap == null) {
+                continue;
+            }
+            //先移除再序列化，序列化期间的新写入会重新标记为有变化
+            dirtyDays.remove(date);
+            byte[] data;
+            synchronized (bitmap) {
+                bitmap.runOptimize();
+                data = serialize(bitmap);
+            }
+            try {
+                saveSnapshot(date, data);
+            } catch (Exception e) {
+                dirtyDays.add(date);
+                throw e;
+            }
+            log.debug("日期{}的Bitmap快照已保存: {}字节", date, data.length);
+        }
+    }
+
+    private void removeExpiredSnapshots(LocalDate oldest) {
+        Path dir = Paths.get(dauProperties.getStore().getRoaring().getSnapshotDir());
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SNAPSHOT_FILE_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    LocalDate date = LocalDate.parse(name.substring(0, name.length() - SNAPSHOT_FILE_SUFFIX.length()), DATE_FORMATTER);
+                    if (date.isBefore(oldest)) {
+                        Files.deleteIfExists(file);
+                        log.info("已删除过期的Bitmap快照: {}", file);
+                    }
+                } catch (DateTimeParseException ignored) {
+                    //不是本引擎生成的文件
+                }
+            }
+        } catch (IOException e) {
+            log.warn("清理过期的Bitmap快照失败: {}", dir, e);
+        }
+    }
+
+    private void snapshotSafely() {
+        try {
+            snapshot();
+        } catch (Exception e) {
+            log.error("保存Roaring Bitmap快照失败", e);
+        }
+    }
+
+    /**
+     * 从快照恢复某天的Bitmap
+     * @return 没有快照时返回null
+     */
+    private Roaring64NavigableMap loadSnapshot(LocalDate date) {
+        byte[] data;
+        switch (dauProperties.getStore().getRoaring().getSnapshot()) {
+            case REDIS:
+                data = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                        connection.get(keyLayout.snapshotKey(date).getBytes()));
+                break;
+            case DISK:
+                Path file = snapshotFile(date);
+                try {
+                    data = Files.exists(file) ? Files.readAllBytes(file) : null;
+                } catch (IOException e) {
+                    throw new UncheckedIOException("读取Bitmap快照失败: " + file, e);
+                }
+                break;
+            default:
+                data = null;
+        }
+
+        if (data == null) {
+            return null;
+        }
+        Roaring64NavigableMap bitmap = new Roaring64NavigableMap();
+        try {
+            bitmap.deserialize(new DataInputStream(new ByteArrayInputStream(data)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("解析Bitmap快照失败: date=" + date, e);
+        }
+        log.info("日期{}的Bitmap已从快照恢复: 活跃数={}", date, bitmap.getLongCardinality());
+        return bitmap;
+    }
+
+    private void saveSnapshot(LocalDate date, byte[] data) {
+        switch (dauProperties.getStore().getRoaring().getSnapshot()) {
+            case REDIS:
+                long expireSeconds = TimeUnit.DAYS.toSeconds(dauProperties.getExpireDays());
+                stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                        connection.setEx(keyLayout.snapshotKey(date).getBytes(), expireSeconds, data));
+                break;
+            case DISK:
+                Path file = snapshotFile(date);
+                try {
+                    //先写临时文件再原子替换，避免进程退出时留下不完整的快照
+                    Files.createDirectories(file.getParent());
+                    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                    Files.write(tmp, data);
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("写入Bitmap快照失败: " + file, e);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private Path snapshotFile(LocalDate date) {
+        return Paths.get(dauProperties.getStore().getRoaring().getSnapshotDir(), date.format(DATE_FORMATTER) + SNAPSHOT_FILE_SUFFIX);
+    }
+
+    private static byte[] serialize(Roaring64NavigableMap bitmap) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(bitmap.serializedSizeInBytes(), Integer.MAX_VALUE));
+        try {
+            bitmap.serialize(new DataOutputStream(out));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
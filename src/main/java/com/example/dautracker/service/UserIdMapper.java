@@ -0,0 +1,186 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 用户ID映射服务
+ * 把稀疏的用户ID(如雪花ID)映射为从0开始的连续偏移量，映射关系持久化在Redis中并在本地缓存，
+ * 使Bitmap的大小只取决于实际用户数而不是最大的用户ID
+ @author lk
+ @create 2026/02/10-20:35
+ */
+@Slf4j
+@Service
+public class UserIdMapper implements InitializingBean {
+
+    //两个Key使用相同的hash tag，保证集群模式下脚本可以同时操作
+    private static final String ID_MAP_KEY = "dau:{uid}:map";
+    private static final String ID_SEQ_KEY = "dau:{uid}:seq";
+    private static final List<String> SCRIPT_KEYS = Arrays.asList(ID_MAP_KEY, ID_SEQ_KEY);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private DAUProperties dauProperties;
+
+    private DefaultRedisScript<Long> assignScript;
+
+    private EvalShaScript batchAssignScript;
+
+    private Cache<Long, Long> localCache;
+
+    @Override
+    public void afterPropertiesSet() {
+        assignScript = new DefaultRedisScript<>();
+        assignScript.setLocation(new ClassPathResource("scripts/assign_user_offset.lua"));
+        assignScript.setResultType(Long.class);
+        batchAssignScript = new EvalShaScript("scripts/assign_user_offset.lua");
+
+        localCache = Caffeine.newBuilder()
+                .maximumSize(dauProperties.getIdMapping().getLocalCacheSize())
+                .build();
+    }
+
+    /**
+     * 是否开启了ID映射
+     * @return 开启返回true
+     */
+    public boolean isEnabled() {
+        return dauProperties.getIdMapping().isEnabled();
+    }
+
+    /**
+     * 查询用户ID对应的偏移量，不存在时不分配
+     * @param userId 用户ID
+     * @return 偏移量，用户从未记录过时返回null
+     */
+    public Long getOffset(long userId) {
+        Long offset = localCache.getIfPresent(userId);
+        if (offset != null) {
+            return offset;
+        }
+
+        String value = stringRedisTemplate.<String, String>opsForHash().get(ID_MAP_KEY, Long.toString(userId));
+        if (value == null) {
+            return null;
+        }
+
+        offset = Long.parseLong(value);
+        localCache.put(userId, offset);
+        return offset;
+    }
+
+    /**
+     * 获取用户ID对应的偏移量，不存在时原子地分配下一个偏移量
+     * @param userId 用户ID
+     * @return 偏移量
+     */
+    public long getOrAssignOffset(long userId) {
+        Long offset = localCache.getIfPresent(userId);
+        if (offset != null) {
+            return offset;
+        }
+
+        offset = stringRedisTemplate.execute(assignScript, SCRIPT_KEYS, Long.toString(userId));
+        if (offset == null) {
+            throw new IllegalStateException("分配用户偏移量失败: userId=" + userId);
+        }
+
+        localCache.put(userId, offset);
+        return offset;
+    }
+
+    /**
+     * 批量获取偏移量，本地缓存未命中的用户通过一次Pipeline分配
+     * @param userIds 用户ID数组
+     * @param length 有效长度
+     * @return 与userIds一一对应的偏移量
+     */
+    public long[] getOrAssignOffsets(long[] userIds, int length) {
+        long[] offsets = new long[length];
+        int[] missIndexes = new int[length];
+        int missCount = 0;
+
+        for (int i = 0; i < length; i++) {
+            Long offset = localCache.getIfPresent(userIds[i]);
+            if (offset != null) {
+                offsets[i] = offset;
+            } else {
+                missIndexes[missCount++] = i;
+            }
+        }
+
+        if (missCount == 0) {
+            return offsets;
+        }
+
+        final int size = missCount;
+        loadBatchAssignScript();
+        List<Object> results;
+        try {
+            results = assignPipeline(userIds, missIndexes, size);
+        } catch (RuntimeException e) {
+            if (!EvalShaScript.isNoScript(e)) {
+                throw e;
+            }
+            //Redis重启或执行过SCRIPT FLUSH，脚本对已分配的用户直接返回原偏移量，重新加载后整批重试是安全的
+            log.warn("Redis中没有偏移量分配脚本，重新加载后重试: 缓存未命中={}", size);
+            batchAssignScript.markUnloaded();
+            loadBatchAssignScript();
+            results = assignPipeline(userIds, missIndexes, size);
+        }
+
+        for (int i = 0; i < size; i++) {
+            long offset = (Long) results.get(i);
+            offsets[missIndexes[i]] = offset;
+            localCache.put(userIds[missIndexes[i]], offset);
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("批量分配用户偏移量: 总数={}, 缓存未命中={}", length, size);
+        }
+        return offsets;
+    }
+
+    private List<Object> assignPipeline(long[] userIds, int[] missIndexes, int size) {
+        byte[] rawMapKey = ID_MAP_KEY.getBytes(StandardCharsets.UTF_8);
+        byte[] rawSeqKey = ID_SEQ_KEY.getBytes(StandardCharsets.UTF_8);
+        String sha1 = batchAssignScript.getSha1();
+        return stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < size; i++) {
+                byte[] rawUserId = Long.toString(userIds[missIndexes[i]]).getBytes(StandardCharsets.UTF_8);
+                connection.evalSha(sha1, ReturnType.INTEGER, 2, rawMapKey, rawSeqKey, rawUserId);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Pipeline中只发送SHA1，使用前确保脚本已通过SCRIPT LOAD加载
+     */
+    private void loadBatchAssignScript() {
+        if (batchAssignScript.isLoaded()) {
+            return;
+        }
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            batchAssignScript.load(connection);
+            return null;
+        });
+    }
+}
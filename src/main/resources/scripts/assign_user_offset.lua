@@ -0,0 +1,11 @@
+-- 为用户ID分配连续的Bitmap偏移量，已分配过的直接返回
+-- KEYS[1]: 用户ID -> 偏移量的Hash  KEYS[2]: 偏移量序列号
+-- ARGV[1]: 用户ID
+local offset = redis.call('HGET', KEYS[1], ARGV[1])
+if offset then
+    return tonumber(offset)
+end
+
+offset = redis.call('INCR', KEYS[2]) - 1
+redis.call('HSET', KEYS[1], ARGV[1], offset)
+return offset
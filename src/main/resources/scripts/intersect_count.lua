@@ -0,0 +1,6 @@
+-- 多个Bitmap交集的人数，临时结果Key在脚本内创建并删除
+-- KEYS[1]: 临时结果Key  KEYS[2..]: 求交集的Key
+redis.call('BITOP', 'AND', KEYS[1], unpack(KEYS, 2))
+local count = redis.call('BITCOUNT', KEYS[1])
+redis.call('DEL', KEYS[1])
+return count
@@ -0,0 +1,7 @@
+-- 已结束日期有补录时删除持久化的DAU总数并增加代数，让补录前开始的统计无法写回
+-- KEYS[1]: 总数Key dau:total:yyyyMMdd
+-- ARGV[1]: 过期秒数
+redis.call('HDEL', KEYS[1], 'count')
+local gen = redis.call('HINCRBY', KEYS[1], 'gen', 1)
+redis.call('EXPIRE', KEYS[1], ARGV[1])
+return gen
@@ -0,0 +1,46 @@
+-- 把一段字节块按位或合并到Bitmap的指定字节区间，用于密集批量写入
+-- KEYS[1]: Bitmap Key  KEYS[2]: 计数Key，可选，传入时同时累加当天的活跃人数
+-- ARGV[1]: 起始字节  ARGV[2]: 字节块  ARGV[3]: 计数Key的过期秒数，传入计数Key时必填
+-- 返回: 合并后该区间新增的置位数量
+local key = KEYS[1]
+local start = tonumber(ARGV[1])
+local bytes = ARGV[2]
+local last = start + #bytes - 1
+
+local added
+local before = redis.call('BITCOUNT', key, start, last)
+if before == 0 then
+    redis.call('SETRANGE', key, start, bytes)
+    added = redis.call('BITCOUNT', key, start, last)
+else
+    -- 区间内已有数据时逐字节按位或，string.char 每次最多展开4096个参数
+    local old = redis.call('GETRANGE', key, start, last)
+    local parts = {}
+    local values = {}
+    for from = 1, #bytes, 4096 do
+        local to = math.min(from + 4095, #bytes)
+        local n = 0
+        for i = from, to do
+            n = n + 1
+            values[n] = bit.bor(string.byte(bytes, i), string.byte(old, i) or 0)
+        end
+        parts[#parts + 1] = string.char(unpack(values, 1, n))
+    end
+    redis.call('SETRANGE', key, start, table.concat(parts))
+    added = redis.call('BITCOUNT', key, start, last) - before
+end
+
+-- 计数Key不存在(计数中途开启、过期或被淘汰)时按整个Bitmap的BITCOUNT初始化，结果已包含本次合并
+if KEYS[2] then
+    if redis.call('EXISTS', KEYS[2]) == 1 then
+        if added > 0 then
+            redis.call('INCRBY', KEYS[2], added)
+        end
+    else
+        redis.call('SET', KEYS[2], redis.call('BITCOUNT', key))
+    end
+    if redis.call('TTL', KEYS[2]) < 0 then
+        redis.call('EXPIRE', KEYS[2], ARGV[3])
+    end
+end
+return added
@@ -0,0 +1,11 @@
+-- 写入已结束日期的DAU总数，统计期间有补录(代数变化)时放弃写入，避免把旧的总数写回
+-- KEYS[1]: 总数Key dau:total:yyyyMMdd，Hash字段 count 为DAU总数，gen 为补录代数
+-- ARGV[1]: 统计前读到的代数  ARGV[2]: DAU总数  ARGV[3]: 过期秒数
+-- 返回: 1 已写入，0 代数已变化
+local gen = redis.call('HGET', KEYS[1], 'gen') or '0'
+if gen ~= ARGV[1] then
+    return 0
+end
+redis.call('HSET', KEYS[1], 'count', ARGV[2])
+redis.call('EXPIRE', KEYS[1], ARGV[3])
+return 1
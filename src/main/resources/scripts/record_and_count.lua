@@ -0,0 +1,23 @@
+-- 记录用户活跃并维护当天的活跃人数计数，只有该位从0变为1时计数才加一
+-- KEYS[1]: Bitmap Key  KEYS[2]: 计数Key
+-- ARGV[1]: 偏移量  ARGV[2]: 过期秒数
+-- 返回: {该位原来的值, 当前计数}
+local previous = redis.call('SETBIT', KEYS[1], ARGV[1], 1)
+local count = redis.call('GET', KEYS[2])
+if not count then
+    -- 计数Key不存在(计数中途开启、过期或被淘汰)时按BITCOUNT初始化，结果已包含本次置位
+    count = redis.call('BITCOUNT', KEYS[1])
+    redis.call('SET', KEYS[2], count)
+elseif previous == 0 then
+    count = redis.call('INCR', KEYS[2])
+else
+    count = tonumber(count)
+end
+
+if redis.call('TTL', KEYS[1]) < 0 then
+    redis.call('EXPIRE', KEYS[1], ARGV[2])
+end
+if redis.call('TTL', KEYS[2]) < 0 then
+    redis.call('EXPIRE', KEYS[2], ARGV[2])
+end
+return {previous, count}
@@ -0,0 +1,17 @@
+-- 滚动窗口去重活跃人数
+-- 窗口拆分为"最后一天"与"之前的日期"两部分：之前日期的并集缓存在KEYS[2]中，
+-- 每次只需把它与最后一天做一次BITOP OR，结果也缓存在KEYS[1]中
+-- KEYS[1]: 窗口结果Key  KEYS[2]: 之前日期的并集Key  KEYS[3]: 最后一天的Key  KEYS[4..]: 之前日期的Key
+-- ARGV[1]: 并集Key的缓存秒数  ARGV[2]: 结果Key的缓存秒数
+if redis.call('EXISTS', KEYS[1]) == 1 then
+    return redis.call('BITCOUNT', KEYS[1])
+end
+
+if #KEYS > 3 and redis.call('EXISTS', KEYS[2]) == 0 then
+    redis.call('BITOP', 'OR', KEYS[2], unpack(KEYS, 4))
+    redis.call('EXPIRE', KEYS[2], ARGV[1])
+end
+
+redis.call('BITOP', 'OR', KEYS[1], KEYS[2], KEYS[3])
+redis.call('EXPIRE', KEYS[1], ARGV[2])
+return redis.call('BITCOUNT', KEYS[1])
@@ -0,0 +1,21 @@
+-- 批量置位并累加当天的活跃人数计数，用于开启计数时批量写入中稀疏的偏移量
+-- KEYS[1]: Bitmap Key  KEYS[2]: 计数Key
+-- ARGV[1]: 计数Key的过期秒数  ARGV[2..n]: 偏移量
+-- 返回: 新置位的数量
+local added = 0
+for i = 2, #ARGV do
+    added = added + 1 - redis.call('SETBIT', KEYS[1], ARGV[i], 1)
+end
+
+-- 计数Key不存在(计数中途开启、过期或被淘汰)时按BITCOUNT初始化，结果已包含本次置位
+if redis.call('EXISTS', KEYS[2]) == 1 then
+    if added > 0 then
+        redis.call('INCRBY', KEYS[2], added)
+    end
+else
+    redis.call('SET', KEYS[2], redis.call('BITCOUNT', KEYS[1]))
+end
+if redis.call('TTL', KEYS[2]) < 0 then
+    redis.call('EXPIRE', KEYS[2], ARGV[1])
+end
+return added
@@ -0,0 +1,130 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import com.example.dautracker.model.ImportResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.function.LongConsumer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+class ActivityImportServiceTest {
+
+    private final LocalDate date = LocalDate.of(2026, 2, 21);
+
+    private DAUProperties properties;
+
+    private DAUService dauService;
+
+    private ActivityImportService importService;
+
+    @BeforeEach
+    void setUp() {
+        properties = new DAUProperties();
+        dauService = mock(DAUService.class);
+        when(dauService.batchRecordUserActive(any(long[].class), anyInt(), any(LocalDate.class), any(LongConsumer.class)))
+                .thenAnswer(i -> i.getArgument(1));
+
+        importService = new ActivityImportService();
+        ReflectionTestUtils.setField(importService, "dauService", dauService);
+        ReflectionTestUtils.setField(importService, "dauProperties", properties);
+        ReflectionTestUtils.setField(importService, "dayClock", TestFixtures.dayClock(properties, TestFixtures.clockAt(date)));
+    }
+
+    @Test
+    void parsesIdsUpToLongMaxValue() {
+        assertThat(parse("9223372036854775807")).isEqualTo(Long.MAX_VALUE);
+        assertThat(parse("1000000000000000000,2026-02-21")).isEqualTo(1_000_000_000_000_000_000L);
+        assertThat(parse("9223372036854775808")).isEqualTo(-1L);
+        assertThat(parse("99999999999999999999")).isEqualTo(-1L);
+        assertThat(parse("12a")).isEqualTo(-1L);
+        assertThat(parse(",")).isEqualTo(-1L);
+    }
+
+    @Test
+    void zeroProgressIntervalDisablesProgressLog() {
+        properties.getBulkImport().setProgressLogInterval(0);
+
+        ImportResult result = importService.importText(text("1\n2\n3\n"), date, null);
+
+        assertThat(result.getRead()).isEqualTo(3);
+        assertThat(result.getImported()).isEqualTo(3);
+    }
+
+    @Test
+    void countsOnlyReportedIdsAsFailed() {
+        //6行去重后3个ID，其中1个写入失败：成功数按去重计算为2，失败数为1
+        when(dauService.batchRecordUserActive(any(long[].class), anyInt(), any(LocalDate.class), any(LongConsumer.class)))
+                .thenAnswer(i -> {
+                    i.getArgument(3, LongConsumer.class).accept(3L);
+                    return 2;
+                });
+
+        ImportResult result = importService.importText(text("1\n1\n2\n2\n3\n3\n"), date, null);
+
+        assertThat(result.getImported()).isEqualTo(2);
+        assertThat(result.getFailed()).isEqualTo(1);
+    }
+
+    @Test
+    void skipsDatesOutsideRetention() {
+        LocalDate expired = date.minusDays(properties.getExpireDays());
+
+        ImportResult result = importService.importText(text("1," + expired + "\n2\n"), date, null);
+
+        assertThat(result.getInvalid()).isEqualTo(1);
+        assertThat(result.getImported()).isEqualTo(1);
+        assertThat(result.getFailed()).isZero();
+    }
+
+    @Test
+    void rejectsImportIdThatIsAlreadyRunning() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        InputStream blocking = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return -1;
+            }
+        };
+        CompletableFuture<ImportResult> first = CompletableFuture.supplyAsync(
+                () -> importService.importText(blocking, date, "job-1"));
+        assertThat(reading.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(importService.importText(text("1\n"), date, "job-1")).isNull();
+        assertThat(importService.getProgress("job-1")).hasSize(1);
+
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS).getFinished()).isTrue();
+        assertThat(importService.getProgress("job-1")).isEmpty();
+        assertThat(importService.importText(text("1\n"), date, "job-1").getImported()).isEqualTo(1);
+    }
+
+    private static long parse(String value) {
+        byte[] line = value.getBytes(StandardCharsets.UTF_8);
+        return ActivityImportService.parseLong(line, 0, line.length);
+    }
+
+    private static InputStream text(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ActivityWriteBufferTest {
+
+    private final LocalDate date = LocalDate.of(2026, 2, 9);
+
+    private DAUProperties properties;
+
+    private DAUService dauService;
+
+    private ActivityWriteBuffer buffer;
+
+    @BeforeEach
+    void setUp() {
+        properties = new DAUProperties();
+        properties.getBuffer().setEnabled(true);
+        properties.getBuffer().setFlushInterval(Duration.ofHours(1));
+        properties.getBuffer().setMaxStaleness(Duration.ofHours(1));
+        properties.getBuffer().setMaxFlushRetries(2);
+        properties.getBuffer().setShutdownTimeout(Duration.ofMillis(500));
+
+        DAUDayClock dayClock = TestFixtures.dayClock(properties);
+
+        dauService = mock(DAUService.class);
+        when(dauService.isRecordableUserId(anyLong())).thenAnswer(i -> i.getArgument(0, Long.class) < 100L);
+        buffer = new ActivityWriteBuffer();
+        ReflectionTestUtils.setField(buffer, "dauService", dauService);
+        ReflectionTestUtils.setField(buffer, "dauProperties", properties);
+        ReflectionTestUtils.setField(buffer, "dayClock", dayClock);
+        ReflectionTestUtils.setField(buffer, "activityLog", mock(DAUActivityLog.class));
+        ReflectionTestUtils.setField(buffer, "metrics", mock(DAUMetrics.class));
+        buffer.afterPropertiesSet();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        buffer.destroy();
+    }
+
+    /**
+     * 模拟批量写入，参数中的ID报告为可以重试，其余视为写入成功
+     */
+    private void failIds(long... failedIds) {
+        when(dauService.batchRecordUserActive(any(long[].class), anyInt(), eq(date), any(LongConsumer.class))).thenAnswer(i -> {
+            long[] userIds = i.getArgument(0);
+            int length = i.getArgument(1);
+            LongConsumer retryable = i.getArgument(3);
+            int written = 0;
+            for (int n = 0; n < length; n++) {
+                boolean failed = false;
+                for (long failedId : failedIds) {
+                    failed |= userIds[n] == failedId;
+                }
+                if (failed) {
+                    retryable.accept(userIds[n]);
+                } else {
+                    written++;
+                }
+            }
+            return written;
+        });
+    }
+
+    @Test
+    void repeatedActivityIsFlushedOnce() {
+        failIds();
+
+        buffer.recordUserActive(1L, date);
+        buffer.recordUserActive(2L, date);
+        buffer.recordUserActive(1L, date);
+        assertThat(buffer.getPendingCount()).isEqualTo(2);
+
+        buffer.flush(true);
+
+        ArgumentCaptor<long[]> captor = ArgumentCaptor.forClass(long[].class);
+        verify(dauService).batchRecordUserActive(captor.capture(), eq(2), eq(date), any(LongConsumer.class));
+        assertThat(captor.getValue()).containsExactly(1L, 2L);
+        assertThat(buffer.getPendingCount()).isZero();
+        verify(dauService, never()).recordUserActive(any(), any());
+    }
+
+    @Test
+    void failedFlushIsRequeuedAndDrainedOnShutdown() throws Exception {
+        failIds(7L);
+
+        buffer.recordUserActive(7L, date);
+        buffer.flush(true);
+        assertThat(buffer.getPendingCount()).isEqualTo(1);
+
+        failIds();
+        buffer.destroy();
+        assertThat(buffer.getPendingCount()).isZero();
+        verify(dauService, times(2)).batchRecordUserActive(any(long[].class), anyInt(), eq(date), any(LongConsumer.class));
+    }
+
+    @Test
+    void shutdownRetriesUntilTheWriteSucceeds() throws Exception {
+        //第一次刷新时报告为可以重试，之后写入成功
+        AtomicInteger calls = new AtomicInteger();
+        when(dauService.batchRecordUserActive(any(long[].class), anyInt(), eq(date), any(LongConsumer.class))).thenAnswer(i -> {
+            if (calls.getAndIncrement() == 0) {
+                i.getArgument(3, LongConsumer.class).accept(7L);
+                return 0;
+            }
+            return 1;
+        });
+
+        buffer.recordUserActive(7L, date);
+        properties.getBuffer().setFlushInterval(Duration.ofMillis(10));
+        buffer.destroy();
+
+        assertThat(buffer.getPendingCount()).isZero();
+        assertThat(calls).hasValue(2);
+    }
+
+    @Test
+    void shutdownGivesUpAfterMaxRetries() throws Exception {
+        failIds(7L);
+
+        buffer.recordUserActive(7L, date);
+        properties.getBuffer().setFlushInterval(Duration.ofMillis(10));
+        buffer.destroy();
+
+        assertThat(buffer.getPendingCount()).isZero();
+        verify(dauService, times(3)).batchRecordUserActive(any(long[].class), anyInt(), eq(date), any(LongConsumer.class));
+    }
+
+    @Test
+    void partialDrainKeepsTheEnqueueTimeOfRemainingIds() throws Exception {
+        failIds();
+        properties.getBuffer().setMaxStaleness(Duration.ofMillis(50));
+
+        buffer.recordUserActive(1L, date);
+        buffer.recordUserActive(2L, date);
+        Thread.sleep(60);
+        Object day = ((Map<?, ?>) ReflectionTestUtils.getField(buffer, "days")).get(date);
+        ReflectionTestUtils.invokeMethod(buffer, "flushDay", date, day, 1);
+        assertThat(buffer.getPendingCount()).isEqualTo(1);
+
+        //剩余的ID入队已超过最大滞留时间，不会因为部分刷新而重新计时
+        buffer.flush(false);
+        assertThat(buffer.getPendingCount()).isZero();
+    }
+
+    @Test
+    void onlyRetryableIdsAreRequeued() {
+        failIds(2L);
+
+        buffer.recordUserActive(1L, date);
+        buffer.recordUserActive(2L, date);
+        buffer.recordUserActive(3L, date);
+        buffer.flush(true);
+
+        assertThat(buffer.getPendingCount()).isEqualTo(1);
+    }
+
+    @Test
+    void retriesAreCappedAndTheIdCanBeReportedAgain() {
+        failIds(5L);
+
+        buffer.recordUserActive(5L, date);
+        buffer.flush(true);
+        buffer.flush(true);
+        assertThat(buffer.getPendingCount()).isEqualTo(1);
+        buffer.flush(true);
+        assertThat(buffer.getPendingCount()).isZero();
+
+        //丢弃后不再视为已见，再次上报时重新入队
+        assertThat(buffer.recordUserActive(5L, date)).isTrue();
+        assertThat(buffer.getPendingCount()).isEqualTo(1);
+    }
+
+    @Test
+    void unrecordableIdIsRejectedBeforeBuffering() {
+        assertThat(buffer.recordUserActive(100L, date)).isFalse();
+        assertThat(buffer.getPendingCount()).isZero();
+    }
+}
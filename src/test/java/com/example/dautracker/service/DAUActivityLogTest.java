@@ -0,0 +1,89 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DAUActivityLogTest {
+
+    private final DAUProperties properties = new DAUProperties();
+
+    private final Logger logger = mock(Logger.class);
+
+    private DAUActivityLog activityLog;
+
+    @BeforeEach
+    void setUp() {
+        properties.getLogging().setSummaryInterval(Duration.ZERO);
+        properties.getLogging().setRateLimitInterval(Duration.ofHours(1));
+
+        activityLog = new DAUActivityLog();
+        ReflectionTestUtils.setField(activityLog, "dauProperties", properties);
+        ReflectionTestUtils.setField(activityLog, "meterRegistry", new SimpleMeterRegistry());
+        activityLog.afterPropertiesSet();
+
+        when(logger.isWarnEnabled()).thenReturn(true);
+        when(logger.isErrorEnabled()).thenReturn(true);
+    }
+
+    @Test
+    void sameTemplateIsLoggedOncePerInterval() {
+        for (long userId = -1; userId > -100; userId--) {
+            activityLog.warn(logger, "无效的用户ID:{}", userId);
+        }
+        activityLog.warn(logger, "批量记录跳过无效的用户ID:{}", 0L);
+
+        verify(logger, times(1)).warn("无效的用户ID:{}", new Object[]{-1L});
+        verify(logger, times(1)).warn("批量记录跳过无效的用户ID:{}", new Object[]{0L});
+    }
+
+    @Test
+    void suppressedCountIsReportedBeforeTheException() throws InterruptedException {
+        properties.getLogging().setRateLimitInterval(Duration.ofMillis(200));
+        IllegalStateException error = new IllegalStateException("down");
+
+        activityLog.error(logger, "获取DAU失败:date={}", "2026-02-28", error);
+        activityLog.error(logger, "获取DAU失败:date={}", "2026-02-28", error);
+        activityLog.error(logger, "获取DAU失败:date={}", "2026-02-28", error);
+        Thread.sleep(250);
+        activityLog.error(logger, "获取DAU失败:date={}", "2026-02-28", error);
+
+        verify(logger).error("获取DAU失败:date={}", new Object[]{"2026-02-28", error});
+        verify(logger).error("获取DAU失败:date={} (上次输出后另有{}条相同日志被省略)", new Object[]{"2026-02-28", 2L, error});
+    }
+
+    @Test
+    void disabledLevelIsNotThrottled() {
+        when(logger.isWarnEnabled()).thenReturn(false);
+
+        activityLog.warn(logger, "无效的用户ID:{}", -1L);
+
+        verify(logger, never()).warn("无效的用户ID:{}", new Object[]{-1L});
+    }
+
+    @Test
+    void callsWhileLevelIsDisabledAreNotCountedAsSuppressed() throws InterruptedException {
+        properties.getLogging().setRateLimitInterval(Duration.ofMillis(200));
+        activityLog.warn(logger, "跳过无效的活跃事件: userId={}, date={}", -1L, "2026-02-28");
+
+        when(logger.isWarnEnabled()).thenReturn(false);
+        activityLog.warn(logger, "跳过无效的活跃事件: userId={}, date={}", -2L, "2026-02-28");
+        Thread.sleep(250);
+        when(logger.isWarnEnabled()).thenReturn(true);
+        activityLog.warn(logger, "跳过无效的活跃事件: userId={}, date={}", -3L, "2026-02-28");
+
+        verify(logger).warn("跳过无效的活跃事件: userId={}, date={}", new Object[]{-1L, "2026-02-28"});
+        verify(logger).warn("跳过无效的活跃事件: userId={}, date={}", new Object[]{-3L, "2026-02-28"});
+    }
+}
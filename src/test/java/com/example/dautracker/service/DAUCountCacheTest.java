@@ -0,0 +1,125 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DAUCountCacheTest {
+
+    private static EmbeddedRedis redis;
+
+    private final LocalDate today = LocalDate.of(2026, 3, 10);
+
+    private final LocalDate yesterday = today.minusDays(1);
+
+    private DAUProperties properties;
+
+    private DAUDayClock dayClock;
+
+    private DAUCountCache cache;
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        if (redis != null) {
+            redis.close();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        redis.flush();
+        properties = new DAUProperties();
+        dayClock = TestFixtures.dayClock(properties, TestFixtures.clockAt(today));
+        cache = newCache();
+    }
+
+    @Test
+    void closedDayIsLoadedOnceAndSharedThroughRedis() {
+        assertThat(cache.getCounts(dates(yesterday), constant(5L))).containsExactly(5L);
+        assertThat(cache.getCounts(dates(yesterday), constant(6L))).containsExactly(5L);
+        //其他实例直接读取持久化的总数
+        assertThat(newCache().getCounts(dates(yesterday), constant(6L))).containsExactly(5L);
+        assertThat(loads).hasValue(1);
+
+        assertThat(template().opsForHash().get("dau:total:20260309", "count")).isEqualTo("5");
+        assertThat(template().getExpire("dau:total:20260309")).isPositive();
+    }
+
+    @Test
+    void backfillDuringLoadDiscardsTheStaleTotal() {
+        //统计完成之前另一个实例补录了该日期
+        Function<List<LocalDate>, long[]> racingLoader = dates -> {
+            newCache().invalidate(yesterday);
+            return constant(5L).apply(dates);
+        };
+
+        assertThat(cache.getCounts(dates(yesterday), racingLoader)).containsExactly(5L);
+        assertThat(template().opsForHash().get("dau:total:20260309", "count")).isNull();
+
+        //之后的查询重新统计并写入
+        assertThat(cache.getCounts(dates(yesterday), constant(6L))).containsExactly(6L);
+        assertThat(newCache().getCounts(dates(yesterday), constant(7L))).containsExactly(6L);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void invalidateRemovesPersistedAndLocalTotals() {
+        cache.getCounts(dates(yesterday), constant(5L));
+
+        cache.invalidate(yesterday);
+
+        assertThat(cache.getCounts(dates(yesterday), constant(6L))).containsExactly(6L);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void todayAndExpiredDaysAreNotPersisted() {
+        LocalDate expired = today.minusDays(properties.getExpireDays());
+
+        cache.getCounts(dates(today, expired), constant(5L));
+        cache.getCounts(dates(expired), constant(5L));
+
+        assertThat(loads).hasValue(2);
+        assertThat(template().keys("dau:total:*")).isEmpty();
+    }
+
+    private DAUCountCache newCache() {
+        return TestFixtures.countCache(properties, template(), dayClock);
+    }
+
+    private Function<List<LocalDate>, long[]> constant(long count) {
+        return dates -> {
+            loads.incrementAndGet();
+            long[] counts = new long[dates.size()];
+            Arrays.fill(counts, count);
+            return counts;
+        };
+    }
+
+    private static List<LocalDate> dates(LocalDate... dates) {
+        return Arrays.asList(dates);
+    }
+
+    private static StringRedisTemplate template() {
+        return redis.template();
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DAUDayClockTest {
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2026-02-23T15:30:00Z"));
+
+    private DAUDayClock dayClock;
+
+    @BeforeEach
+    void setUp() {
+        DAUProperties properties = new DAUProperties();
+        properties.getTimeZone().setDefaultZone("UTC");
+        properties.getTimeZone().getRegions().put("apac", "Asia/Shanghai");
+        properties.getTimeZone().getRegions().put("us", "America/Los_Angeles");
+
+        dayClock = new DAUDayClock();
+        ReflectionTestUtils.setField(dayClock, "dauProperties", properties);
+        ReflectionTestUtils.setField(dayClock, "clock", clock);
+        dayClock.afterPropertiesSet();
+    }
+
+    @Test
+    void eachRegionSwitchesAtItsOwnMidnight() {
+        assertThat(dayClock.today()).isEqualTo(LocalDate.of(2026, 2, 23));
+        assertThat(dayClock.today("apac")).isEqualTo(LocalDate.of(2026, 2, 23));
+        assertThat(dayClock.today("us")).isEqualTo(LocalDate.of(2026, 2, 23));
+
+        //上海零点 = UTC 16:00
+        clock.instant = Instant.parse("2026-02-23T16:00:00Z");
+        assertThat(dayClock.today("apac")).isEqualTo(LocalDate.of(2026, 2, 24));
+        assertThat(dayClock.today()).isEqualTo(LocalDate.of(2026, 2, 23));
+        assertThat(dayClock.earliestToday()).isEqualTo(LocalDate.of(2026, 2, 23));
+
+        //UTC零点之后，洛杉矶仍是前一天
+        clock.instant = Instant.parse("2026-02-24T00:00:00Z");
+        assertThat(dayClock.today()).isEqualTo(LocalDate.of(2026, 2, 24));
+        assertThat(dayClock.today("us")).isEqualTo(LocalDate.of(2026, 2, 23));
+        assertThat(dayClock.earliestToday()).isEqualTo(LocalDate.of(2026, 2, 23));
+    }
+
+    @Test
+    void unknownRegionIsRejected() {
+        assertThat(dayClock.isValidRegion(null)).isTrue();
+        assertThat(dayClock.isValidRegion("eu")).isFalse();
+        assertThat(dayClock.today("eu")).isNull();
+        assertThat(dayClock.zone("apac")).isEqualTo(ZoneId.of("Asia/Shanghai"));
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant instant;
+
+        private MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.dautracker.service;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DAUMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private DAUMetrics metrics;
+
+    @BeforeEach
+    void setUp() {
+        metrics = new DAUMetrics();
+        ReflectionTestUtils.setField(metrics, "meterRegistry", registry);
+        metrics.afterPropertiesSet();
+    }
+
+    @Test
+    void operationsAreTimedPerOperation() {
+        Timer.Sample sample = metrics.start();
+        metrics.stop(sample, "record");
+        metrics.stop(metrics.start(), "record");
+        metrics.stop(metrics.start(), "check");
+
+        assertThat(registry.get("dau.operation").tag("operation", "record").timer().count()).isEqualTo(2);
+        assertThat(registry.get("dau.operation").tag("operation", "check").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void redisCallsAreCountedEvenWhenTheyFail() {
+        assertThat(metrics.redis("setbit", () -> true)).isTrue();
+        assertThatThrownBy(() -> metrics.redis("setbit", () -> {
+            throw new RedisConnectionFailureException("down");
+        })).isInstanceOf(RedisConnectionFailureException.class);
+
+        assertThat(registry.get("dau.redis").tag("call", "setbit").timer().count()).isEqualTo(2);
+    }
+
+    @Test
+    void reactiveCallsAreTimedOnTermination() {
+        assertThat(metrics.operation("check", metrics.redis("getbit", Mono.just(true))).block()).isTrue();
+        Mono<Boolean> failed = metrics.redis("getbit", Mono.error(new RedisConnectionFailureException("down")));
+        assertThatThrownBy(failed::block).isInstanceOf(RedisConnectionFailureException.class);
+
+        assertThat(registry.get("dau.redis").tag("call", "getbit").timer().count()).isEqualTo(2);
+        assertThat(registry.get("dau.operation").tag("operation", "check").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void failuresAreTaggedByCause() {
+        metrics.failure("record", new RedisConnectionFailureException("down"));
+        metrics.failure("record", "invalid_user_id");
+        metrics.failure("record", "invalid_user_id");
+
+        assertThat(registry.get("dau.failures").tags("operation", "record", "cause", "RedisConnectionFailureException")
+                .counter().count()).isEqualTo(1);
+        assertThat(registry.get("dau.failures").tags("operation", "record", "cause", "invalid_user_id")
+                .counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void knownFailuresAreRegisteredUpFront() {
+        assertThat(registry.get("dau.failures").tags("operation", "batch_record", "cause", "pipeline_error")
+                .counter().count()).isZero();
+
+        metrics.failure("batch_record", "pipeline_error");
+        metrics.failure("union_invalidate", new RedisConnectionFailureException("down"));
+
+        assertThat(registry.get("dau.failures").tags("operation", "batch_record", "cause", "pipeline_error")
+                .counter().count()).isEqualTo(1);
+        assertThat(registry.get("dau.failures").tags("operation", "union_invalidate", "cause", "RedisConnectionFailureException")
+                .counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void bitsAndBatchSizesAreRecorded() {
+        metrics.bits(3, 7);
+        metrics.bits(0, 1);
+        metrics.batchSize("batch_record", 1000);
+
+        assertThat(registry.get("dau.bits").tag("state", "newly_set").counter().count()).isEqualTo(3);
+        assertThat(registry.get("dau.bits").tag("state", "already_set").counter().count()).isEqualTo(8);
+        assertThat(registry.get("dau.batch.size").tag("operation", "batch_record").summary().totalAmount()).isEqualTo(1000);
+    }
+}
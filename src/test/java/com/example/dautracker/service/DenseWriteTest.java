@@ -0,0 +1,111 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DenseWriteTest {
+
+    private DAUProperties properties;
+
+    private RedisDAUStore redisStore;
+
+    @BeforeEach
+    void setUp() {
+        properties = new DAUProperties();
+        redisStore = TestFixtures.redisStore(properties);
+    }
+
+    @Test
+    void buildsRangeInRedisBitOrderAcrossByteBoundaries() {
+        long[] offsets = {7L, 8L, 15L, 16L, 31L};
+
+        byte[] bytes = redisStore.buildRange(offsets, 0, offsets.length, 0L);
+
+        assertThat(bytes).containsExactly(0x01, 0x81, 0x80, 0x01);
+        //起始字节之前的部分不占用字节块
+        assertThat(redisStore.buildRange(offsets, 1, 4, 1L)).containsExactly(0x81, 0x80);
+    }
+
+    @Test
+    void consecutiveIdsFormOneDenseRange() {
+        long[] offsets = range(1000L, 300);
+        int[] bounds = new int[offsets.length + 1];
+        boolean[] dense = new boolean[offsets.length];
+
+        int count = redisStore.planRanges(offsets, 0, offsets.length, bounds, dense);
+
+        assertThat(count).isEqualTo(1);
+        assertThat(bounds[0]).isZero();
+        assertThat(bounds[1]).isEqualTo(300);
+        assertThat(dense[0]).isTrue();
+    }
+
+    @Test
+    void alternatingRunsMergeAdjacentSparseRanges() {
+        //稀疏的ID之间相距超过 max-range-bytes，各自成为一个窗口后合并为一段SETBIT
+        long gap = properties.getDenseWrite().getMaxRangeBytes() * 8L * 2;
+        long[] dense1 = range(0L, 300);
+        long[] sparse = {gap, gap * 2, gap * 3};
+        long[] dense2 = range(gap * 4, 300);
+        long[] offsets = concat(dense1, sparse, dense2);
+        int[] bounds = new int[offsets.length + 1];
+        boolean[] dense = new boolean[offsets.length];
+
+        int count = redisStore.planRanges(offsets, 0, offsets.length, bounds, dense);
+
+        assertThat(count).isEqualTo(3);
+        assertThat(Arrays.copyOf(bounds, count + 1)).containsExactly(0, 300, 303, 603);
+        assertThat(Arrays.copyOf(dense, count)).containsExactly(true, false, true);
+    }
+
+    @Test
+    void tooFewIdsStaySparse() {
+        long[] offsets = range(0L, properties.getDenseWrite().getMinIdsPerRange() - 1);
+        int[] bounds = new int[offsets.length + 1];
+        boolean[] dense = new boolean[offsets.length];
+
+        assertThat(redisStore.planRanges(offsets, 0, offsets.length, bounds, dense)).isEqualTo(1);
+        assertThat(dense[0]).isFalse();
+    }
+
+    @Test
+    void shardedOffsetsUseShardLocalBytes() {
+        properties.getShard().setEnabled(true);
+        long shardBase = 2 * properties.getShard().getShardSize();
+        long[] offsets = range(shardBase + 8, 300);
+        int[] bounds = new int[offsets.length + 1];
+        boolean[] dense = new boolean[offsets.length];
+
+        assertThat(redisStore.planRanges(offsets, 0, offsets.length, bounds, dense)).isEqualTo(1);
+        assertThat(dense[0]).isTrue();
+
+        byte[] bytes = redisStore.buildRange(offsets, 0, offsets.length, 1L);
+        assertThat(bytes).hasSize(38);
+        assertThat(bytes[0]).isEqualTo((byte) 0xFF);
+        //300个偏移量从分片内第8位开始，最后一个字节只有前4位
+        assertThat(bytes[37]).isEqualTo((byte) 0xF0);
+    }
+
+    private static long[] range(long start, int count) {
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = start + i;
+        }
+        return values;
+    }
+
+    private static long[] concat(long[]... parts) {
+        long[] values = new long[Arrays.stream(parts).mapToInt(p -> p.length).sum()];
+        int position = 0;
+        for (long[] part : parts) {
+            System.arraycopy(part, 0, values, position, part.length);
+            position += part.length;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.dautracker.service;
+
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+/**
+ * 测试用的嵌入式Redis，在随机端口启动，测试类的 @BeforeAll/@AfterAll 中启动和关闭
+ */
+final class EmbeddedRedis implements AutoCloseable {
+
+    private final RedisServer redisServer;
+
+    private final LettuceConnectionFactory connectionFactory;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final RedisTemplate<String, Object> objectTemplate;
+
+    private EmbeddedRedis(RedisServer redisServer, LettuceConnectionFactory connectionFactory) {
+        this.redisServer = redisServer;
+        this.connectionFactory = connectionFactory;
+        this.redisTemplate = new StringRedisTemplate(connectionFactory);
+
+        //与 RedisConfig 中的 RedisTemplate 配置一致
+        objectTemplate = new RedisTemplate<>();
+        objectTemplate.setConnectionFactory(connectionFactory);
+        objectTemplate.setKeySerializer(new StringRedisSerializer());
+        objectTemplate.setHashKeySerializer(new StringRedisSerializer());
+        objectTemplate.afterPropertiesSet();
+    }
+
+    static EmbeddedRedis start() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        RedisServer redisServer = new RedisServer(port);
+        redisServer.start();
+
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory("localhost", port);
+        connectionFactory.afterPropertiesSet();
+        return new EmbeddedRedis(redisServer, connectionFactory);
+    }
+
+    StringRedisTemplate template() {
+        return redisTemplate;
+    }
+
+    RedisTemplate<String, Object> objectTemplate() {
+        return objectTemplate;
+    }
+
+    void flush() {
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.serverCommands().flushDb();
+            return null;
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+}
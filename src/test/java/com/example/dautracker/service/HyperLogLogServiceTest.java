@@ -0,0 +1,99 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 在嵌入式Redis上验证滚动窗口合并结果的缓存和失效
+ */
+class HyperLogLogServiceTest {
+
+    private static final String METRIC = "device";
+
+    private static EmbeddedRedis redis;
+
+    private final LocalDate today = LocalDate.of(2026, 3, 10);
+
+    private final LocalDate yesterday = today.minusDays(1);
+
+    private StringRedisTemplate redisTemplate;
+
+    private DAUKeyLayout keyLayout;
+
+    private HyperLogLogService service;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        if (redis != null) {
+            redis.close();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        redis.flush();
+        redisTemplate = redis.template();
+
+        DAUProperties properties = new DAUProperties();
+        properties.setExpireDays(7);
+        keyLayout = TestFixtures.keyLayout(properties);
+        service = TestFixtures.hyperLogLogService(properties, redisTemplate,
+                TestFixtures.dayClock(properties, TestFixtures.clockAt(today)));
+
+        service.batchRecord(METRIC, Arrays.asList("a", "b"), yesterday.minusDays(2));
+        service.batchRecord(METRIC, Arrays.asList("b", "c"), yesterday.minusDays(1));
+        service.batchRecord(METRIC, Arrays.asList("d"), yesterday);
+    }
+
+    @Test
+    void closedWindowReusesMergedKey() {
+        assertThat(service.countRolling(METRIC, yesterday, 3)).isEqualTo(4L);
+
+        String mergedKey = keyLayout.hllUnionKey(METRIC, yesterday.minusDays(2), yesterday);
+        assertThat(redisTemplate.getExpire(mergedKey)).isGreaterThan(3600L);
+
+        //结果直接来自缓存的合并Key，不再读取每天的Key
+        redisTemplate.delete(keyLayout.hllKey(METRIC, yesterday));
+        assertThat(service.countRolling(METRIC, yesterday, 3)).isEqualTo(4L);
+    }
+
+    @Test
+    void backfillIntoClosedDayDropsCoveringMergedKeys() {
+        assertThat(service.countRolling(METRIC, yesterday, 3)).isEqualTo(4L);
+        assertThat(service.countRolling(METRIC, today, 3)).isEqualTo(3L);
+        assertThat(service.countRolling(METRIC, yesterday.minusDays(2), 2)).isEqualTo(2L);
+
+        service.record(METRIC, "e", yesterday.minusDays(1));
+
+        assertThat(redisTemplate.hasKey(keyLayout.hllUnionKey(METRIC, yesterday.minusDays(2), yesterday))).isFalse();
+        assertThat(redisTemplate.hasKey(keyLayout.hllUnionKey(METRIC, yesterday.minusDays(1), yesterday))).isFalse();
+        //不覆盖补录日期的区间保持缓存
+        assertThat(redisTemplate.hasKey(keyLayout.hllUnionKey(METRIC, yesterday.minusDays(3), yesterday.minusDays(2)))).isTrue();
+        assertThat(service.countRolling(METRIC, yesterday, 3)).isEqualTo(5L);
+        assertThat(service.countRolling(METRIC, today, 3)).isEqualTo(4L);
+    }
+
+    @Test
+    void duplicateWriteKeepsMergedKey() {
+        assertThat(service.countRolling(METRIC, yesterday, 3)).isEqualTo(4L);
+
+        service.record(METRIC, "b", yesterday.minusDays(1));
+
+        assertThat(redisTemplate.hasKey(keyLayout.hllUnionKey(METRIC, yesterday.minusDays(2), yesterday))).isTrue();
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MmapDAUStoreTest {
+
+    private final LocalDate today = LocalDate.now();
+
+    private final LocalDate yesterday = today.minusDays(1);
+
+    @TempDir
+    Path dataDir;
+
+    private DAUProperties properties;
+
+    private MmapDAUStore store;
+
+    @BeforeEach
+    void setUp() {
+        properties = new DAUProperties();
+        properties.getStore().getMmap().setDataDir(dataDir.toString());
+        properties.getStore().getMmap().setMaxOffset(1L << 20);
+        properties.getStore().getMmap().setSegmentSize(4096);
+        store = newStore();
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.destroy();
+    }
+
+    @Test
+    void countsUnionsAndIntersections() {
+        assertThat(store.setActive(yesterday, 1L)).isFalse();
+        assertThat(store.setActive(yesterday, 1L)).isTrue();
+        assertThat(store.setActive(yesterday, new long[]{2L, 3L, 100_000L}, 3)).isEqualTo(3);
+        assertThat(store.setActive(today, new long[]{3L, 100_000L, 5L, 5L}, 4)).isEqualTo(3);
+
+        assertThat(store.isActive(yesterday, 100_000L)).isTrue();
+        assertThat(store.isActive(today, 1L)).isFalse();
+        assertThat(store.isValidOffset(1L << 20)).isFalse();
+        assertThat(store.count(Arrays.asList(yesterday, today, today.plusDays(1)))).containsExactly(4L, 3L, 0L);
+        assertThat(store.unionCount(Arrays.asList(yesterday, today))).isEqualTo(5L);
+        assertThat(store.intersectCounts(Collections.singletonList(new LocalDate[]{yesterday, today}))).containsExactly(2L);
+        //只映射了写入过的段
+        assertThat(store.memoryUsage(yesterday)).isEqualTo(2 * 4096L);
+    }
+
+    @Test
+    void usesRedisBitOrderAndSurvivesReopen() throws Exception {
+        store.setActive(yesterday, new long[]{0L, 9L, 40_000L}, 3);
+        store.destroy();
+
+        byte[] data = Files.readAllBytes(dataDir.resolve(yesterday.format(DateTimeFormatter.ofPattern("yyyyMMdd")) + ".bitmap"));
+        assertThat(data[0]).isEqualTo((byte) 0x80);
+        assertThat(data[1]).isEqualTo((byte) 0x40);
+
+        store = newStore();
+        assertThat(store.count(Collections.singletonList(yesterday))).containsExactly(3L);
+        assertThat(store.isActive(yesterday, 40_000L)).isTrue();
+        assertThat(store.setActive(yesterday, 9L)).isTrue();
+    }
+
+    @Test
+    void readsOfExpiredDaysDoNotReopenFiles() throws Exception {
+        LocalDate expired = today.minusDays(properties.getExpireDays());
+        store.setActive(expired, 1L);
+        store.destroy();
+        Path file = dataDir.resolve(expired.format(DateTimeFormatter.ofPattern("yyyyMMdd")) + ".bitmap");
+        long size = Files.size(file);
+
+        store = newStore();
+        assertThat(store.count(Collections.singletonList(expired))).containsExactly(0L);
+        assertThat(store.isActive(expired, 1L)).isFalse();
+        assertThat((Map<?, ?>) ReflectionTestUtils.getField(store, "days")).isEmpty();
+        assertThat(Files.size(file)).isEqualTo(size);
+    }
+
+    @Test
+    void rejectsSegmentSizeThatIsNotMultipleOfEight() {
+        properties.getStore().setType(DAUProperties.StoreType.MMAP);
+        properties.getStore().getMmap().setSegmentSize(4095);
+
+        assertThatThrownBy(() -> newStore().afterPropertiesSet()).isInstanceOf(IllegalStateException.class);
+    }
+
+    private MmapDAUStore newStore() {
+        MmapDAUStore mmapStore = new MmapDAUStore();
+        ReflectionTestUtils.setField(mmapStore, "dauProperties", properties);
+        return mmapStore;
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 超出数据保留期的日期不会写入，也不计入成功数
+ */
+class OutOfRetentionWriteTest {
+
+    private final LocalDate today = LocalDate.of(2026, 3, 10);
+
+    /**
+     * expire-days 为7时保留期为 03-04 ~ 03-10
+     */
+    private final LocalDate expired = LocalDate.of(2026, 3, 3);
+
+    private final LocalDate retained = LocalDate.of(2026, 3, 4);
+
+    private RedisTemplate<String, Object> redisTemplate;
+
+    private DAUService dauService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        DAUProperties properties = new DAUProperties();
+        properties.setExpireDays(7);
+
+        //每条SETBIT返回该位原来未置位
+        redisTemplate = mock(RedisTemplate.class);
+        when(redisTemplate.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            RedisConnection connection = mock(RedisConnection.class);
+            ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection);
+            List<Object> results = new ArrayList<>();
+            mockingDetails(connection).getInvocations().forEach(call -> results.add(Boolean.FALSE));
+            return results;
+        });
+
+        dauService = TestFixtures.dauService(properties)
+                .redisTemplate(redisTemplate)
+                .dayClock(TestFixtures.dayClock(properties, TestFixtures.clockAt(today)))
+                .build();
+    }
+
+    @Test
+    void expiredDateIsReportedAsFailed() {
+        List<Long> retryable = new ArrayList<>();
+
+        assertThat(dauService.recordUserActive(1L, expired)).isFalse();
+        assertThat(dauService.recordUserActiveAndCount(1L, expired)).isNull();
+        assertThat(dauService.batchRecordUserActive(new long[]{1L, 2L}, 2, expired, retryable::add)).isZero();
+
+        //永远无法写入，不报告为可重试
+        assertThat(retryable).isEmpty();
+        verifyNoInteractions(redisTemplate);
+    }
+
+    @Test
+    void expiredEventsAreSkipped() {
+        long[] ids = {1L, 2L, 3L};
+        LocalDate[] dates = {expired, retained, retained};
+
+        assertThat(dauService.recordEvents(ids, dates, ids.length)).isEqualTo(2);
+        assertThat(dauService.recordEvents(new long[]{1L}, new LocalDate[]{expired}, 1)).isZero();
+        assertThat(dauService.batchRecordUserActive(new long[]{1L}, 1, retained)).isEqualTo(1);
+    }
+}
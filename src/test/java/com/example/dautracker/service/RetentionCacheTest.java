@@ -0,0 +1,45 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RetentionCacheTest {
+
+    private final LocalDate cohort = LocalDate.of(2026, 2, 1);
+
+    private RetentionCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = TestFixtures.retentionCache(new DAUProperties());
+    }
+
+    @Test
+    void writeToTargetDayInvalidatesOnlyThatCell() {
+        cache.put(cohort, 1, 10L);
+        cache.put(cohort, 7, 5L);
+
+        cache.invalidate(cohort.plusDays(7));
+
+        assertThat(cache.get(cohort, 1)).isEqualTo(10L);
+        assertThat(cache.get(cohort, 7)).isNull();
+    }
+
+    @Test
+    void writeToCohortDayInvalidatesTheWholeRow() {
+        cache.put(cohort, 1, 10L);
+        cache.put(cohort, 7, 5L);
+        cache.put(cohort.plusDays(1), 1, 8L);
+
+        cache.invalidate(cohort);
+
+        assertThat(cache.get(cohort, 1)).isNull();
+        assertThat(cache.get(cohort, 7)).isNull();
+        assertThat(cache.get(cohort.plusDays(1), 1)).isEqualTo(8L);
+    }
+}
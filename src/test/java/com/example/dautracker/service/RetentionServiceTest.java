@@ -0,0 +1,92 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import com.example.dautracker.model.RetentionStatistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class RetentionServiceTest {
+
+    private final LocalDate today = LocalDate.of(2026, 3, 10);
+
+    private DAUProperties properties;
+
+    private DAUStore store;
+
+    private RetentionCache retentionCache;
+
+    private RetentionService retentionService;
+
+    @BeforeEach
+    void setUp() {
+        properties = new DAUProperties();
+        properties.setExpireDays(7);
+
+        DAUDayClock dayClock = TestFixtures.dayClock(properties, TestFixtures.clockAt(today));
+        retentionCache = TestFixtures.retentionCache(properties);
+
+        //每组交集都返回3人
+        store = mock(DAUStore.class);
+        when(store.intersectCounts(anyList())).thenAnswer(i -> {
+            long[] counts = new long[i.getArgument(0, List.class).size()];
+            Arrays.fill(counts, 3L);
+            return counts;
+        });
+        DAUService dauService = mock(DAUService.class);
+        when(dauService.getStore()).thenReturn(store);
+        when(dauService.getDauCountRange(any(LocalDate.class), any(LocalDate.class))).thenReturn(Collections.emptyMap());
+
+        retentionService = new RetentionService();
+        ReflectionTestUtils.setField(retentionService, "dauService", dauService);
+        ReflectionTestUtils.setField(retentionService, "dauProperties", properties);
+        ReflectionTestUtils.setField(retentionService, "dayClock", dayClock);
+        ReflectionTestUtils.setField(retentionService, "retentionCache", retentionCache);
+    }
+
+    @Test
+    void retentionDaysMustFitInsideExpireDays() {
+        assertThat(retentionService.isValidRetentionDays(Arrays.asList(1, 6))).isTrue();
+        assertThat(retentionService.isValidRetentionDays(Arrays.asList(1, 7))).isFalse();
+        assertThat(retentionService.isValidRetentionDays(Collections.singletonList(0))).isFalse();
+
+        assertThat(retentionService.getDefaultDays()).containsExactly(1, 6);
+        properties.setExpireDays(40);
+        assertThat(retentionService.getDefaultDays()).containsExactly(1, 7, 30);
+    }
+
+    @Test
+    void expiredCohortsAreNeitherComputedNorCached() {
+        //保留期为 03-04 ~ 03-10，03-02 和 03-03 的Bitmap已过期
+        LocalDate expired = LocalDate.of(2026, 3, 2);
+        LocalDate retained = LocalDate.of(2026, 3, 4);
+
+        RetentionStatistics stats = retentionService.getRetentionMatrix(expired, retained, Collections.singletonList(1));
+
+        assertThat(stats.getRetained().get("2026-03-02").get(1)).isNull();
+        assertThat(stats.getRetained().get("2026-03-03").get(1)).isNull();
+        assertThat(stats.getRetained().get("2026-03-04").get(1)).isEqualTo(3L);
+        verify(store).intersectCounts(argThat(pairs -> pairs.size() == 1 && pairs.get(0)[0].equals(retained)));
+        assertThat(retentionCache.get(expired, 1)).isNull();
+        assertThat(retentionCache.get(retained, 1)).isEqualTo(3L);
+    }
+
+    @Test
+    void invalidDaysAreRejectedByTheService() {
+        RetentionStatistics stats = retentionService.getRetentionMatrix(today.minusDays(3), today.minusDays(1),
+                Collections.singletonList(7));
+
+        assertThat(stats.getRetained()).isNull();
+        verifyNoInteractions(store);
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RoaringDAUStoreTest {
+
+    private final LocalDate today = LocalDate.now();
+
+    private final LocalDate yesterday = today.minusDays(1);
+
+    @TempDir
+    Path snapshotDir;
+
+    private DAUProperties properties;
+
+    private RoaringDAUStore store;
+
+    @BeforeEach
+    void setUp() {
+        properties = new DAUProperties();
+        properties.getStore().getRoaring().setSnapshot(DAUProperties.SnapshotTarget.DISK);
+        properties.getStore().getRoaring().setSnapshotDir(snapshotDir.toString());
+        store = newStore();
+    }
+
+    @Test
+    void countsUnionsAndIntersections() {
+        assertThat(store.setActive(yesterday, 1L)).isFalse();
+        assertThat(store.setActive(yesterday, 1L)).isTrue();
+        assertThat(store.setActive(yesterday, new long[]{2L, 3L, 1L << 40}, 3)).isEqualTo(3);
+        assertThat(store.setActive(today, new long[]{3L, 1L << 40, 5L, 5L}, 4)).isEqualTo(3);
+
+        assertThat(store.isActive(yesterday, 1L << 40)).isTrue();
+        assertThat(store.isActive(today, 1L)).isFalse();
+        assertThat(store.count(Arrays.asList(yesterday, today))).containsExactly(4L, 3L);
+        assertThat(store.unionCount(Arrays.asList(yesterday, today))).isEqualTo(5L);
+        assertThat(store.intersectCounts(Collections.singletonList(new LocalDate[]{yesterday, today}))).containsExactly(2L);
+    }
+
+    @Test
+    void restoresFromSnapshot() {
+        store.setActive(yesterday, new long[]{7L, 8L, 1L << 35}, 3);
+        store.snapshot();
+
+        RoaringDAUStore restored = newStore();
+        assertThat(restored.count(Collections.singletonList(yesterday))).containsExactly(3L);
+        assertThat(restored.isActive(yesterday, 1L << 35)).isTrue();
+        assertThat(restored.setActive(yesterday, 7L)).isTrue();
+    }
+
+    @Test
+    void removesExpiredDiskSnapshots() throws Exception {
+        Path expired = snapshotDir.resolve(today.minusDays(properties.getExpireDays()).format(DateTimeFormatter.BASIC_ISO_DATE) + ".roaring");
+        Path unrelated = snapshotDir.resolve("backup.roaring");
+        Files.write(expired, new byte[]{1});
+        Files.write(unrelated, new byte[]{1});
+        store.setActive(yesterday, 1L);
+
+        store.snapshot();
+
+        assertThat(expired).doesNotExist();
+        assertThat(unrelated).exists();
+        assertThat(newStore().count(Collections.singletonList(yesterday))).containsExactly(1L);
+    }
+
+    @Test
+    void readsOfMissingDaysAreNotCached() {
+        LocalDate future = today.plusDays(30);
+        LocalDate expired = today.minusDays(properties.getExpireDays());
+
+        assertThat(store.isActive(future, 1L)).isFalse();
+        assertThat(store.count(Arrays.asList(future, expired))).containsExactly(0L, 0L);
+        assertThat(store.unionCount(Arrays.asList(yesterday, future))).isZero();
+        assertThat(store.intersectCounts(Collections.singletonList(new LocalDate[]{yesterday, future}))).containsExactly(0L);
+        assertThat(store.memoryUsage(future)).isZero();
+        assertThat((Map<?, ?>) ReflectionTestUtils.getField(store, "days")).isEmpty();
+
+        store.setActive(future, 1L);
+        assertThat(store.isActive(future, 1L)).isTrue();
+    }
+
+    private RoaringDAUStore newStore() {
+        RoaringDAUStore roaringStore = new RoaringDAUStore();
+        ReflectionTestUtils.setField(roaringStore, "dauProperties", properties);
+        return roaringStore;
+    }
+}
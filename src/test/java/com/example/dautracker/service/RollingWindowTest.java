@@ -0,0 +1,101 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.IOException;
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 在嵌入式Redis上验证滚动窗口的范围校验和并集缓存
+ */
+class RollingWindowTest {
+
+    private static EmbeddedRedis redis;
+
+    private final LocalDate today = LocalDate.of(2026, 3, 10);
+
+    private final LocalDate yesterday = today.minusDays(1);
+
+    private StringRedisTemplate redisTemplate;
+
+    private DAUKeyLayout keyLayout;
+
+    private DAUService dauService;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        if (redis != null) {
+            redis.close();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        redis.flush();
+        redisTemplate = redis.template();
+
+        DAUProperties properties = new DAUProperties();
+        properties.setExpireDays(7);
+        keyLayout = TestFixtures.keyLayout(properties);
+        dauService = TestFixtures.dauService(properties)
+                .redisTemplate(redis.objectTemplate())
+                .stringRedisTemplate(redisTemplate)
+                .dayClock(TestFixtures.dayClock(properties, TestFixtures.clockAt(today)))
+                .build();
+
+        //03-04 ~ 03-09 每天一个用户，03-08 再加上 03-04 的用户
+        for (int i = 1; i <= 6; i++) {
+            dauService.recordUserActive((long) i, today.minusDays(7 - i));
+        }
+        dauService.recordUserActive(1L, today.minusDays(2));
+    }
+
+    @Test
+    void windowsOutsideRetentionAreRejected() {
+        assertThat(dauService.getRollingActiveCount(yesterday, 0)).isZero();
+        assertThat(dauService.getRollingActiveCount(yesterday, 8)).isZero();
+        assertThat(redisTemplate.keys("dau:union:*")).isEmpty();
+
+        assertThat(dauService.getRollingActiveCount(yesterday, 7)).isEqualTo(6L);
+    }
+
+    @Test
+    void closedWindowReusesCachedUnion() {
+        assertThat(dauService.getRollingActiveCount(yesterday, 3)).isEqualTo(4L);
+
+        String resultKey = keyLayout.unionKey(yesterday.minusDays(2), yesterday, 0L);
+        String prefixKey = keyLayout.unionKey(yesterday.minusDays(2), yesterday.minusDays(1), 0L);
+        assertThat(redisTemplate.getExpire(resultKey)).isGreaterThan(3600L);
+        assertThat(redisTemplate.getExpire(prefixKey)).isGreaterThan(3600L);
+
+        //结果直接来自缓存的并集，不再读取每天的Bitmap
+        redisTemplate.delete(keyLayout.shardKey(yesterday, 0L));
+        assertThat(dauService.getRollingActiveCount(yesterday, 3)).isEqualTo(4L);
+    }
+
+    @Test
+    void backfillIntoClosedDayDropsCoveringUnions() {
+        assertThat(dauService.getRollingActiveCount(yesterday, 3)).isEqualTo(4L);
+        assertThat(dauService.getRollingActiveCount(yesterday.minusDays(4), 2)).isEqualTo(2L);
+
+        dauService.recordUserActive(100L, yesterday.minusDays(1));
+
+        assertThat(redisTemplate.hasKey(keyLayout.unionKey(yesterday.minusDays(2), yesterday, 0L))).isFalse();
+        assertThat(redisTemplate.hasKey(keyLayout.unionKey(yesterday.minusDays(2), yesterday.minusDays(1), 0L))).isFalse();
+        //不覆盖补录日期的窗口保持缓存
+        assertThat(redisTemplate.hasKey(keyLayout.unionKey(yesterday.minusDays(5), yesterday.minusDays(4), 0L))).isTrue();
+        assertThat(dauService.getRollingActiveCount(yesterday, 3)).isEqualTo(5L);
+    }
+}
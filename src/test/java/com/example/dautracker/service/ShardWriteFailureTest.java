@@ -0,0 +1,102 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class ShardWriteFailureTest {
+
+    private final LocalDate date = LocalDate.of(2026, 3, 1);
+
+    private DAUCountCache countCache;
+
+    private DAUService dauService;
+
+    private long shardSize;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        DAUProperties properties = new DAUProperties();
+        properties.getShard().setEnabled(true);
+        shardSize = properties.getShard().getShardSize();
+
+        KeyExpireTracker expireTracker = mock(KeyExpireTracker.class);
+        when(expireTracker.isExpireSet(any(LocalDate.class), anyString())).thenReturn(true);
+        countCache = mock(DAUCountCache.class);
+
+        //第1个分片的Pipeline抛出连接异常，其他分片每条SETBIT返回该位原来未置位
+        RedisTemplate<String, Object> redisTemplate = mock(RedisTemplate.class);
+        byte[] failingKey = TestFixtures.keyLayout(properties).rawShardKey(date, 1);
+        when(redisTemplate.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            RedisConnection connection = mock(RedisConnection.class);
+            ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection);
+            List<Object> results = new ArrayList<>();
+            for (Object[] args : setBitCalls(connection)) {
+                if (Arrays.equals((byte[]) args[0], failingKey)) {
+                    throw new RedisConnectionFailureException("shard 1 down");
+                }
+                results.add(Boolean.FALSE);
+            }
+            return results;
+        });
+
+        //date 已结束，写入有新增活跃时清除缓存
+        dauService = TestFixtures.dauService(properties)
+                .redisTemplate(redisTemplate)
+                .expireTracker(expireTracker)
+                .countCache(countCache)
+                .dayClock(TestFixtures.dayClock(properties, TestFixtures.clockAt(date.plusDays(1))))
+                .build();
+    }
+
+    @Test
+    void failingShardOnlyFailsItsOwnIds() {
+        long[] ids = {1L, 2L, 3L, shardSize + 1, shardSize + 2, 2 * shardSize + 1};
+        List<Long> retryable = new ArrayList<>();
+
+        int recorded = dauService.batchRecordUserActive(ids, ids.length, date, retryable::add);
+
+        assertThat(recorded).isEqualTo(4);
+        assertThat(retryable).containsExactlyInAnyOrder(shardSize + 1, shardSize + 2);
+        //成功的分片有新增活跃，已结束日期的缓存照常失效
+        verify(countCache).invalidate(date);
+    }
+
+    @Test
+    void eventsOnHealthyShardsAreStillRecorded() {
+        LocalDate other = date.minusDays(1);
+        long[] ids = {1L, shardSize + 1, 5L};
+        LocalDate[] dates = {date, date, other};
+
+        int recorded = dauService.recordEvents(ids, dates, ids.length);
+
+        assertThat(recorded).isEqualTo(2);
+        verify(countCache).invalidate(date);
+        verify(countCache).invalidate(other);
+    }
+
+    private static List<Object[]> setBitCalls(RedisConnection connection) {
+        List<Object[]> calls = new ArrayList<>();
+        mockingDetails(connection).getInvocations().forEach(invocation -> {
+            if (invocation.getMethod().getName().equals("setBit")) {
+                calls.add(invocation.getArguments());
+            }
+        });
+        return calls;
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.concurrent.Executor;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * 单元测试共用的组件构造：按测试需要替换依赖，其余依赖使用传入的配置或mock
+ */
+final class TestFixtures {
+
+    private TestFixtures() {
+    }
+
+    /**
+     * 固定在某天中午(UTC)的时钟
+     */
+    static Clock clockAt(LocalDate date) {
+        return Clock.fixed(date.atTime(12, 0).toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+    }
+
+    static DAUKeyLayout keyLayout(DAUProperties properties) {
+        DAUKeyLayout keyLayout = new DAUKeyLayout();
+        ReflectionTestUtils.setField(keyLayout, "dauProperties", properties);
+        return keyLayout;
+    }
+
+    static DAUDayClock dayClock(DAUProperties properties) {
+        return dayClock(properties, Clock.systemUTC());
+    }
+
+    static DAUDayClock dayClock(DAUProperties properties, Clock clock) {
+        DAUDayClock dayClock = new DAUDayClock();
+        ReflectionTestUtils.setField(dayClock, "dauProperties", properties);
+        ReflectionTestUtils.setField(dayClock, "clock", clock);
+        dayClock.afterPropertiesSet();
+        return dayClock;
+    }
+
+    static DAUMetrics metrics() {
+        DAUMetrics metrics = new DAUMetrics();
+        ReflectionTestUtils.setField(metrics, "meterRegistry", new SimpleMeterRegistry());
+        metrics.afterPropertiesSet();
+        return metrics;
+    }
+
+    static DAUActivityLog activityLog(DAUProperties properties) {
+        DAUActivityLog activityLog = new DAUActivityLog();
+        ReflectionTestUtils.setField(activityLog, "dauProperties", properties);
+        ReflectionTestUtils.setField(activityLog, "meterRegistry", new SimpleMeterRegistry());
+        return activityLog;
+    }
+
+    static RetentionCache retentionCache(DAUProperties properties) {
+        RetentionCache cache = new RetentionCache();
+        ReflectionTestUtils.setField(cache, "dauProperties", properties);
+        cache.afterPropertiesSet();
+        return cache;
+    }
+
+    static DAUCountCache countCache(DAUProperties properties, StringRedisTemplate redisTemplate, DAUDayClock dayClock) {
+        DAUCountCache cache = new DAUCountCache();
+        ReflectionTestUtils.setField(cache, "stringRedisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(cache, "dauProperties", properties);
+        ReflectionTestUtils.setField(cache, "keyLayout", keyLayout(properties));
+        ReflectionTestUtils.setField(cache, "dayClock", dayClock);
+        cache.afterPropertiesSet();
+        return cache;
+    }
+
+    static UserIdMapper userIdMapper(DAUProperties properties, StringRedisTemplate redisTemplate) {
+        UserIdMapper mapper = new UserIdMapper();
+        ReflectionTestUtils.setField(mapper, "stringRedisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(mapper, "dauProperties", properties);
+        mapper.afterPropertiesSet();
+        return mapper;
+    }
+
+    static HyperLogLogService hyperLogLogService(DAUProperties properties, StringRedisTemplate redisTemplate, DAUDayClock dayClock) {
+        HyperLogLogService service = new HyperLogLogService();
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(service, "dauProperties", properties);
+        ReflectionTestUtils.setField(service, "keyLayout", keyLayout(properties));
+        ReflectionTestUtils.setField(service, "expireTracker", mock(KeyExpireTracker.class));
+        ReflectionTestUtils.setField(service, "dayClock", dayClock);
+        ReflectionTestUtils.setField(service, "activityLog", activityLog(properties));
+        return service;
+    }
+
+    static DAUServiceBuilder dauService(DAUProperties properties) {
+        return new DAUServiceBuilder(properties);
+    }
+
+    /**
+     * 依赖都是mock的 RedisDAUStore
+     */
+    static RedisDAUStore redisStore(DAUProperties properties) {
+        return dauService(properties).buildRedisStore();
+    }
+
+    /**
+     * DAUService 和它选用的 RedisDAUStore 的依赖默认都是mock，只有Key布局、指标和日志使用真实实现
+     */
+    @SuppressWarnings("unchecked")
+    static final class DAUServiceBuilder {
+        private final DAUProperties properties;
+        private RedisTemplate<String, Object> redisTemplate = mock(RedisTemplate.class);
+        private StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        private UserIdMapper userIdMapper = mock(UserIdMapper.class);
+        private KeyExpireTracker expireTracker = mock(KeyExpireTracker.class);
+        private DAUCountCache countCache = mock(DAUCountCache.class);
+        private RetentionCache retentionCache = mock(RetentionCache.class);
+        private DAUDayClock dayClock;
+
+        private DAUServiceBuilder(DAUProperties properties) {
+            this.properties = properties;
+        }
+
+        DAUServiceBuilder redisTemplate(RedisTemplate<String, Object> redisTemplate) {
+            this.redisTemplate = redisTemplate;
+            return this;
+        }
+
+        DAUServiceBuilder stringRedisTemplate(StringRedisTemplate stringRedisTemplate) {
+            this.stringRedisTemplate = stringRedisTemplate;
+            return this;
+        }
+
+        DAUServiceBuilder expireTracker(KeyExpireTracker expireTracker) {
+            this.expireTracker = expireTracker;
+            return this;
+        }
+
+        DAUServiceBuilder countCache(DAUCountCache countCache) {
+            this.countCache = countCache;
+            return this;
+        }
+
+        DAUServiceBuilder retentionCache(RetentionCache retentionCache) {
+            this.retentionCache = retentionCache;
+            return this;
+        }
+
+        DAUServiceBuilder dayClock(DAUDayClock dayClock) {
+            this.dayClock = dayClock;
+            return this;
+        }
+
+        DAUService build() {
+            if (dayClock == null) {
+                dayClock = TestFixtures.dayClock(properties);
+            }
+            DAUMetrics metrics = metrics();
+            DAUActivityLog activityLog = activityLog(properties);
+
+            DAUService dauService = new DAUService();
+            ReflectionTestUtils.setField(dauService, "dauProperties", properties);
+            ReflectionTestUtils.setField(dauService, "redisStore", buildRedisStore(metrics, activityLog));
+            ReflectionTestUtils.setField(dauService, "hyperLogLogStore", mock(HyperLogLogDAUStore.class));
+            ReflectionTestUtils.setField(dauService, "roaringStore", mock(RoaringDAUStore.class));
+            ReflectionTestUtils.setField(dauService, "mmapStore", mock(MmapDAUStore.class));
+            ReflectionTestUtils.setField(dauService, "hyperLogLogService", mock(HyperLogLogService.class));
+            ReflectionTestUtils.setField(dauService, "retentionCache", retentionCache);
+            ReflectionTestUtils.setField(dauService, "dayClock", dayClock);
+            ReflectionTestUtils.setField(dauService, "metrics", metrics);
+            ReflectionTestUtils.setField(dauService, "activityLog", activityLog);
+            dauService.afterPropertiesSet();
+            return dauService;
+        }
+
+        RedisDAUStore buildRedisStore() {
+            if (dayClock == null) {
+                dayClock = TestFixtures.dayClock(properties);
+            }
+            return buildRedisStore(metrics(), activityLog(properties));
+        }
+
+        private RedisDAUStore buildRedisStore(DAUMetrics metrics, DAUActivityLog activityLog) {
+            RedisDAUStore store = new RedisDAUStore();
+            ReflectionTestUtils.setField(store, "redisTemplate", redisTemplate);
+            ReflectionTestUtils.setField(store, "stringRedisTemplate", stringRedisTemplate);
+            ReflectionTestUtils.setField(store, "dauProperties", properties);
+            ReflectionTestUtils.setField(store, "userIdMapper", userIdMapper);
+            ReflectionTestUtils.setField(store, "keyLayout", keyLayout(properties));
+            ReflectionTestUtils.setField(store, "expireTracker", expireTracker);
+            ReflectionTestUtils.setField(store, "countCache", countCache);
+            ReflectionTestUtils.setField(store, "dauFanOutExecutor", (Executor) Runnable::run);
+            ReflectionTestUtils.setField(store, "dayClock", dayClock);
+            ReflectionTestUtils.setField(store, "metrics", metrics);
+            ReflectionTestUtils.setField(store, "activityLog", activityLog);
+            return store;
+        }
+    }
+}
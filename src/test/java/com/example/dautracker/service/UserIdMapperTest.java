@@ -0,0 +1,63 @@
+package com.example.dautracker.service;
+
+import com.example.dautracker.config.DAUProperties;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserIdMapperTest {
+
+    private static EmbeddedRedis redis;
+
+    private DAUProperties properties;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        if (redis != null) {
+            redis.close();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        redis.flush();
+        properties = new DAUProperties();
+    }
+
+    @Test
+    void batchAssignsDenseOffsetsAndReusesThem() {
+        UserIdMapper mapper = TestFixtures.userIdMapper(properties, redis.template());
+
+        long[] offsets = mapper.getOrAssignOffsets(new long[]{900L, 500L, 900L}, 3);
+
+        assertThat(offsets).containsExactly(0L, 1L, 0L);
+        //另一个实例没有本地缓存，从Redis读到相同的映射
+        UserIdMapper other = TestFixtures.userIdMapper(properties, redis.template());
+        assertThat(other.getOrAssignOffsets(new long[]{500L, 700L}, 2)).containsExactly(1L, 2L);
+        assertThat(other.getOffset(900L)).isZero();
+    }
+
+    @Test
+    void batchReloadsScriptAfterScriptFlush() {
+        UserIdMapper mapper = TestFixtures.userIdMapper(properties, redis.template());
+        assertThat(mapper.getOrAssignOffsets(new long[]{1L}, 1)).containsExactly(0L);
+
+        redis.template().execute((RedisCallback<Object>) connection -> {
+            connection.scriptingCommands().scriptFlush();
+            return null;
+        });
+
+        assertThat(mapper.getOrAssignOffsets(new long[]{2L, 3L}, 2)).containsExactly(1L, 2L);
+    }
+}
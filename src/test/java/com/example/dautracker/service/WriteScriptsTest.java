@@ -0,0 +1,158 @@
+package com.example.dautracker.service;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 在嵌入式Redis上验证批量写入使用的Lua脚本
+ */
+class WriteScriptsTest {
+
+    private static final byte[] MERGE_RANGE = script("scripts/merge_bitmap_range.lua");
+    private static final byte[] SETBITS_AND_COUNT = script("scripts/setbits_and_count.lua");
+    private static final byte[] RECORD_AND_COUNT = script("scripts/record_and_count.lua");
+
+    private static EmbeddedRedis redis;
+
+    private static StringRedisTemplate redisTemplate;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = EmbeddedRedis.start();
+        redisTemplate = redis.template();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        if (redis != null) {
+            redis.close();
+        }
+    }
+
+    @BeforeEach
+    void flush() {
+        redis.flush();
+    }
+
+    @Test
+    void mergeIntoEmptyRangeReturnsAllBits() {
+        assertThat(merge("bm", 2, new byte[]{(byte) 0xFF, 0x01})).isEqualTo(9L);
+
+        assertThat(bitCount("bm")).isEqualTo(9L);
+        assertThat(redisTemplate.opsForValue().getBit("bm", 16)).isTrue();
+        assertThat(redisTemplate.opsForValue().getBit("bm", 24)).isFalse();
+        assertThat(redisTemplate.opsForValue().getBit("bm", 31)).isTrue();
+    }
+
+    @Test
+    void mergeOrsWithExistingBitsAndCountsOnlyNewOnes() {
+        redisTemplate.opsForValue().setBit("bm", 0, true);
+        redisTemplate.opsForValue().setBit("bm", 9, true);
+
+        assertThat(merge("bm", 0, new byte[]{(byte) 0x80, (byte) 0xC0, 0x01})).isEqualTo(2L);
+
+        assertThat(bitCount("bm")).isEqualTo(4L);
+        for (long offset : new long[]{0, 8, 9, 23}) {
+            assertThat(redisTemplate.opsForValue().getBit("bm", offset)).isTrue();
+        }
+    }
+
+    @Test
+    void mergeLargerThanOneUnpackChunk() {
+        redisTemplate.opsForValue().setBit("bm", 0, true);
+        byte[] bytes = new byte[10_000];
+        Arrays.fill(bytes, (byte) 0x01);
+
+        assertThat(merge("bm", 0, bytes)).isEqualTo(10_000L);
+
+        assertThat(bitCount("bm")).isEqualTo(10_001L);
+    }
+
+    @Test
+    void mergeSeedsMissingCounterAndIncrementsExistingOne() {
+        redisTemplate.opsForValue().setBit("bm", 100, true);
+
+        assertThat(mergeAndCount("bm", "cnt", 0, new byte[]{(byte) 0xF0})).isEqualTo(4L);
+        assertThat(redisTemplate.opsForValue().get("cnt")).isEqualTo("5");
+        assertThat(redisTemplate.getExpire("cnt")).isPositive();
+
+        assertThat(mergeAndCount("bm", "cnt", 0, new byte[]{(byte) 0xFF})).isEqualTo(4L);
+        assertThat(redisTemplate.opsForValue().get("cnt")).isEqualTo("9");
+    }
+
+    @Test
+    void setBitsSeedsMissingCounterAndIncrementsExistingOne() {
+        redisTemplate.opsForValue().setBit("bm", 5, true);
+
+        assertThat(setBitsAndCount("bm", "cnt", 5, 6, 7)).isEqualTo(2L);
+        assertThat(redisTemplate.opsForValue().get("cnt")).isEqualTo("3");
+
+        assertThat(setBitsAndCount("bm", "cnt", 7, 8)).isEqualTo(1L);
+        assertThat(redisTemplate.opsForValue().get("cnt")).isEqualTo("4");
+    }
+
+    @Test
+    void recordSeedsMissingCounter() {
+        redisTemplate.opsForValue().setBit("bm", 5, true);
+        redisTemplate.opsForValue().setBit("bm", 9, true);
+
+        assertThat(recordAndCount("bm", "cnt", 5)).isEqualTo(2L);
+        assertThat(recordAndCount("bm", "cnt", 10)).isEqualTo(3L);
+        redisTemplate.delete("cnt");
+        assertThat(recordAndCount("bm", "cnt", 11)).isEqualTo(4L);
+    }
+
+    private Long merge(String key, long firstByte, byte[] bytes) {
+        return redisTemplate.execute((RedisCallback<Long>) connection -> connection.eval(MERGE_RANGE, ReturnType.INTEGER, 1,
+                raw(key), raw(Long.toString(firstByte)), bytes));
+    }
+
+    private Long mergeAndCount(String key, String counterKey, long firstByte, byte[] bytes) {
+        return redisTemplate.execute((RedisCallback<Long>) connection -> connection.eval(MERGE_RANGE, ReturnType.INTEGER, 2,
+                raw(key), raw(counterKey), raw(Long.toString(firstByte)), bytes, raw("3600")));
+    }
+
+    private Long setBitsAndCount(String key, String counterKey, long... offsets) {
+        byte[][] keysAndArgs = new byte[offsets.length + 3][];
+        keysAndArgs[0] = raw(key);
+        keysAndArgs[1] = raw(counterKey);
+        keysAndArgs[2] = raw("3600");
+        for (int i = 0; i < offsets.length; i++) {
+            keysAndArgs[i + 3] = raw(Long.toString(offsets[i]));
+        }
+        return redisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.eval(SETBITS_AND_COUNT, ReturnType.INTEGER, 2, keysAndArgs));
+    }
+
+    private Long recordAndCount(String key, String counterKey, long offset) {
+        List<?> result = redisTemplate.execute((RedisCallback<List<?>>) connection ->
+                connection.eval(RECORD_AND_COUNT, ReturnType.MULTI, 2, raw(key), raw(counterKey), raw(Long.toString(offset)), raw("3600")));
+        return (Long) result.get(1);
+    }
+
+    private Long bitCount(String key) {
+        return redisTemplate.execute((RedisCallback<Long>) connection -> connection.stringCommands().bitCount(raw(key)));
+    }
+
+    private static byte[] raw(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] script(String path) {
+        return RedisScript.of(new ClassPathResource(path)).getScriptAsString().getBytes(StandardCharsets.UTF_8);
+    }
+}